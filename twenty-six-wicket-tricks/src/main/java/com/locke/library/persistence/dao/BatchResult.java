@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao;
+
+/**
+ * Outcome of a bulk write through {@link IDao#createAll(Iterable)},
+ * {@link IDao#updateAll(Iterable)} or {@link IDao#deleteAll(Iterable)}.
+ * 
+ * @author Jonathan Locke
+ */
+public final class BatchResult
+{
+    private final int count;
+    private final long elapsedNanos;
+    private final int flushes;
+
+    /**
+     * @param count
+     *            Number of objects written
+     * @param flushes
+     *            Number of times the batch was flushed to the database
+     * @param elapsedNanos
+     *            Time taken in nanoseconds
+     */
+    public BatchResult(final int count, final int flushes, final long elapsedNanos)
+    {
+        this.count = count;
+        this.flushes = flushes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return Number of objects written
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return Time taken in milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        return this.elapsedNanos / 1000000L;
+    }
+
+    /**
+     * @return Number of times the batch was flushed to the database
+     */
+    public int getFlushes()
+    {
+        return this.flushes;
+    }
+
+    /**
+     * @return Objects written per second
+     */
+    public double getThroughput()
+    {
+        if (this.elapsedNanos == 0)
+        {
+            return 0;
+        }
+        return this.count * 1000000000.0 / this.elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[BatchResult count=" + this.count + ", flushes=" + this.flushes + ", elapsed="
+               + getElapsedMillis() + "ms, throughput=" + (long)getThroughput() + "/s]";
+    }
+}
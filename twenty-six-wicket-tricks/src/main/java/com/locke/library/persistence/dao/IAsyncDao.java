@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.query.Clause;
+
+/**
+ * Asynchronous, read-only access to the objects of an {@link IDao}. Each call
+ * returns immediately with a future, so a page that shows several independent
+ * lists can start all of its queries at once and wait for them together
+ * before rendering. Objects returned are detached.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public interface IAsyncDao<T extends IPersistent<PK>, PK extends Serializable>
+{
+    /**
+     * @param clauses
+     *            Abstract clauses to form query from
+     * @return Future number of objects matching the query
+     */
+    Future<Integer> countMatches(Clause... clauses);
+
+    /**
+     * @param clauses
+     *            Abstract clauses to form query from
+     * @return Future first object matching the query or null if there is none
+     */
+    Future<T> firstMatch(Clause... clauses);
+
+    /**
+     * @param first
+     *            Index of the first matching object to load
+     * @param count
+     *            Maximum number of objects to load
+     * @param clauses
+     *            Abstract clauses to form query from
+     * @return Future list of matching objects
+     */
+    Future<List<T>> page(int first, int count, Clause... clauses);
+
+    /**
+     * Pages through matching objects, fetching up to the given number of
+     * pages ahead in the background while the current page is being consumed.
+     * The cursor must be closed if it is not iterated to the end, which
+     * cancels any pages still being fetched.
+     * 
+     * @param pageSize
+     *            Number of objects per page
+     * @param depth
+     *            Number of pages to fetch ahead of the current page
+     * @param clauses
+     *            Abstract clauses to form query from
+     * @return Cursor over matching objects
+     */
+    ICursor<T> prefetch(int pageSize, int depth, Clause... clauses);
+
+    /**
+     * READ from data source
+     * 
+     * @param id
+     *            Persistent id
+     * @return Future loaded object
+     */
+    Future<T> read(PK id);
+}
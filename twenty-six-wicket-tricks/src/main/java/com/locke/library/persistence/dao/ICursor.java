@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao;
+
+import java.util.Iterator;
+
+/**
+ * A forward-only iteration over query results which holds database resources
+ * until it is closed. Each object is released by the persistence layer once
+ * the cursor has moved past it, so memory use does not grow with the size of
+ * the result. Callers should always close a cursor in a finally block, though
+ * a cursor that has been iterated to the end closes itself.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ */
+public interface ICursor<T> extends Iterable<T>, Iterator<T>
+{
+    /**
+     * Releases the database resources held by this cursor. Calling this method
+     * more than once has no effect.
+     */
+    void close();
+}
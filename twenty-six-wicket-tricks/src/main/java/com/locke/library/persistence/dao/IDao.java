@@ -17,6 +17,9 @@
 package com.locke.library.persistence.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import com.locke.library.persistence.IPersistent;
 import com.locke.library.persistence.dao.query.Clause;
@@ -51,6 +54,19 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     void create(T object);
 
+    /**
+     * CREATE objects in batches. The persistence context is flushed and
+     * cleared after each batch, so objects are detached when this method
+     * returns. Clearing detaches every object in the persistence context,
+     * including objects the caller loaded before this call, so callers that
+     * need those objects attached should use a separate entity manager.
+     * 
+     * @param objects
+     *            Objects to create
+     * @return Statistics for the write
+     */
+    BatchResult createAll(Iterable<T> objects);
+
     /**
      * DELETE object
      * 
@@ -59,6 +75,17 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     void delete(T object);
 
+    /**
+     * DELETE objects in batches. The persistence context is flushed and
+     * cleared after each batch, which detaches every object in it, including
+     * objects the caller loaded before this call.
+     * 
+     * @param objects
+     *            Objects to delete, which may be detached
+     * @return Statistics for the write
+     */
+    BatchResult deleteAll(Iterable<T> objects);
+
     /**
      * Locks the given object
      * 
@@ -90,6 +117,16 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     void queryAttach(T object);
 
+    /**
+     * Attaches the properties of many objects at once, resolving equal
+     * property values with a small number of set-based queries
+     * 
+     * @param objects
+     *            Objects whose properties should be attached to any matching
+     *            persistent objects
+     */
+    void queryAttachAll(Collection<T> objects);
+
     /**
      * @param object
      *            Object to find in database or create
@@ -98,6 +135,18 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     T queryEnsure(T object);
 
+    /**
+     * Ensures many objects at once. Existing objects are found with a small
+     * number of set-based queries and each distinct missing object is created
+     * only once.
+     * 
+     * @param objects
+     *            Objects to find in database or create
+     * @return For each argument in order, the found object or the first equal
+     *         argument (attached to session) if created
+     */
+    List<T> queryEnsureAll(Collection<T> objects);
+
     /**
      * READ from data source
      * 
@@ -107,6 +156,38 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     T read(PK id);
 
+    /**
+     * READ many objects from data source at once
+     * 
+     * @param ids
+     *            Persistent ids
+     * @return Loaded objects by id. Ids of objects that do not exist are not
+     *         in the map.
+     */
+    Map<PK, T> read(Collection<PK> ids);
+
+    /**
+     * READ many objects from data source at once
+     * 
+     * @param ids
+     *            Persistent ids
+     * @param preserveOrder
+     *            True if the map should iterate in the order of the ids
+     * @return Loaded objects by id. Ids of objects that do not exist are not
+     *         in the map.
+     */
+    Map<PK, T> read(Collection<PK> ids, boolean preserveOrder);
+
+    /**
+     * Sets whether queries of this DAO run in read-only mode unless the query
+     * says otherwise
+     * 
+     * @param readOnly
+     *            True to make read-only the default for queries
+     * @see IQuery#readOnly(boolean)
+     */
+    void setReadOnlyQueries(boolean readOnly);
+
     /**
      * UPDATE object
      * 
@@ -115,6 +196,19 @@ public interface IDao<T extends IPersistent<PK>, PK extends Serializable>
      */
     void update(T object);
 
+    /**
+     * UPDATE objects in batches. The persistence context is flushed and
+     * cleared after each batch, so objects are merged rather than persisted
+     * and the objects passed in are not attached by this method. Clearing
+     * detaches every object in the persistence context, including objects
+     * the caller loaded before this call.
+     * 
+     * @param objects
+     *            Objects to update, which may be detached
+     * @return Statistics for the write
+     */
+    BatchResult updateAll(Iterable<T> objects);
+
     public enum LockType
     {
         ATTACH, READ, WRITE
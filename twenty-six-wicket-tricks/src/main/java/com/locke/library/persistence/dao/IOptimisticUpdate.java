@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao;
+
+/**
+ * A read-modify-write operation on a persistent object that may be run more
+ * than once. Each run is given a freshly read copy of the object, so the
+ * operation must not depend on state from an earlier run.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ */
+public interface IOptimisticUpdate<T>
+{
+    /**
+     * @param object
+     *            The object to modify, as just read from the database
+     */
+    void update(T object);
+}
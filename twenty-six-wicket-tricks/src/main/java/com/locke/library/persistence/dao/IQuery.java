@@ -17,6 +17,14 @@
 
 package com.locke.library.persistence.dao;
 
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.Descending;
+import com.locke.library.persistence.dao.query.clauses.Project;
+import com.locke.library.persistence.dao.query.clauses.Set;
+import com.locke.library.persistence.dao.query.clauses.SortOrder;
+
 /**
  * @author jlocke
  */
@@ -28,7 +36,38 @@ public interface IQuery<T>
     int countMatches();
 
     /**
-     * Delete all objects matching this query
+     * Counts matching objects, but stops counting at the given maximum. On
+     * very large tables this costs no more than fetching a page of that size,
+     * so paging user interfaces can show "more than maximum" rather than an
+     * exact total. This is a bounded count, not an estimate: the result is
+     * exact below the maximum. JPA has no portable access to the table
+     * statistics an estimate would need.
+     * 
+     * @param maximum
+     *            The largest count of interest
+     * @return The number of objects matching this query or the maximum if
+     *         there are at least that many
+     */
+    int countMatches(int maximum);
+
+    /**
+     * @return Forward-only cursor over matching objects using the default JDBC
+     *         fetch size. The cursor must be closed.
+     */
+    ICursor<T> cursor();
+
+    /**
+     * @param fetchSize
+     *            Number of rows the JDBC driver should fetch per round trip
+     * @return Forward-only cursor over matching objects. The cursor must be
+     *         closed.
+     */
+    ICursor<T> cursor(int fetchSize);
+
+    /**
+     * Delete all objects matching this query. Match and MatchAny clauses can
+     * only match properties of the objects themselves, not of associated
+     * objects.
      */
     void delete();
 
@@ -58,4 +97,78 @@ public interface IQuery<T>
      *         session may be closed at the end of each page.
      */
     Iterable<T> page(int pageSize, int column);
+
+    /**
+     * Pages through matching objects using keyset (seek) pagination. Each page
+     * after the first selects objects whose sort key follows the last object
+     * on the previous page rather than skipping rows by offset, so the cost of
+     * fetching a page does not grow with its position. Ties are broken on the
+     * primary key and the sort key properties must not be null.
+     * 
+     * @param pageSize
+     *            Number of objects per page
+     * @param key
+     *            {@link Ascending} or {@link Descending} sort key to page by
+     * @return Pages through matching objects in key order. The session may be
+     *         closed at the end of each page.
+     */
+    Iterable<T> page(int pageSize, SortOrder key);
+
+    /**
+     * Sets what happens to the persistence context between pages when paging
+     * through this query. The default is {@link PageBoundary#CLOSE}.
+     * 
+     * @param boundary
+     *            The page boundary behavior
+     * @return This query
+     */
+    IQuery<T> pageBoundary(PageBoundary boundary);
+
+    /**
+     * Sets whether this query runs in read-only mode, overriding the default
+     * of its DAO. Objects loaded by a read-only query are not snapshotted or
+     * checked for changes at flush time, and pending changes are not flushed
+     * before the query runs, so read-only queries are much cheaper for results
+     * that are only displayed. Changes made to the objects are not saved.
+     * 
+     * @param readOnly
+     *            True to run this query in read-only mode
+     * @return This query
+     */
+    IQuery<T> readOnly(boolean readOnly);
+
+    /**
+     * Selects only the properties named by the {@link Project} clause of this
+     * query. No objects are loaded, so the rows are cheap to fetch and are not
+     * tracked by the persistence context.
+     * 
+     * @return The projected property values of each matching object, in the
+     *         order the properties were named
+     */
+    List<Object[]> rows();
+
+    /**
+     * Selects only the properties named by the {@link Project} clause of this
+     * query and constructs a row object for each match.
+     * 
+     * @param <R>
+     *            Type of row
+     * @param type
+     *            Row type, which must have a public constructor taking the
+     *            projected property values in order
+     * @return A row object for each matching object
+     */
+    <R> List<R> rows(Class<R> type);
+
+    /**
+     * Updates all objects matching this query with a single statement,
+     * without loading them. Objects already loaded into the persistence
+     * context are not refreshed. As with {@link #delete()}, match clauses can
+     * only match properties of the objects themselves.
+     * 
+     * @param assignments
+     *            Fields to assign and their values
+     * @return Number of objects updated
+     */
+    int update(Set... assignments);
 }
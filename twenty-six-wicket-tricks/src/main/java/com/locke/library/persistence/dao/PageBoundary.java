@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao;
+
+/**
+ * What happens to the persistence context between the pages of a paged query
+ * 
+ * @author Jonathan Locke
+ */
+public enum PageBoundary
+{
+    /**
+     * Close the entity manager, so each page is fetched with a new entity
+     * manager and connection. All objects loaded so far become detached.
+     * Entity managers for replicas or bound to the thread by asynchronous work
+     * are shared or owned elsewhere, so they are cleared instead.
+     */
+    CLOSE,
+
+    /**
+     * Clear the entity manager but keep it and its connection for the next
+     * page. All objects loaded so far become detached.
+     */
+    CLEAR,
+
+    /**
+     * Keep the entity manager and evict only the objects on the previous page,
+     * leaving any other objects in the persistence context attached
+     */
+    EVICT
+}
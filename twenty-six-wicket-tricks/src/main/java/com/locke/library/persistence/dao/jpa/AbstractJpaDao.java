@@ -18,26 +18,54 @@ package com.locke.library.persistence.dao.jpa;
 
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.LockModeType;
+import javax.transaction.Synchronization;
 
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.RequestCycle;
 import org.apache.wicket.util.lang.Classes;
+import org.apache.wicket.util.lang.PropertyResolver;
 import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 import org.hibernate.ejb.HibernateEntityManager;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionImplementor;
 
 import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.BatchResult;
 import com.locke.library.persistence.dao.IDao;
 import com.locke.library.persistence.dao.IQuery;
 import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.jpa.JpaQuery.MatchConstraint;
 import com.locke.library.persistence.dao.query.clauses.Match;
-import com.locke.library.utilities.strings.MethodName;
+import com.locke.library.persistence.dao.query.clauses.MatchAny;
+import com.locke.library.utilities.collections.MapList;
 
 /**
  * Base class for JPA DAO implementations
+ * <p>
+ * Subclasses may route read-only work to database replicas by implementing
+ * {@link #getReplicaEntityManager()}. Reads by primary key and queries that
+ * find, page or count objects then use a replica, while writes and anything
+ * that precedes a write use the primary. Once a request writes through any
+ * DAO, its reads stick to the primary so that it sees its own writes. The pin
+ * is kept in the request cycle and ends with it. Outside a request it is kept
+ * per thread until {@link #unpinPrimary()} is called.
  * 
  * @author Jonathan Locke
  * @param <T>
@@ -46,17 +74,137 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
                                                                                          implements
                                                                                          IDao<T, PK>
 {
+    /**
+     * Default number of objects written between flushes by bulk writes
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * Default maximum number of values bound into a single query
+     */
+    public static final int DEFAULT_MAXIMUM_IN_LIST_SIZE = 500;
+
     /**
      * Map from object class to dao
      */
-    private static final Map<Class<?>, AbstractJpaDao<?, ?>> daoForClass =
-            new HashMap<Class<?>, AbstractJpaDao<?, ?>>();
+    private static final ConcurrentHashMap<Class<?>, AbstractJpaDao<?, ?>> daoForClass =
+            new ConcurrentHashMap<Class<?>, AbstractJpaDao<?, ?>>();
+
+    /**
+     * Present in the metadata of requests whose reads must use the primary
+     * because they have written
+     */
+    private static final MetaDataKey<Boolean> PRIMARY_PINNED = new MetaDataKey<Boolean>()
+    {
+        private static final long serialVersionUID = 6212457035813476730L;
+    };
+
+    /**
+     * True on threads outside any request whose reads must use the primary
+     * because they have written
+     */
+    private static final ThreadLocal<Boolean> primaryPinned = new ThreadLocal<Boolean>();
+
+    /**
+     * @return True if reads in the current request, or on the current thread
+     *         outside any request, use the primary
+     */
+    public static boolean isPrimaryPinned()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            return cycle.getMetaData(PRIMARY_PINNED) != null;
+        }
+        return primaryPinned.get() != null;
+    }
+
+    /**
+     * Makes reads use the primary for the rest of the current request, or on
+     * the current thread outside any request until {@link #unpinPrimary()} is
+     * called. This happens automatically on any write.
+     */
+    public static void pinPrimary()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            cycle.setMetaData(PRIMARY_PINNED, Boolean.TRUE);
+        }
+        else
+        {
+            primaryPinned.set(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Allows reads to use replicas again. A pin made during a request ends
+     * with the request, but threads that write outside any request, such as
+     * background jobs, must call this when their unit of work is done.
+     */
+    public static void unpinPrimary()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            cycle.setMetaData(PRIMARY_PINNED, null);
+        }
+        primaryPinned.remove();
+    }
 
     /**
      * Class of object managed by this DAO
      */
     final Class<T> type;
 
+    /**
+     * Queries compiled for this DAO by shape
+     */
+    private final CompiledQueryCache compiledQueryCache = new CompiledQueryCache();
+
+    /**
+     * Entity manager bound to the current thread in place of
+     * {@link #getEntityManager()}, if any
+     */
+    private final ThreadLocal<EntityManager> boundEntityManager = new ThreadLocal<EntityManager>();
+
+    /**
+     * Any cache of query counts
+     */
+    private volatile CountCache countCache;
+
+    /**
+     * Any cache of objects read by primary key
+     */
+    private volatile EntityCache<T, PK> entityCache;
+
+    /**
+     * Invalidations to repeat when the transaction the current thread is
+     * writing in completes
+     */
+    private final ThreadLocal<PendingInvalidation> pendingInvalidation =
+            new ThreadLocal<PendingInvalidation>();
+
+    /**
+     * Execution statistics for queries against this DAO, if any
+     */
+    private volatile QueryStatistics queryStatistics = new QueryStatistics();
+
+    /**
+     * True if queries run in read-only mode by default
+     */
+    private volatile boolean readOnlyQueries;
+
+    /**
+     * Any cache of query result pages
+     */
+    private volatile ResultCache<PK> resultCache;
+
+    /**
+     * Any buffer that updates are written behind through
+     */
+    private volatile WriteBehindBuffer<T, PK> writeBehindBuffer;
+
     /**
      * @param type
      *            Type of object managed by this DAO
@@ -78,7 +226,7 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
 
     public void close()
     {
-        getEntityManager().close();
+        entityManager().close();
     }
 
     /**
@@ -86,7 +234,16 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public void create(final T object)
     {
-        getEntityManager().persist(object);
+        entityManager().persist(object);
+        invalidate(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult createAll(final Iterable<T> objects)
+    {
+        return writeAll(objects, BatchOperation.CREATE);
     }
 
     /**
@@ -94,7 +251,16 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public void delete(final T object)
     {
-        getEntityManager().remove(object);
+        entityManager().remove(object);
+        invalidate(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult deleteAll(final Iterable<T> objects)
+    {
+        return writeAll(objects, BatchOperation.DELETE);
     }
 
     /**
@@ -111,6 +277,66 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
         return false;
     }
 
+    /**
+     * @return Cache of query counts or null if counts are not cached
+     */
+    public CountCache getCountCache()
+    {
+        return this.countCache;
+    }
+
+    /**
+     * @return Cache of objects read by primary key or null if reads are not
+     *         cached
+     */
+    public EntityCache<T, PK> getEntityCache()
+    {
+        return this.entityCache;
+    }
+
+    /**
+     * @return Cache of queries compiled for this DAO, including hit and miss
+     *         statistics
+     */
+    public CompiledQueryCache getCompiledQueryCache()
+    {
+        return this.compiledQueryCache;
+    }
+
+    /**
+     * @return Cache of query result pages or null if results are not cached
+     */
+    public ResultCache<PK> getResultCache()
+    {
+        return this.resultCache;
+    }
+
+    /**
+     * @return Buffer that updates are written behind through or null if
+     *         updates are written immediately
+     */
+    public WriteBehindBuffer<T, PK> getWriteBehindBuffer()
+    {
+        return this.writeBehindBuffer;
+    }
+
+    /**
+     * @return True if queries run in read-only mode by default
+     */
+    public boolean isReadOnlyQueries()
+    {
+        return this.readOnlyQueries;
+    }
+
+    /**
+     * @return Execution statistics for queries against this DAO or null if
+     *         statistics are not being kept
+     */
+    public QueryStatistics getQueryStatistics()
+    {
+        return this.queryStatistics;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -125,18 +351,18 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public void lock(final T object, final LockType lockType)
     {
+        pinPrimary();
         if (lockType == LockType.READ)
         {
-            getEntityManager().lock(object, LockModeType.READ);
+            entityManager().lock(object, LockModeType.READ);
         }
         else if (lockType == LockType.WRITE)
         {
-            getEntityManager().lock(object, LockModeType.WRITE);
+            entityManager().lock(object, LockModeType.WRITE);
         }
         else if (lockType == LockType.ATTACH)
         {
-            final HibernateEntityManager manager = (HibernateEntityManager)getEntityManager();
-            manager.getSession().lock(object, LockMode.NONE);
+            getSession().lock(object, LockMode.NONE);
         }
         else
         {
@@ -165,7 +391,17 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public void queryAttach(final T object)
     {
-        processProperties(object, PropertyProcessingMode.ATTACH);
+        pinPrimary();
+        processProperties(Collections.singletonList(object), PropertyProcessingMode.ATTACH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void queryAttachAll(final Collection<T> objects)
+    {
+        pinPrimary();
+        processProperties(objects, PropertyProcessingMode.ATTACH);
     }
 
     /**
@@ -173,12 +409,14 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public T queryEnsure(final T object)
     {
+        // Looking for the object must see any earlier writes
+        pinPrimary();
         final T found = query(new Clause[] { new Match<T>(object) }).firstMatch();
         if (found != null)
         {
             return found;
         }
-        processProperties(object, PropertyProcessingMode.ENSURE);
+        processProperties(Collections.singletonList(object), PropertyProcessingMode.ENSURE);
         create(object);
         return object;
     }
@@ -186,9 +424,229 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
     /**
      * {@inheritDoc}
      */
+    public List<T> queryEnsureAll(final Collection<T> objects)
+    {
+        // Looking for the objects must see any earlier writes
+        pinPrimary();
+
+        // Find all objects that already exist
+        final Map<T, T> found = findMatches(objects);
+
+        // Determine which objects are missing, creating only one object for
+        // each distinct match key
+        final Map<List<Object>, T> missing = new HashMap<List<Object>, T>();
+        final List<T> created = new ArrayList<T>();
+        final List<T> ensured = new ArrayList<T>(objects.size());
+        for (final T object : objects)
+        {
+            T match = found.get(object);
+            if (match == null)
+            {
+                final List<Object> key = matchKey(object);
+                match = missing.get(key);
+                if (match == null)
+                {
+                    missing.put(key, object);
+                    created.add(object);
+                    match = object;
+                }
+            }
+            ensured.add(match);
+        }
+
+        // Ensure properties of missing objects and create them
+        processProperties(created, PropertyProcessingMode.ENSURE);
+        for (final T object : created)
+        {
+            create(object);
+        }
+        return ensured;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * An object with an update waiting in the write-behind buffer is returned
+     * as a detached copy of the buffered state.
+     */
     public T read(final PK id)
     {
-        return getEntityManager().find(this.type, id);
+        final WriteBehindBuffer<T, PK> buffer = this.writeBehindBuffer;
+        if (buffer != null)
+        {
+            final T buffered = buffer.get(id);
+            if (buffered != null)
+            {
+                return buffered;
+            }
+        }
+        final EntityCache<T, PK> cache = this.entityCache;
+        if (cache != null)
+        {
+            final T cached = cache.get(id);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+        final T object = readEntityManager().find(this.type, id);
+        if (cache != null && object != null)
+        {
+            cache.put(object);
+        }
+        return object;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<PK, T> read(final Collection<PK> ids)
+    {
+        return read(ids, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Objects in the write-behind buffer or the entity cache or already
+     * managed by the persistence context are returned without a query. The
+     * rest are read with one query for each chunk of ids that fits within
+     * {@link #getMaximumInListSize()}.
+     */
+    public Map<PK, T> read(final Collection<PK> ids, final boolean preserveOrder)
+    {
+        // Find objects that can be had without a query
+        final Map<PK, T> objects = new HashMap<PK, T>();
+        final List<PK> missing = new ArrayList<PK>();
+        final WriteBehindBuffer<T, PK> buffer = this.writeBehindBuffer;
+        final EntityCache<T, PK> cache = this.entityCache;
+        for (final PK id : new LinkedHashSet<PK>(ids))
+        {
+            T object = buffer != null ? buffer.get(id) : null;
+            if (object == null && cache != null)
+            {
+                object = cache.get(id);
+            }
+            if (object == null)
+            {
+                object = managed(id);
+            }
+            if (object != null)
+            {
+                objects.put(id, object);
+            }
+            else
+            {
+                missing.add(id);
+            }
+        }
+
+        // Read the rest in chunks that stay within the limit on in-list size
+        final int chunkSize = Math.max(1, getMaximumInListSize());
+        for (int i = 0; i < missing.size(); i += chunkSize)
+        {
+            final List<PK> chunk = missing.subList(i, Math.min(i + chunkSize, missing.size()));
+            for (final T object : new JpaQuery<T, PK>(this, new ClauseList()).read(chunk))
+            {
+                objects.put(object.getPrimaryKey(), object);
+                if (cache != null)
+                {
+                    cache.put(object);
+                }
+            }
+        }
+        if (!preserveOrder)
+        {
+            return objects;
+        }
+        final Map<PK, T> ordered = new LinkedHashMap<PK, T>();
+        for (final PK id : ids)
+        {
+            final T object = objects.get(id);
+            if (object != null)
+            {
+                ordered.put(id, object);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Caches the results of {@link IQuery#countMatches()} and
+     * {@link IQuery#countMatches(int)} for queries against this DAO.
+     * 
+     * @param countCache
+     *            Cache of query counts or null to stop caching
+     */
+    public void setCountCache(final CountCache countCache)
+    {
+        this.countCache = countCache;
+    }
+
+    /**
+     * Caches objects read by primary key. Once set, {@link #read(Serializable)}
+     * may return a detached copy of an object, and {@link #update(IPersistent)}
+     * merges such objects back into the persistence context.
+     * 
+     * @param entityCache
+     *            Cache of objects read by primary key or null to stop caching
+     */
+    public void setEntityCache(final EntityCache<T, PK> entityCache)
+    {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Caches the primary keys of the objects on each page of query results
+     * for queries against this DAO. Cached pages are read again by primary
+     * key into the persistence context, without using any entity cache, so
+     * their objects are managed as the query's results would be. Queries that
+     * fetch associations are not cached.
+     * 
+     * @param resultCache
+     *            Cache of query result pages or null to stop caching
+     */
+    public void setResultCache(final ResultCache<PK> resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Writes updates of objects that have primary keys behind through the
+     * given buffer. {@link #update(IPersistent)} then returns without writing.
+     * Reads by primary key return a copy of the buffered state, but queries
+     * see the old state of an object until the buffer flushes it. Objects
+     * managed by the DAO's entity manager are written by its next flush
+     * rather than buffered, since the caller's flush would write them anyway.
+     * Updates made while an entity manager is bound to the thread, as by
+     * {@link OptimisticUpdater}, are still written immediately. The buffer is
+     * not closed by this DAO.
+     * 
+     * @param writeBehindBuffer
+     *            Buffer to write updates through or null to write updates
+     *            immediately
+     */
+    public void setWriteBehindBuffer(final WriteBehindBuffer<T, PK> writeBehindBuffer)
+    {
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setReadOnlyQueries(final boolean readOnly)
+    {
+        this.readOnlyQueries = readOnly;
+    }
+
+    /**
+     * @param queryStatistics
+     *            Execution statistics for queries against this DAO or null to
+     *            stop keeping statistics
+     */
+    public void setQueryStatistics(final QueryStatistics queryStatistics)
+    {
+        this.queryStatistics = queryStatistics;
     }
 
     /**
@@ -196,7 +654,52 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     public void update(final T object)
     {
-        getEntityManager().persist(object);
+        // Write existing objects behind if buffering, unless the buffer is
+        // closed, the update is part of the unit of work of a bound entity
+        // manager or the object is managed, so the caller's flush writes it
+        final WriteBehindBuffer<T, PK> buffer = this.writeBehindBuffer;
+        final EntityManager entityManager = entityManager();
+        final boolean managed = entityManager.contains(object);
+        if (buffer != null && object.getPrimaryKey() != null)
+        {
+            if (!managed && this.boundEntityManager.get() == null && buffer.add(object))
+            {
+                invalidate(object);
+                return;
+            }
+            buffer.discard(object.getPrimaryKey());
+        }
+        if (object.getPrimaryKey() != null && !managed)
+        {
+            // Detached (possibly cached) object
+            entityManager.merge(object);
+        }
+        else
+        {
+            entityManager.persist(object);
+        }
+        invalidate(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult updateAll(final Iterable<T> objects)
+    {
+        return writeAll(objects, BatchOperation.UPDATE);
+    }
+
+    /**
+     * Override this method to change how many objects bulk writes send to the
+     * database at once. Statements are only sent as JDBC batches if
+     * hibernate.jdbc.batch_size is configured for the persistence unit, and
+     * this value should match it.
+     * 
+     * @return Number of objects written between flushes by bulk writes
+     */
+    protected int getBatchSize()
+    {
+        return DEFAULT_BATCH_SIZE;
     }
 
     /**
@@ -204,6 +707,260 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
      */
     protected abstract EntityManager getEntityManager();
 
+    /**
+     * Override this method to route read-only work to a replica, for example
+     * by returning {@link ReplicaPool#get()}
+     * 
+     * @return An entity manager for a replica of the database or null to read
+     *         from the primary
+     */
+    protected EntityManager getReplicaEntityManager()
+    {
+        return null;
+    }
+
+    /**
+     * Override this method to suit the database's limit on the number of
+     * values in an "in" list or bound to a single statement
+     * 
+     * @return Maximum number of values bound into a single query
+     */
+    protected int getMaximumInListSize()
+    {
+        return DEFAULT_MAXIMUM_IN_LIST_SIZE;
+    }
+
+    /**
+     * Finds persistent objects matching each of the given examples using as
+     * few queries as possible
+     * 
+     * @param examples
+     *            The objects to match by example
+     * @return Map from example (by identity) to the first matching persistent
+     *         object for examples that were found
+     */
+    Map<T, T> findMatches(final Collection<T> examples)
+    {
+        final Map<T, T> found = new IdentityHashMap<T, T>();
+
+        // Group examples with equal match keys and note which sets of
+        // properties are being matched
+        final JpaQuery<T, PK> matcher = new JpaQuery<T, PK>(this, new ClauseList());
+        final MapList<List<Object>, T> examplesByKey = new MapList<List<Object>, T>();
+        final Set<List<String>> propertyNames = new LinkedHashSet<List<String>>();
+        final List<T> distinct = new ArrayList<T>();
+        int maximumProperties = 1;
+        for (final T example : examples)
+        {
+            final List<MatchConstraint> constraints = matcher.matchConstraints(example);
+            final List<Object> key = new ArrayList<Object>();
+            final List<String> names = new ArrayList<String>();
+            for (final MatchConstraint constraint : constraints)
+            {
+                names.add(constraint.getName());
+            }
+            key.addAll(names);
+            for (final MatchConstraint constraint : constraints)
+            {
+                key.add(constraint.getValue());
+            }
+            if (examplesByKey.list(key) == null)
+            {
+                distinct.add(example);
+            }
+            examplesByKey.add(key, example);
+            propertyNames.add(names);
+            maximumProperties = Math.max(maximumProperties, names.size());
+        }
+
+        // Query for distinct examples in chunks that stay within the limit on
+        // bound values
+        final int chunkSize = Math.max(1, getMaximumInListSize() / maximumProperties);
+        for (int i = 0; i < distinct.size(); i += chunkSize)
+        {
+            final List<T> chunk = distinct.subList(i, Math.min(i + chunkSize, distinct.size()));
+            for (final T match : query(new Clause[] { new MatchAny<T>(chunk) }).matches())
+            {
+                // Map the match back to every example it satisfies
+                for (final List<String> names : propertyNames)
+                {
+                    final List<Object> key = new ArrayList<Object>(names);
+                    for (final String name : names)
+                    {
+                        key.add(PropertyResolver.getValue(name, match));
+                    }
+                    final List<T> matched = examplesByKey.list(key);
+                    if (matched != null)
+                    {
+                        for (final T example : matched)
+                        {
+                            if (!found.containsKey(example))
+                            {
+                                found.put(example, match);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The Hibernate session underlying the entity manager, for
+     *         features that JPA does not expose
+     */
+    Session getSession()
+    {
+        return ((HibernateEntityManager)entityManager()).getSession();
+    }
+
+    /**
+     * @return The Hibernate session underlying the entity manager for
+     *         read-only work
+     */
+    Session getReadSession()
+    {
+        return ((HibernateEntityManager)readEntityManager()).getSession();
+    }
+
+    /**
+     * @param id
+     *            Primary key
+     * @return The object with the given primary key if it is already managed
+     *         by the persistence context, or null. The database is never
+     *         queried and no proxy is created.
+     */
+    @SuppressWarnings("unchecked")
+    T managed(final PK id)
+    {
+        final SessionImplementor session = (SessionImplementor)getReadSession();
+        final EntityKey key =
+                new EntityKey(id, session.getFactory().getEntityPersister(this.type.getName()),
+                              session.getEntityMode());
+        return (T)session.getPersistenceContext().getEntity(key);
+    }
+
+    /**
+     * Makes this DAO use the given entity manager on the current thread until
+     * {@link #restoreEntityManager(EntityManager)} is called with the entity
+     * manager this method returns. Bindings may nest, for example when a task
+     * runs on the thread that submitted it.
+     * 
+     * @param entityManager
+     *            The entity manager
+     * @return Any entity manager already bound to the current thread, or null
+     */
+    EntityManager bindEntityManager(final EntityManager entityManager)
+    {
+        final EntityManager previous = this.boundEntityManager.get();
+        this.boundEntityManager.set(entityManager);
+        return previous;
+    }
+
+    /**
+     * @return The entity manager bound to the current thread, if any, or else
+     *         the entity manager from {@link #getEntityManager()}
+     */
+    EntityManager entityManager()
+    {
+        final EntityManager entityManager = this.boundEntityManager.get();
+        return entityManager != null ? entityManager : getEntityManager();
+    }
+
+    /**
+     * @return The entity manager for read-only work, which is any entity
+     *         manager bound to the current thread, or else a replica unless
+     *         the thread has written, or else the primary
+     */
+    EntityManager readEntityManager()
+    {
+        final EntityManager entityManager = this.boundEntityManager.get();
+        if (entityManager != null)
+        {
+            return entityManager;
+        }
+        final EntityManager replica = replicaEntityManager();
+        return replica != null ? replica : getEntityManager();
+    }
+
+    /**
+     * @return The replica that the current thread reads from, or null if the
+     *         thread has written and so must read from the primary or if the DAO
+     *         does not route reads to replicas
+     */
+    EntityManager replicaEntityManager()
+    {
+        return isPrimaryPinned() ? null : getReplicaEntityManager();
+    }
+
+    /**
+     * Discards any cached state for the given object after it has been
+     * written. If the write is part of an active transaction, the state is
+     * discarded again when the transaction completes, since other threads may
+     * cache the object or counts that include it before the write commits.
+     * 
+     * @param object
+     *            The object
+     */
+    void invalidate(final T object)
+    {
+        evict(object);
+        invalidateQueries();
+        final PendingInvalidation pending = pendingInvalidation();
+        if (pending != null)
+        {
+            pending.add(object);
+        }
+    }
+
+    /**
+     * Discards all cached state for objects of this DAO's type after a bulk
+     * write, and again when any active transaction completes
+     */
+    void invalidateAll()
+    {
+        clearEntityCache();
+        invalidateQueries();
+        final PendingInvalidation pending = pendingInvalidation();
+        if (pending != null)
+        {
+            pending.addAll();
+        }
+    }
+
+    /**
+     * Discards any cached state for the given object after it has been written
+     * and committed by another thread
+     * 
+     * @param object
+     *            The object
+     */
+    void invalidateCommitted(final T object)
+    {
+        evict(object);
+        clearQueryCaches();
+    }
+
+    /**
+     * Restores the binding the current thread had before the matching call to
+     * {@link #bindEntityManager(EntityManager)}
+     * 
+     * @param previous
+     *            The entity manager that call returned, which may be null
+     */
+    void restoreEntityManager(final EntityManager previous)
+    {
+        if (previous == null)
+        {
+            this.boundEntityManager.remove();
+        }
+        else
+        {
+            this.boundEntityManager.set(previous);
+        }
+    }
+
     /**
      * @return The name of this DAO
      */
@@ -213,119 +970,402 @@ public abstract class AbstractJpaDao<T extends IPersistent<PK>, PK extends Seria
     }
 
     /**
-     * Attaches or ensures all properties of the given object whose getters are
-     * annotated with {@link Attachable} or {@link Ensurable}
+     * @param object
+     *            An object to match by example
+     * @return Key which is equal for two objects exactly when they match the
+     *         same persistent objects
+     */
+    List<Object> matchKey(final T object)
+    {
+        final JpaQuery<T, PK> matcher = new JpaQuery<T, PK>(this, new ClauseList());
+        final List<Object> key = new ArrayList<Object>();
+        final List<MatchConstraint> constraints = matcher.matchConstraints(object);
+        for (final MatchConstraint constraint : constraints)
+        {
+            key.add(constraint.getName());
+        }
+        for (final MatchConstraint constraint : constraints)
+        {
+            key.add(constraint.getValue());
+        }
+        return key;
+    }
+
+    /**
+     * Discards all cached objects
+     */
+    private void clearEntityCache()
+    {
+        final EntityCache<T, PK> cache = this.entityCache;
+        if (cache != null)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Discards cached counts and result pages
+     */
+    private void clearQueryCaches()
+    {
+        final CountCache countCache = this.countCache;
+        if (countCache != null)
+        {
+            countCache.clear();
+        }
+        final ResultCache<PK> resultCache = this.resultCache;
+        if (resultCache != null)
+        {
+            resultCache.clear();
+        }
+    }
+
+    /**
+     * Removes the given object from the entity cache
      * 
      * @param object
-     *            The object whose properties should be attached or ensured
+     *            The object
+     */
+    private void evict(final T object)
+    {
+        final EntityCache<T, PK> cache = this.entityCache;
+        if (cache != null && object.getPrimaryKey() != null)
+        {
+            cache.remove(object.getPrimaryKey());
+        }
+    }
+
+    /**
+     * Discards cached counts and result pages, which any write may change, and
+     * pins this thread to the primary so it reads its own writes
+     */
+    private void invalidateQueries()
+    {
+        pinPrimary();
+        clearQueryCaches();
+    }
+
+    /**
+     * @return The invalidations to repeat when the transaction of the session
+     *         used for writes completes, or null if there is no active
+     *         transaction or nothing is cached
+     */
+    private PendingInvalidation pendingInvalidation()
+    {
+        if (this.entityCache == null && this.countCache == null && this.resultCache == null)
+        {
+            return null;
+        }
+        final Transaction transaction = getSession().getTransaction();
+        if (!transaction.isActive())
+        {
+            return null;
+        }
+        PendingInvalidation pending = this.pendingInvalidation.get();
+        if (pending == null || !pending.isFor(transaction))
+        {
+            pending = new PendingInvalidation(transaction);
+            transaction.registerSynchronization(pending);
+            this.pendingInvalidation.set(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Attaches or ensures all properties of the given objects whose getters
+     * are annotated with {@link Attachable} or {@link Ensurable}. The property
+     * values are resolved with one set of queries for each type of value
+     * rather than one query per property, and when ensuring, equal values that
+     * are not found are persisted only once.
+     * 
+     * @param objects
+     *            The objects whose properties should be attached or ensured
      * @param mode
      *            Either Mode.ENSURE or Mode.ATTACH
      */
-    private void processProperties(final T object, final PropertyProcessingMode mode)
+    @SuppressWarnings("unchecked")
+    private void processProperties(final Collection<? extends IPersistent<?>> objects,
+                                   final PropertyProcessingMode mode)
     {
-        for (final Method method : object.getClass().getMethods())
+        // Read the values of all annotated properties, grouped by type
+        final MapList<Class<?>, PropertyValue> valuesForClass =
+                new MapList<Class<?>, PropertyValue>();
+        for (final IPersistent<?> object : objects)
         {
-            try
+            final PropertyPlan plan = PropertyPlan.forClass(object.getClass());
+            for (final PropertyPlan.Property property : plan.properties(mode))
             {
-                final boolean isAttachable = method.getAnnotation(Attachable.class) != null;
-                final boolean isEnsurable = method.getAnnotation(Ensurable.class) != null;
-                if ((isAttachable && mode == PropertyProcessingMode.ATTACH)
-                    || (isEnsurable && mode == PropertyProcessingMode.ENSURE))
+                try
                 {
-                    final MethodName methodName = new MethodName(method);
-                    if (!methodName.isGetter())
+                    // Get property value from getter
+                    final Object value = property.read(object);
+                    if (value instanceof IPersistent)
                     {
-                        throw new IllegalStateException("Attachable and/or Ensurable method '"
-                                                        + method + "' is not a getter");
+                        valuesForClass.add(value.getClass(),
+                                           new PropertyValue(object, property,
+                                                             (IPersistent<?>)value));
                     }
-                    final Method writeMethod =
-                            object.getClass().getMethod(methodName.prefixed("set"),
-                                                        method.getReturnType());
-                    if (writeMethod == null)
-                    {
-                        throw new IllegalStateException("No corresponding setter for " + method);
-                    }
-                    processProperty(object, method, writeMethod, mode);
+                }
+                catch (final IllegalArgumentException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (final IllegalAccessException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (final InvocationTargetException e)
+                {
+                    e.printStackTrace();
                 }
             }
-            catch (final SecurityException e)
+        }
+
+        // Resolve the values of each type together
+        for (final Map.Entry<Class<?>, List<PropertyValue>> entry : valuesForClass.entrySet())
+        {
+            // Locate DAO for the values
+            final AbstractJpaDao<?, ?> dao = daoForClass.get(entry.getKey());
+            if (dao == null)
             {
-                e.printStackTrace();
+                throw new IllegalStateException("No DAO found for " + entry.getKey());
             }
-            catch (final NoSuchMethodException e)
+            processValues(dao, entry.getValue(), mode);
+        }
+    }
+
+    /**
+     * Writes the given objects, flushing and clearing the entity manager after
+     * every batch so the persistence context stays small. Clearing detaches
+     * every object in the persistence context, not only those being written.
+     * Each object is evicted from the entity cache as it is written, while
+     * cached counts and result pages are discarded once for the whole call.
+     * All of this is repeated when any active transaction completes.
+     * 
+     * @param objects
+     *            The objects to write
+     * @param operation
+     *            The write to perform on each object
+     * @return Statistics for the write
+     */
+    private BatchResult writeAll(final Iterable<T> objects, final BatchOperation operation)
+    {
+        final long start = System.nanoTime();
+        final EntityManager entityManager = entityManager();
+        final PendingInvalidation pending = pendingInvalidation();
+        final int batchSize = getBatchSize();
+        int count = 0;
+        int flushes = 0;
+        for (final T object : objects)
+        {
+            if (operation == BatchOperation.CREATE)
             {
-                e.printStackTrace();
+                entityManager.persist(object);
             }
-            catch (final IllegalArgumentException e)
+            else if (operation == BatchOperation.UPDATE)
             {
-                e.printStackTrace();
+                entityManager.merge(object);
             }
-            catch (final IllegalAccessException e)
+            else
             {
-                e.printStackTrace();
+                // Objects may have been detached by an earlier batch
+                if (entityManager.contains(object))
+                {
+                    entityManager.remove(object);
+                }
+                else
+                {
+                    entityManager.remove(entityManager.getReference(this.type,
+                                                                    object.getPrimaryKey()));
+                }
             }
-            catch (final InvocationTargetException e)
+            evict(object);
+            if (pending != null)
             {
-                e.printStackTrace();
+                pending.add(object);
             }
+            if (++count % batchSize == 0)
+            {
+                entityManager.flush();
+                entityManager.clear();
+                flushes++;
+            }
+        }
+        if (count % batchSize != 0)
+        {
+            entityManager.flush();
+            entityManager.clear();
+            flushes++;
         }
+        if (count > 0)
+        {
+            invalidateQueries();
+        }
+        return new BatchResult(count, flushes, System.nanoTime() - start);
+    }
+
+    enum BatchOperation
+    {
+        CREATE, DELETE, UPDATE
+    }
+
+    enum PropertyProcessingMode
+    {
+        ATTACH, ENSURE
     }
 
     /**
-     * Attaches or ensures the given property of the given object
+     * Cached state to discard again once a transaction has completed, so that
+     * nothing read by other threads before the transaction committed or rolled
+     * back stays cached
+     */
+    private final class PendingInvalidation implements Synchronization
+    {
+        private boolean all;
+        private volatile boolean completed;
+        private final Set<PK> ids = new HashSet<PK>();
+        private final Transaction transaction;
+
+        PendingInvalidation(final Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void afterCompletion(final int status)
+        {
+            this.completed = true;
+            if (AbstractJpaDao.this.pendingInvalidation.get() == this)
+            {
+                AbstractJpaDao.this.pendingInvalidation.remove();
+            }
+            if (this.all)
+            {
+                clearEntityCache();
+            }
+            else
+            {
+                final EntityCache<T, PK> cache = AbstractJpaDao.this.entityCache;
+                if (cache != null)
+                {
+                    for (final PK id : this.ids)
+                    {
+                        cache.remove(id);
+                    }
+                }
+            }
+            clearQueryCaches();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void beforeCompletion()
+        {
+        }
+
+        void add(final T object)
+        {
+            if (object.getPrimaryKey() != null)
+            {
+                this.ids.add(object.getPrimaryKey());
+            }
+        }
+
+        void addAll()
+        {
+            this.all = true;
+        }
+
+        boolean isFor(final Transaction transaction)
+        {
+            return this.transaction == transaction && !this.completed;
+        }
+    }
+
+    /**
+     * Attaches or ensures the given property values, which are all of the type
+     * managed by the given DAO
      * 
-     * @param object
-     *            The object having the property
-     * @param readMethod
-     *            The property getter
-     * @param writeMethod
-     *            The property setter
+     * @param dao
+     *            The DAO for the type of the values
+     * @param propertyValues
+     *            The property values to process
      * @param mode
-     *            Either Mode.ENSURE or Mode.ATTACH
-     * @throws IllegalArgumentException
-     * @throws IllegalAccessException
-     * @throws InvocationTargetException
-     * @throws SecurityException
-     * @throws NoSuchMethodException
+     *            Attach or ensure
      */
-    @SuppressWarnings("unchecked")
-    private void processProperty(final T object, final Method readMethod, final Method writeMethod,
-                                 final PropertyProcessingMode mode)
-        throws IllegalArgumentException, IllegalAccessException, InvocationTargetException,
-        SecurityException, NoSuchMethodException
+    private <V extends IPersistent<K>, K extends Serializable> void processValues(
+            final AbstractJpaDao<V, K> dao, final List<PropertyValue> propertyValues,
+            final PropertyProcessingMode mode)
     {
-        // Get property value from getter
-        final Object value = readMethod.invoke(object, (Object[])null);
-        if (value instanceof IPersistent)
+        // Query DB for values
+        final List<V> values = new ArrayList<V>();
+        for (final PropertyValue propertyValue : propertyValues)
         {
-            // Locate DAO for the value
-            final AbstractJpaDao<?, ?> dao = daoForClass.get(value.getClass());
+            values.add(dao.type.cast(propertyValue.value));
+        }
+        final Map<V, V> found = dao.findMatches(values);
 
-            // Query DB for value
-            final JpaQuery<IPersistent<?>, ?> query =
-                    new JpaQuery(dao, new ClauseList(new Match((IPersistent)value)));
-            final IPersistent<?> found = query.firstMatch();
+        final Map<List<Object>, IPersistent<?>> saved =
+                new HashMap<List<Object>, IPersistent<?>>();
+        for (final PropertyValue propertyValue : propertyValues)
+        {
+            IPersistent<?> replacement = found.get(propertyValue.value);
 
-            // If the value was found
-            if (found != null)
+            // If we're saving un-found values
+            if (replacement == null && mode == PropertyProcessingMode.ENSURE)
             {
-                // attach found value to property
-                writeMethod.invoke(object, found);
+                // save each distinct transient value once
+                final List<Object> key = dao.matchKey(dao.type.cast(propertyValue.value));
+                replacement = saved.get(key);
+                if (replacement == null)
+                {
+                    entityManager().persist(propertyValue.value);
+                    saved.put(key, propertyValue.value);
+                    replacement = propertyValue.value;
+                }
             }
-            else
+
+            // If the value was found, attach it to the property
+            if (replacement != null && replacement != propertyValue.value)
             {
-                // If we're saving un-found values
-                if (mode == PropertyProcessingMode.ENSURE)
+                try
+                {
+                    propertyValue.property.write(propertyValue.object, replacement);
+                }
+                catch (final IllegalArgumentException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (final IllegalAccessException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (final InvocationTargetException e)
                 {
-                    // save transient value
-                    getEntityManager().persist(value);
+                    e.printStackTrace();
                 }
             }
         }
     }
 
-    enum PropertyProcessingMode
+    /**
+     * The value of an attachable or ensurable property of an object
+     */
+    private static final class PropertyValue
     {
-        ATTACH, ENSURE
+        final IPersistent<?> object;
+        final PropertyPlan.Property property;
+        final IPersistent<?> value;
+
+        PropertyValue(final IPersistent<?> object, final PropertyPlan.Property property,
+                      final IPersistent<?> value)
+        {
+            this.object = object;
+            this.property = property;
+            this.value = value;
+        }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.Session;
+
+/**
+ * A {@link CompiledQuery} together with the parameter values and result range
+ * for one execution of it.
+ * 
+ * @author Jonathan Locke
+ */
+final class BoundQuery
+{
+    /**
+     * Value of first or max results when no range was given
+     */
+    static final int UNBOUNDED = -1;
+
+    private final CompiledQuery compiledQuery;
+    private final int firstResult;
+    private final int maxResults;
+    private final Map<String, Object> parameters;
+
+    /**
+     * @param compiledQuery
+     *            The compiled query
+     * @param parameters
+     *            Parameter values by name
+     * @param firstResult
+     *            Index of first result or UNBOUNDED
+     * @param maxResults
+     *            Maximum number of results or UNBOUNDED
+     */
+    BoundQuery(final CompiledQuery compiledQuery, final Map<String, Object> parameters,
+               final int firstResult, final int maxResults)
+    {
+        this.compiledQuery = compiledQuery;
+        this.parameters = parameters;
+        this.firstResult = firstResult;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * @param entityManager
+     *            The entity manager to create the query with
+     * @return JPA query with all parameters and any range set
+     */
+    Query createQuery(final EntityManager entityManager)
+    {
+        final Query query = entityManager.createQuery(this.compiledQuery.getEjbql());
+        for (final Map.Entry<String, Object> entry : this.parameters.entrySet())
+        {
+            query.setParameter(entry.getKey(), entry.getValue());
+        }
+        if (this.firstResult != UNBOUNDED)
+        {
+            query.setFirstResult(this.firstResult);
+        }
+        if (this.maxResults != UNBOUNDED)
+        {
+            query.setMaxResults(this.maxResults);
+        }
+        return query;
+    }
+
+    /**
+     * @param session
+     *            The Hibernate session to create the query with, for features
+     *            that JPA does not expose
+     * @return Hibernate query with all parameters and any range set
+     */
+    org.hibernate.Query createQuery(final Session session)
+    {
+        final org.hibernate.Query query = session.createQuery(this.compiledQuery.getEjbql());
+        for (final Map.Entry<String, Object> entry : this.parameters.entrySet())
+        {
+            if (entry.getValue() instanceof Collection)
+            {
+                query.setParameterList(entry.getKey(), (Collection<?>)entry.getValue());
+            }
+            else
+            {
+                query.setParameter(entry.getKey(), entry.getValue());
+            }
+        }
+        if (this.firstResult != UNBOUNDED)
+        {
+            query.setFirstResult(this.firstResult);
+        }
+        if (this.maxResults != UNBOUNDED)
+        {
+            query.setMaxResults(this.maxResults);
+        }
+        return query;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object object)
+    {
+        if (object instanceof BoundQuery)
+        {
+            final BoundQuery that = (BoundQuery)object;
+            return this.compiledQuery.equals(that.compiledQuery)
+                   && this.firstResult == that.firstResult
+                   && this.maxResults == that.maxResults
+                   && this.parameters.equals(that.parameters);
+        }
+        return false;
+    }
+
+    /**
+     * @return The compiled query
+     */
+    CompiledQuery getCompiledQuery()
+    {
+        return this.compiledQuery;
+    }
+
+    /**
+     * @return Parameter values by name
+     */
+    Map<String, Object> getParameters()
+    {
+        return this.parameters;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return (this.compiledQuery.hashCode() * 31 + this.parameters.hashCode()) * 31
+               + this.firstResult * 17 + this.maxResults;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.compiledQuery + " " + this.parameters;
+    }
+}
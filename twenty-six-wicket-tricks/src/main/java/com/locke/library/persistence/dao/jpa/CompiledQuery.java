@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+/**
+ * An immutable EJBQL statement compiled from the shape of a {@link ClauseList}.
+ * No literal values appear in the text. They are supplied as named parameters
+ * each time the statement is executed (see {@link BoundQuery}), which lets the
+ * persistence provider and the JDBC driver reuse their cached query plans and
+ * prepared statements. Instances are shared between threads through
+ * {@link CompiledQueryCache}.
+ * 
+ * @author Jonathan Locke
+ */
+public final class CompiledQuery
+{
+    /**
+     * The EJBQL text with named parameter placeholders
+     */
+    private final String ejbql;
+
+    /**
+     * @param ejbql
+     *            The EJBQL text with named parameter placeholders
+     */
+    CompiledQuery(final String ejbql)
+    {
+        this.ejbql = ejbql;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object object)
+    {
+        if (object instanceof CompiledQuery)
+        {
+            return ((CompiledQuery)object).ejbql.equals(this.ejbql);
+        }
+        return false;
+    }
+
+    /**
+     * @return The EJBQL text with named parameter placeholders
+     */
+    public String getEjbql()
+    {
+        return this.ejbql;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return this.ejbql.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.ejbql;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache of {@link CompiledQuery}s keyed by query shape. The shape of
+ * a query is everything that affects its EJBQL text but not its parameter
+ * values, so two {@link JpaQuery}s that differ only in the values they match
+ * share a single compiled query.
+ * <p>
+ * The cache is bounded. Once it is full, newly compiled queries are still
+ * returned but are no longer retained, which protects against callers that
+ * glue literal values into {@link com.locke.library.persistence.dao.query.clauses.Where}
+ * text.
+ * 
+ * @author Jonathan Locke
+ */
+public class CompiledQueryCache
+{
+    /**
+     * Default maximum number of query shapes to retain
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 512;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final int maximumSize;
+    private final AtomicLong misses = new AtomicLong();
+    private final ConcurrentHashMap<Object, CompiledQuery> queries =
+            new ConcurrentHashMap<Object, CompiledQuery>();
+
+    public CompiledQueryCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize
+     *            Maximum number of query shapes to retain
+     */
+    public CompiledQueryCache(final int maximumSize)
+    {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Discards all compiled queries. Statistics are not affected.
+     */
+    public void clear()
+    {
+        this.queries.clear();
+    }
+
+    /**
+     * @return Number of lookups that found an already compiled query
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of lookups that had to compile a query
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return Number of query shapes currently retained
+     */
+    public int size()
+    {
+        return this.queries.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[CompiledQueryCache size=" + size() + ", hits=" + getHits() + ", misses="
+               + getMisses() + "]";
+    }
+
+    /**
+     * @param shape
+     *            The query shape
+     * @return The compiled query for the shape or null if it has not been
+     *         compiled yet
+     */
+    CompiledQuery get(final Object shape)
+    {
+        final CompiledQuery query = this.queries.get(shape);
+        if (query != null)
+        {
+            this.hits.incrementAndGet();
+        }
+        else
+        {
+            this.misses.incrementAndGet();
+        }
+        return query;
+    }
+
+    /**
+     * @param shape
+     *            The query shape, which must not be modified after this call
+     * @param query
+     *            The query compiled for the shape
+     * @return The query to use, which may have been compiled concurrently by
+     *         another thread
+     */
+    CompiledQuery put(final Object shape, final CompiledQuery query)
+    {
+        if (this.queries.size() >= this.maximumSize)
+        {
+            return query;
+        }
+        final CompiledQuery existing = this.queries.putIfAbsent(shape, query);
+        return existing != null ? existing : query;
+    }
+}
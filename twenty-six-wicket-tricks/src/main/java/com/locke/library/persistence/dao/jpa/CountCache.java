@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Cache of {@link com.locke.library.persistence.dao.IQuery#countMatches()}
+ * results keyed by compiled query and parameter values. Counts are served for
+ * at most the staleness window given to the constructor. They are discarded
+ * sooner if the owning DAO writes any object of its type, but not when other
+ * types that a query refers to change.
+ * 
+ * @author Jonathan Locke
+ */
+public class CountCache extends TimedCache<Object, Integer>
+{
+    /**
+     * @param maximumSize
+     *            Maximum number of counts to hold
+     * @param staleness
+     *            How long a count may be served after it was computed
+     */
+    public CountCache(final int maximumSize, final Duration staleness)
+    {
+        super(maximumSize, staleness);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * Cache of persistent objects by primary key, for use by
+ * {@link AbstractJpaDao#read(Serializable)}. The cache holds its own detached
+ * copy of each object and hands out a fresh copy on every hit, so callers in
+ * different threads never share an instance. Objects must therefore be
+ * serializable.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class EntityCache<T extends IPersistent<PK>, PK extends Serializable> extends
+    TimedCache<PK, T>
+{
+    /**
+     * @param maximumSize
+     *            Maximum number of objects to hold
+     * @param timeToLive
+     *            How long an object may be served from the cache after it was
+     *            loaded
+     */
+    public EntityCache(final int maximumSize, final Duration timeToLive)
+    {
+        super(maximumSize, timeToLive);
+    }
+
+    /**
+     * @param key
+     *            Primary key
+     * @return Copy of the cached object or null if it is not cached
+     */
+    @Override
+    public T get(final PK key)
+    {
+        final T cached = super.get(key);
+        return cached != null ? copy(cached) : null;
+    }
+
+    /**
+     * @param key
+     *            Primary key
+     * @param object
+     *            Object to cache a copy of
+     */
+    @Override
+    public void put(final PK key, final T object)
+    {
+        super.put(key, copy(object));
+    }
+
+    /**
+     * @param object
+     *            Object to cache a copy of by its primary key
+     */
+    public void put(final T object)
+    {
+        put(object.getPrimaryKey(), object);
+    }
+
+    /**
+     * @param object
+     *            The object
+     * @return A detached deep copy of the object
+     */
+    @SuppressWarnings("unchecked")
+    private T copy(final T object)
+    {
+        return (T)Objects.cloneObject(object);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.IAsyncDao;
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.utilities.concurrent.BoundedExecutor;
+
+/**
+ * {@link IAsyncDao} which runs the queries of an {@link AbstractJpaDao} on a
+ * {@link BoundedExecutor}. Each task reads from the replica that the
+ * submitting thread would read from, if the DAO routes reads to replicas and
+ * the thread has not written. Otherwise, since entity managers are not
+ * thread-safe, each task creates its own entity manager for the primary and
+ * closes it when the task is done. Either way the entity manager is bound to
+ * the DAO for the task's thread.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class JpaAsyncDao<T extends IPersistent<PK>, PK extends Serializable> implements
+    IAsyncDao<T, PK>
+{
+    private final AbstractJpaDao<T, PK> dao;
+    private final EntityManagerFactory entityManagerFactory;
+    private final BoundedExecutor executor;
+
+    /**
+     * @param dao
+     *            The DAO to run queries with
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each task
+     * @param executor
+     *            The executor to run tasks on
+     */
+    public JpaAsyncDao(final AbstractJpaDao<T, PK> dao,
+                       final EntityManagerFactory entityManagerFactory,
+                       final BoundedExecutor executor)
+    {
+        this.dao = dao;
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Integer> countMatches(final Clause... clauses)
+    {
+        return submit(new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return JpaAsyncDao.this.dao.query(clauses).countMatches();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> firstMatch(final Clause... clauses)
+    {
+        return submit(new Callable<T>()
+        {
+            public T call()
+            {
+                return JpaAsyncDao.this.dao.query(clauses).firstMatch();
+            }
+        });
+    }
+
+    /**
+     * @return The executor tasks run on, for its statistics
+     */
+    public BoundedExecutor getExecutor()
+    {
+        return this.executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<List<T>> page(final int first, final int count, final Clause... clauses)
+    {
+        return submit(new Callable<List<T>>()
+        {
+            public List<T> call()
+            {
+                final JpaQuery<T, PK> query =
+                        new JpaQuery<T, PK>(JpaAsyncDao.this.dao, new ClauseList(clauses));
+                final List<T> page =
+                        new ArrayList<T>(query.fetchPage(query.bind(), first, count, 0));
+                query.batchFetch(page);
+                return page;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ICursor<T> prefetch(final int pageSize, final int depth, final Clause... clauses)
+    {
+        final JpaQuery<T, PK> query = new JpaQuery<T, PK>(this.dao, new ClauseList(clauses));
+        return new PrefetchingJpaQueryResult<T, PK>(query, this.entityManagerFactory,
+                                                    this.executor, pageSize, depth);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> read(final PK id)
+    {
+        return submit(new Callable<T>()
+        {
+            public T call()
+            {
+                return JpaAsyncDao.this.dao.read(id);
+            }
+        });
+    }
+
+    /**
+     * @param <V>
+     *            Type of result
+     * @param task
+     *            The task
+     * @return Future result of running the task with the submitting thread's
+     *         replica or else its own entity manager for the primary
+     */
+    private <V> Future<V> submit(final Callable<V> task)
+    {
+        // Choose the replica here, since worker threads are outside any request
+        final EntityManager replica = this.dao.replicaEntityManager();
+        return this.executor.submit(new Callable<V>()
+        {
+            public V call() throws Exception
+            {
+                final EntityManager entityManager =
+                        replica != null ? replica : JpaAsyncDao.this.entityManagerFactory
+                                .createEntityManager();
+                final EntityManager previous =
+                        JpaAsyncDao.this.dao.bindEntityManager(entityManager);
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    JpaAsyncDao.this.dao.restoreEntityManager(previous);
+                    if (replica == null)
+                    {
+                        entityManager.close();
+                    }
+                }
+            }
+        });
+    }
+}
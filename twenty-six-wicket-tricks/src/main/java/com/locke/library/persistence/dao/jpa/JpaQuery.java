@@ -17,38 +17,90 @@
 package com.locke.library.persistence.dao.jpa;
 
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.Session;
+
 import org.apache.wicket.util.string.StringList;
 
 import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.ICursor;
 import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.query.Clause;
 import com.locke.library.persistence.dao.query.QueryText;
 import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.BatchFetch;
 import com.locke.library.persistence.dao.query.clauses.Count;
 import com.locke.library.persistence.dao.query.clauses.Descending;
 import com.locke.library.persistence.dao.query.clauses.Distinct;
 import com.locke.library.persistence.dao.query.clauses.Fetch;
+import com.locke.library.persistence.dao.query.clauses.Filter;
 import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.persistence.dao.query.clauses.MatchAny;
+import com.locke.library.persistence.dao.query.clauses.Project;
 import com.locke.library.persistence.dao.query.clauses.Range;
+import com.locke.library.persistence.dao.query.clauses.Set;
+import com.locke.library.persistence.dao.query.clauses.SortOrder;
 import com.locke.library.persistence.dao.query.clauses.Where;
+import com.locke.library.persistence.dao.query.predicates.Predicate;
 import com.locke.library.utilities.object.Type;
 import com.locke.library.utilities.strings.MethodName;
 
 /**
  * Query builder for use in subclasses in implementing buildQuery().
+ * <p>
+ * Clauses are compiled into a {@link CompiledQuery} which is cached by the DAO
+ * according to the shape of the clauses. Values from {@link Match} clauses are
+ * never inlined into the query text, but are passed as bind parameters instead.
  * 
  * @author Jonathan
  */
 public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implements IQuery<T>
 {
+    /**
+     * JDBC fetch size used by {@link #cursor()}
+     */
+    public static final int DEFAULT_CURSOR_FETCH_SIZE = 100;
+
+    /**
+     * Name of the parameter holding primary keys to read objects or batch
+     * fetch associations for
+     */
+    private static final String IDENTIFIERS_PARAMETER = "b";
+
+    /**
+     * Hibernate query hint that loads results read-only
+     */
+    private static final String READ_ONLY_HINT = "org.hibernate.readOnly";
+
+    /**
+     * Hibernate query hint that sets the flush mode for a query
+     */
+    private static final String FLUSH_MODE_HINT = "org.hibernate.flushMode";
+
     Class<T> restrictToType;
 
-    private boolean addedMatchConstraint;
+    /**
+     * The bound query for the clauses passed to the constructor, once compiled
+     */
+    private BoundQuery boundQuery;
 
     /**
      * Abstracted clauses we're building a query for
@@ -60,7 +112,20 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
      */
     private final AbstractJpaDao<T, PK> dao;
 
-    private boolean queryablePropertyFound;
+    /**
+     * What happens to the persistence context between pages
+     */
+    private PageBoundary pageBoundary = PageBoundary.CLOSE;
+
+    /**
+     * Un-abstracted query text passed to the constructor
+     */
+    private final String query;
+
+    /**
+     * Whether this query is read-only or null to use the DAO's default
+     */
+    private Boolean readOnly;
 
     /**
      * The EJBQL text we're building
@@ -75,6 +140,7 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
     {
         this.clauses = clauses;
         this.dao = dao;
+        this.query = null;
     }
 
     /**
@@ -85,7 +151,7 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
     {
         this.clauses = null;
         this.dao = dao;
-        this.queryText.add(query);
+        this.query = query;
     }
 
     public Iterable<T> column(final int column)
@@ -98,30 +164,101 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
      */
     public int countMatches()
     {
+        final BoundQuery boundQuery;
         if (this.clauses != null)
         {
             // Add count clause before clauses passed in
             final ClauseList newClauses = new ClauseList();
             newClauses.add(new Count());
             newClauses.addAll(this.clauses);
+            boundQuery = bind(newClauses, Statement.SELECT);
+        }
+        else
+        {
+            boundQuery = bind();
+        }
 
-            // Result of query should be a count
-            final Long count = (Long)build(newClauses).getSingleResult();
-            if (count == null)
+        // Use any recent count for the same query and parameters
+        final CountCache cache = this.dao.getCountCache();
+        if (cache != null)
+        {
+            final Integer cached = cache.get(boundQuery);
+            if (cached != null)
             {
-                return 0;
+                return cached;
             }
-            return count.intValue();
         }
-        else
+
+        // Result of query should be a count
+        final long start = System.nanoTime();
+        final Long result = (Long)build(boundQuery).getSingleResult();
+        final int count = result == null ? 0 : result.intValue();
+        record(boundQuery, start, 1, false);
+        if (cache != null)
+        {
+            cache.put(boundQuery, count);
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int countMatches(final int maximum)
+    {
+        if (this.clauses == null)
+        {
+            throw new UnsupportedOperationException("Bounded counts require abstracted clauses");
+        }
+        final BoundQuery boundQuery = bind(this.clauses, Statement.IDENTIFIERS);
+        final List<Object> key = Arrays.asList(boundQuery, maximum);
+
+        // Use any recent count for the same query, parameters and maximum
+        final CountCache cache = this.dao.getCountCache();
+        if (cache != null)
         {
-            final Long count = (Long)build(null).getSingleResult();
-            if (count == null)
+            final Integer cached = cache.get(key);
+            if (cached != null)
             {
-                return 0;
+                return cached;
             }
-            return count.intValue();
         }
+
+        // Select no more than the maximum number of identifiers
+        final long start = System.nanoTime();
+        final Query query = build(boundQuery);
+        query.setMaxResults(maximum);
+        final int count = query.getResultList().size();
+        record(boundQuery, start, count, false);
+        if (cache != null)
+        {
+            cache.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ICursor<T> cursor()
+    {
+        return cursor(DEFAULT_CURSOR_FETCH_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ICursor<T> cursor(final int fetchSize)
+    {
+        final Session session = this.dao.getReadSession();
+        final org.hibernate.Query query = bind().createQuery(session);
+        query.setFetchSize(fetchSize);
+        if (isReadOnly())
+        {
+            query.setReadOnly(true);
+            query.setFlushMode(FlushMode.MANUAL);
+        }
+        return new JpaQueryCursor<T>(session, query.scroll(ScrollMode.FORWARD_ONLY), 0);
     }
 
     /**
@@ -129,8 +266,12 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
      */
     public void delete()
     {
-        this.queryText.add("delete");
-        build().executeUpdate();
+        final BoundQuery boundQuery =
+                this.clauses != null ? bind(this.clauses, Statement.DELETE) : bind();
+        final long start = System.nanoTime();
+        final int rows = boundQuery.createQuery(getEntityManager()).executeUpdate();
+        record(boundQuery, start, rows, false);
+        this.dao.invalidateAll();
     }
 
     /**
@@ -160,6 +301,37 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
         return page(pageSize, 0);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> page(final int pageSize, final SortOrder key)
+    {
+        if (this.clauses == null)
+        {
+            throw new UnsupportedOperationException("Keyset paging requires abstracted clauses");
+        }
+        for (final Clause clause : this.clauses)
+        {
+            if (clause instanceof SortOrder || clause instanceof Range
+                || clause instanceof Distinct)
+            {
+                throw new IllegalArgumentException("Keyset paging cannot be combined with "
+                                                   + clause.getClass().getSimpleName()
+                                                   + " clauses");
+            }
+        }
+        final JpaQueryResult<T, PK> queryResult =
+                new JpaQueryResult<T, PK>(this, pageSize, new Keyset<T, PK>(key))
+                {
+                    @Override
+                    protected void onBeforeNextPage()
+                    {
+                        onPageBoundary(getPage());
+                    }
+                };
+        return queryResult;
+    }
+
     public Iterable<T> page(final int pageSize, final int column)
     {
         final JpaQueryResult<T, PK> queryResult = new JpaQueryResult<T, PK>(this, pageSize, column)
@@ -167,7 +339,7 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
             @Override
             protected void onBeforeNextPage()
             {
-                getEntityManager().close();
+                onPageBoundary(getPage());
             }
         };
         return queryResult;
@@ -176,59 +348,151 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
     /**
      * {@inheritDoc}
      */
-    @Override
-    public String toString()
+    public IQuery<T> pageBoundary(final PageBoundary boundary)
     {
-        build(this.clauses);
-        return this.queryText.toString();
+        this.pageBoundary = boundary;
+        return this;
     }
 
     /**
-     * @param name
-     *            Name of property to match
-     * @param value
-     *            Value it should be
+     * {@inheritDoc}
+     */
+    public IQuery<T> readOnly(final boolean readOnly)
+    {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
      */
-    protected void addMatchConstraint(final String name, final Object value)
+    public List<Object[]> rows()
     {
-        this.addedMatchConstraint = true;
-        if (value instanceof String || value instanceof Character)
+        projection();
+        final BoundQuery boundQuery = bind(this.clauses, Statement.PROJECTION);
+        final long start = System.nanoTime();
+        final List<?> results = build(boundQuery).getResultList();
+        final List<Object[]> rows = new ArrayList<Object[]>(results.size());
+        for (final Object result : results)
         {
-            // All single quote must be replaced with two single quotes to avoid
-            // confusing the DB EJBQL compiler. The interpreter will treat the
-            // back-to-back single quotes as a lone single quote
-            // TODO: There should be an object that ensures that the format is
-            // valid, not just handling this one case.
-            this.queryText.and("target." + name + " = '" + value.toString().replaceAll("'", "''")
-                               + "'");
+            // A single projected property is not returned as an array
+            rows.add(result instanceof Object[] ? (Object[])result : new Object[] { result });
         }
-        else if (value instanceof Number || value instanceof Boolean)
+        record(boundQuery, start, rows.size(), false);
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> rows(final Class<R> type)
+    {
+        final int columns = projection().getProperties().length;
+        Constructor<R> constructor = null;
+        for (final Constructor<?> candidate : type.getConstructors())
         {
-            this.queryText.and("target." + name + " = " + value);
+            if (candidate.getParameterTypes().length == columns)
+            {
+                constructor = (Constructor<R>)candidate;
+                break;
+            }
         }
-        else
+        if (constructor == null)
+        {
+            throw new IllegalArgumentException(type + " has no public constructor taking "
+                                               + columns + " projected properties");
+        }
+        final List<R> rows = new ArrayList<R>();
+        try
+        {
+            for (final Object[] row : rows())
+            {
+                rows.add(constructor.newInstance(row));
+            }
+        }
+        catch (final InstantiationException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e);
+        }
+        catch (final IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e);
+        }
+        catch (final InvocationTargetException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e.getCause());
+        }
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return bind().getCompiledQuery().toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int update(final Set... assignments)
+    {
+        if (this.clauses == null)
         {
-            throw new UnsupportedOperationException(
-                                                    "Cannot add match constraint for value of class "
-                                                            + value.getClass());
+            throw new UnsupportedOperationException("Bulk updates require abstracted clauses");
         }
+        if (assignments.length == 0)
+        {
+            throw new IllegalArgumentException("Bulk update must set at least one field");
+        }
+        final ClauseList clauses = new ClauseList();
+        clauses.addAll(this.clauses);
+        clauses.addAll(Arrays.asList(assignments));
+        final BoundQuery boundQuery = bind(clauses, Statement.UPDATE);
+        final long start = System.nanoTime();
+        final int rows = boundQuery.createQuery(getEntityManager()).executeUpdate();
+        record(boundQuery, start, rows, false);
+        this.dao.invalidateAll();
+        return rows;
+    }
+
+    /**
+     * @param name
+     *            Name of property to match
+     * @param parameter
+     *            Name of the parameter that will hold the value to match
+     */
+    protected void addMatchConstraint(final String name, final String parameter)
+    {
+        this.queryText.and("target." + name + " = :" + parameter);
     }
 
     /**
      * Adds match constraints for all fields of the match object that are
      * populated with non-null values
      * 
-     * @param match
+     * @param baseName
+     *            Property path of the object or null for the match object
+     *            itself
+     * @param object
      *            The object to match by example
+     * @param constraints
+     *            List to add constraints to
+     * @return True if any @Queryable property was found
      */
-    protected void addMatchConstraints(final String baseName, final Object object)
+    protected boolean addMatchConstraints(final String baseName, final Object object,
+                                          final List<MatchConstraint> constraints)
     {
+        boolean queryablePropertyFound = false;
         try
         {
             final Type type = Type.forClass(object.getClass());
             for (final Method method : type.annotatedMethods(Queryable.class))
             {
-                this.queryablePropertyFound = true;
+                queryablePropertyFound = true;
 
                 // Get the return type and invoke the method to get the
                 // actual return value
@@ -249,12 +513,12 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
                     if (isSupported(returnType))
                     {
                         // Add a match constraint for that value
-                        addMatchConstraint(name, returnValue);
+                        constraints.add(new MatchConstraint(name, returnValue));
                     }
                     else
                     {
                         // Add match constraints for sub-object
-                        addMatchConstraints(name, returnValue);
+                        addMatchConstraints(name, returnValue, constraints);
                     }
                 }
             }
@@ -271,6 +535,7 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
         {
             e.printStackTrace();
         }
+        return queryablePropertyFound;
     }
 
     /**
@@ -309,121 +574,1122 @@ public class JpaQuery<T extends IPersistent<PK>, PK extends Serializable> implem
      * Adds match constraints for all fields of the match object that are
      * populated with non-null values
      * 
-     * @param match
-     *            The object to match by example
+     * @param constraints
+     *            The match constraints found in the object to match by
+     *            example
+     */
+    protected void onMatch(final List<MatchConstraint> constraints)
+    {
+        for (int i = 0; i < constraints.size(); i++)
+        {
+            addMatchConstraint(constraints.get(i).getName(), matchParameter(i));
+        }
+    }
+
+    /**
+     * @return The query for the clauses passed to the constructor, bound to
+     *         its parameter values
      */
-    protected void onMatch(final Match<T> match)
+    BoundQuery bind()
     {
-        this.addedMatchConstraint = false;
-        addMatchConstraints(null, match.getObject());
-        if (!this.addedMatchConstraint)
+        if (this.boundQuery == null)
         {
-            if (!this.queryablePropertyFound)
+            if (this.clauses != null)
             {
-                throw new IllegalStateException("No @Queryable properties found in match against "
-                                                + match.getObject().getClass());
+                this.boundQuery = bind(this.clauses, Statement.SELECT);
             }
             else
             {
-                throw new IllegalStateException("All @Queryable properties found in match against "
-                                                + match.getObject().getClass() + " were null");
+                this.boundQuery = bind(this.query);
             }
         }
+        return this.boundQuery;
     }
 
-    Query build()
-    {
-        return build(this.clauses);
-    }
-
+    /**
+     * Reads a page of results, or loads the objects on it by primary key if
+     * the page is in the DAO's result cache. Queries with {@link Fetch}
+     * clauses are not cached, since loading by primary key would not fetch
+     * their associations.
+     * 
+     * @param boundQuery
+     *            The bound query
+     * @param first
+     *            Index of the first result
+     * @param maximum
+     *            Maximum number of results
+     * @param column
+     *            Column to select if results are arrays
+     * @return The page
+     */
     @SuppressWarnings("unchecked")
-    private Query build(final ClauseList clauses)
+    List<T> fetchPage(final BoundQuery boundQuery, final int first, final int maximum,
+                      final int column)
     {
-        if (clauses != null)
+        // Use any recent page for the same query, parameters and range
+        final ResultCache<PK> cache = hasFetchJoins() ? null : this.dao.getResultCache();
+        final List<Object> key = Arrays.<Object>asList(boundQuery, first, maximum, column);
+        long generation = 0;
+        if (cache != null)
         {
-            this.queryText.clear();
-
-            // Count clause included?
-            final Count count = clauses.find(Count.class);
-            if (count != null)
-            {
-                this.queryText.add("select count(*)");
-            }
-
-            for (final Distinct distinct : clauses.findAll(Distinct.class))
-            {
-                this.queryText.add("select distinct target, target." + distinct.getField());
-            }
-
-            // Always add this
-            this.queryText.add("from " + this.dao.getName() + " as target");
-
-            // Add any fetch clauses
-            for (final Fetch fetch : clauses.findAll(Fetch.class))
+            final List<PK> ids = cache.get(key);
+            if (ids != null)
             {
-                this.queryText.add("left join fetch target." + fetch.getField() + " as ignored"
-                                   + fetch.getField());
+                final List<T> cached = load(ids);
+                if (cached != null)
+                {
+                    return cached;
+                }
             }
+            generation = cache.getGeneration();
+        }
 
-            this.queryText.add("where 1=1");
+        // Read the page
+        final Query query = build(boundQuery);
+        query.setFirstResult(first);
+        query.setMaxResults(maximum);
+        final long start = System.nanoTime();
+        final List<T> page = JpaQueryResult.column(query.getResultList(), column);
+        record(boundQuery, start, page.size(), true);
 
-            // Add match constraints
-            final Match<T> match = clauses.find(Match.class);
-            if (match != null)
+        // Cache primary keys if the page holds objects of this DAO's type
+        if (cache != null)
+        {
+            final List<PK> ids = new ArrayList<PK>(page.size());
+            for (final Object object : page)
             {
-                if (!match.getObject().getClass().isAssignableFrom(this.dao.type))
+                if (!this.dao.type.isInstance(object))
                 {
-                    throw new IllegalArgumentException("Invalid match clause: " + match);
+                    return page;
                 }
-                onMatch(match);
+                ids.add(((T)object).getPrimaryKey());
             }
+            cache.put(key, ids, generation);
+        }
+        return page;
+    }
 
-            // Add where constraints if no match clause
-            for (final Where where : clauses.findAll(Where.class))
-            {
-                this.queryText.and("(" + where + ")");
-            }
+    /**
+     * Initializes the associations named by any {@link BatchFetch} clauses for
+     * all objects on a page using the DAO's entity manager for read-only work
+     * 
+     * @param page
+     *            The page of results
+     */
+    void batchFetch(final List<?> page)
+    {
+        batchFetch(page, getReadEntityManager());
+    }
 
-            // Add sort ordering clauses
-            final Ascending ascending = clauses.find(Ascending.class);
-            if (ascending != null)
+    /**
+     * Initializes the associations named by any {@link BatchFetch} clauses for
+     * all objects on a page. Each association is fetched with one query for
+     * each chunk of primary keys that fits within the DAO's limit on in-list
+     * size. May be called from any thread.
+     * 
+     * @param page
+     *            The page of results, which must be attached to the entity
+     *            manager
+     * @param entityManager
+     *            The entity manager that loaded the page
+     */
+    void batchFetch(final List<?> page, final EntityManager entityManager)
+    {
+        if (this.clauses == null)
+        {
+            return;
+        }
+        final List<BatchFetch> fetches = this.clauses.findAll(BatchFetch.class);
+        if (fetches.isEmpty())
+        {
+            return;
+        }
+
+        // Collect primary keys of the objects on the page
+        final List<PK> ids = new ArrayList<PK>();
+        for (final Object object : page)
+        {
+            if (this.dao.type.isInstance(object))
             {
-                onAscending(ascending);
+                ids.add(this.dao.type.cast(object).getPrimaryKey());
             }
-            final Descending descending = clauses.find(Descending.class);
-            if (descending != null)
+        }
+        if (ids.isEmpty())
+        {
+            return;
+        }
+
+        // Fetching each association separately avoids a cartesian product
+        final int chunkSize = Math.max(1, this.dao.getMaximumInListSize());
+        for (final BatchFetch fetch : fetches)
+        {
+            final CompiledQuery compiledQuery = compileIdentifierQuery(fetch.getField());
+            for (int i = 0; i < ids.size(); i += chunkSize)
             {
-                onDescending(descending);
+                final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+                parameters.put(IDENTIFIERS_PARAMETER, new ArrayList<PK>(ids.subList(i, Math
+                        .min(i + chunkSize, ids.size()))));
+                final BoundQuery boundQuery =
+                        new BoundQuery(compiledQuery, parameters, BoundQuery.UNBOUNDED,
+                                       BoundQuery.UNBOUNDED);
+                final long start = System.nanoTime();
+                final int rows = build(boundQuery, entityManager).getResultList().size();
+                record(boundQuery, start, rows, false);
             }
         }
+    }
+
+    /**
+     * @param keyset
+     *            Position of keyset pagination
+     * @return Query for the page following the keyset position, bound to its
+     *         parameter values
+     */
+    BoundQuery bind(final Keyset<T, PK> keyset)
+    {
+        return bind(this.clauses, Statement.SELECT, keyset);
+    }
 
-        // Create query
-        final EntityManager entityManager = getEntityManager();
-        final Query query = entityManager.createQuery(this.queryText.toString());
+    Query build()
+    {
+        return build(bind());
+    }
+
+    /**
+     * @param boundQuery
+     *            A bound query
+     * @return The query, ready to execute against the DAO's entity manager
+     *         for read-only work
+     */
+    Query build(final BoundQuery boundQuery)
+    {
+        return build(boundQuery, getReadEntityManager());
+    }
 
-        if (clauses != null)
+    /**
+     * @param boundQuery
+     *            A bound query
+     * @param entityManager
+     *            The entity manager to execute against
+     * @return The query, in read-only mode if this query is read-only
+     */
+    Query build(final BoundQuery boundQuery, final EntityManager entityManager)
+    {
+        final Query query = boundQuery.createQuery(entityManager);
+        if (isReadOnly())
         {
-            // Set range on query
-            final Range range = clauses.find(Range.class);
-            if (range != null)
-            {
-                query.setFirstResult((int)range.getFirst());
-                query.setMaxResults((int)range.getCount());
-            }
+            // Skip snapshots of loaded objects and any flush before the query
+            query.setHint(READ_ONLY_HINT, Boolean.TRUE);
+            query.setHint(FLUSH_MODE_HINT, "MANUAL");
         }
         return query;
     }
 
-    private EntityManager getEntityManager()
+    /**
+     * @return True if this query runs in read-only mode
+     */
+    boolean isReadOnly()
     {
-        return this.dao.getEntityManager();
+        return this.readOnly != null ? this.readOnly : this.dao.isReadOnlyQueries();
     }
 
-    private boolean isSupported(final Class<?> returnType)
+    /**
+     * Reads objects by primary key with a single query
+     * 
+     * @param ids
+     *            Primary keys, no more than the DAO's limit on in-list size
+     * @return The objects that exist with the given primary keys, in no
+     *         particular order
+     */
+    @SuppressWarnings("unchecked")
+    List<T> read(final Collection<PK> ids)
     {
-        return returnType.isPrimitive() || Number.class.isAssignableFrom(returnType)
-               || String.class.isAssignableFrom(returnType)
-               || Character.class.isAssignableFrom(returnType)
-               || Boolean.class.isAssignableFrom(returnType);
+        final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put(IDENTIFIERS_PARAMETER, new ArrayList<PK>(ids));
+        final BoundQuery boundQuery =
+                new BoundQuery(compileIdentifierQuery(null), parameters, BoundQuery.UNBOUNDED,
+                               BoundQuery.UNBOUNDED);
+        final long start = System.nanoTime();
+        final List<T> objects = build(boundQuery).getResultList();
+        record(boundQuery, start, objects.size(), false);
+        return objects;
+    }
+
+    /**
+     * Records an execution of a query in the DAO's statistics, if it is
+     * keeping any. May be called from any thread.
+     * 
+     * @param boundQuery
+     *            The query that was executed
+     * @param start
+     *            Value of {@link System#nanoTime()} when execution began
+     * @param rows
+     *            Number of rows returned or updated
+     * @param page
+     *            True if the execution fetched a page of results
+     */
+    void record(final BoundQuery boundQuery, final long start, final int rows,
+                final boolean page)
+    {
+        final QueryStatistics statistics = this.dao.getQueryStatistics();
+        if (statistics != null)
+        {
+            statistics.record(boundQuery.getCompiledQuery(), this.clauses,
+                              System.nanoTime() - start, rows, page);
+        }
+    }
+
+    /**
+     * Compiles the given clauses, or finds a previously compiled query of the
+     * same shape, and binds it to the parameter values in the clauses
+     * 
+     * @param clauses
+     *            The clauses
+     * @param statement
+     *            The kind of statement to compile
+     * @return The bound query
+     */
+    private BoundQuery bind(final ClauseList clauses, final Statement statement)
+    {
+        return bind(clauses, statement, null);
+    }
+
+    /**
+     * Compiles the given clauses, or finds a previously compiled query of the
+     * same shape, and binds it to the parameter values in the clauses
+     * 
+     * @param clauses
+     *            The clauses
+     * @param statement
+     *            The kind of statement to compile
+     * @param keyset
+     *            Position of keyset pagination or null if not paging by key
+     * @return The bound query
+     */
+    @SuppressWarnings("unchecked")
+    private BoundQuery bind(final ClauseList clauses, final Statement statement,
+                            final Keyset<T, PK> keyset)
+    {
+        // The shape of the query is everything that contributes to its text
+        final List<Object> shape = new ArrayList<Object>();
+        shape.add(getClass());
+        shape.add(statement);
+        final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+
+        // Extract values to match from any match clause
+        final Match<T> match = clauses.find(Match.class);
+        List<MatchConstraint> constraints = null;
+        if (match != null)
+        {
+            if (!match.getObject().getClass().isAssignableFrom(this.dao.type))
+            {
+                throw new IllegalArgumentException("Invalid match clause: " + match);
+            }
+            constraints = matchConstraints(match.getObject());
+            for (int i = 0; i < constraints.size(); i++)
+            {
+                final MatchConstraint constraint = constraints.get(i);
+                shape.add(constraint.getName());
+                parameters.put(matchParameter(i), constraint.getValue());
+            }
+        }
+
+        // Extract values to match from any match any clause
+        final MatchAny<T> matchAny = clauses.find(MatchAny.class);
+        List<List<MatchConstraint>> anyConstraints = null;
+        if (matchAny != null)
+        {
+            anyConstraints = new ArrayList<List<MatchConstraint>>();
+            for (final T object : matchAny.getObjects())
+            {
+                if (!object.getClass().isAssignableFrom(this.dao.type))
+                {
+                    throw new IllegalArgumentException("Invalid match any clause: " + matchAny);
+                }
+                anyConstraints.add(matchConstraints(object));
+            }
+            shape.add(MatchAny.class);
+            if (isInList(anyConstraints))
+            {
+                // All objects match on the same single property
+                final List<Object> values = new ArrayList<Object>();
+                for (final List<MatchConstraint> objectConstraints : anyConstraints)
+                {
+                    values.add(objectConstraints.get(0).getValue());
+                }
+                shape.add(anyConstraints.get(0).get(0).getName());
+                parameters.put(matchAnyParameter(), values);
+            }
+            else
+            {
+                for (int i = 0; i < anyConstraints.size(); i++)
+                {
+                    final List<String> names = new ArrayList<String>();
+                    final List<MatchConstraint> objectConstraints = anyConstraints.get(i);
+                    for (int j = 0; j < objectConstraints.size(); j++)
+                    {
+                        names.add(objectConstraints.get(j).getName());
+                        parameters.put(matchAnyParameter(i, j), objectConstraints.get(j)
+                                .getValue());
+                    }
+                    shape.add(names);
+                }
+            }
+        }
+
+        // Bulk statements cannot join, so they can only match and filter on
+        // the target's own properties
+        if (statement == Statement.DELETE || statement == Statement.UPDATE)
+        {
+            checkNotNested(constraints);
+            if (anyConstraints != null)
+            {
+                for (final List<MatchConstraint> objectConstraints : anyConstraints)
+                {
+                    checkNotNested(objectConstraints);
+                }
+            }
+            final List<String> joins = joins(clauses);
+            if (!joins.isEmpty())
+            {
+                throw new IllegalArgumentException("Bulk update and delete statements "
+                                                   + "cannot filter through associations "
+                                                   + joins);
+            }
+        }
+
+        // Extract values to assign from any set clauses
+        final List<Set> assignments = clauses.findAll(Set.class);
+        for (int i = 0; i < assignments.size(); i++)
+        {
+            // Null values are assigned in the query text
+            final Object value = assignments.get(i).getValue();
+            if (value != null)
+            {
+                parameters.put(setParameter(i), value);
+            }
+        }
+
+        // Extract values to compare from any filter clauses
+        final List<Object> values = new ArrayList<Object>();
+        final String filters = filters(clauses, values);
+        if (filters != null)
+        {
+            shape.add(Filter.class);
+            shape.add(filters);
+            for (int i = 0; i < values.size(); i++)
+            {
+                parameters.put(Predicate.parameter(i), values.get(i));
+            }
+        }
+
+        // Add the shape of any other clauses
+        for (final Clause clause : clauses)
+        {
+            if (!(clause instanceof Match) && !(clause instanceof MatchAny)
+                && !(clause instanceof Range) && !(clause instanceof Filter))
+            {
+                shape.add(clause.getClass());
+                shape.add(shapeOf(clause));
+            }
+        }
+
+        // Add the shape of and values for any keyset position
+        if (keyset != null)
+        {
+            final String[] fields = keyset.getOrder().getFields();
+            shape.add(keyset.getOrder().getClass());
+            shape.add(Arrays.asList(fields));
+            shape.add(keyset.isStarted());
+            if (keyset.isStarted())
+            {
+                for (int i = 0; i < fields.length; i++)
+                {
+                    parameters.put(Keyset.parameter(i), keyset.getLastValue(i));
+                }
+                parameters.put(Keyset.PRIMARY_KEY_PARAMETER, keyset.getLastPrimaryKey());
+            }
+        }
+
+        // Find or compile query for shape
+        final CompiledQueryCache cache = this.dao.getCompiledQueryCache();
+        CompiledQuery compiledQuery = cache.get(shape);
+        if (compiledQuery == null)
+        {
+            compiledQuery =
+                    cache.put(shape, compile(clauses, statement, constraints, anyConstraints,
+                                             keyset));
+        }
+
+        // Bind to range
+        final Range range = clauses.find(Range.class);
+        if (range != null)
+        {
+            return new BoundQuery(compiledQuery, parameters, (int)range.getFirst(),
+                                  (int)range.getCount());
+        }
+        return new BoundQuery(compiledQuery, parameters, BoundQuery.UNBOUNDED,
+                              BoundQuery.UNBOUNDED);
+    }
+
+    /**
+     * @param query
+     *            Un-abstracted query text
+     * @return The query text compiled and bound to no parameters
+     */
+    private BoundQuery bind(final String query)
+    {
+        final List<Object> shape = new ArrayList<Object>();
+        shape.add(getClass());
+        shape.add(query);
+        final CompiledQueryCache cache = this.dao.getCompiledQueryCache();
+        CompiledQuery compiledQuery = cache.get(shape);
+        if (compiledQuery == null)
+        {
+            compiledQuery = cache.put(shape, new CompiledQuery(query));
+        }
+        return new BoundQuery(compiledQuery, new LinkedHashMap<String, Object>(),
+                              BoundQuery.UNBOUNDED, BoundQuery.UNBOUNDED);
+    }
+
+    /**
+     * Finds or compiles the query that selects objects with the given primary
+     * keys, optionally initializing an association of each. The text is built
+     * without using the shared query text so that it is safe to call from any
+     * thread.
+     * 
+     * @param fetchField
+     *            Association to initialize or null to select objects only
+     * @return The compiled query
+     */
+    private CompiledQuery compileIdentifierQuery(final String fetchField)
+    {
+        final List<Object> shape = new ArrayList<Object>();
+        shape.add(getClass());
+        shape.add(BatchFetch.class);
+        shape.add(fetchField);
+        final CompiledQueryCache cache = this.dao.getCompiledQueryCache();
+        CompiledQuery compiledQuery = cache.get(shape);
+        if (compiledQuery == null)
+        {
+            final QueryText text = new QueryText();
+            text.add("select distinct target from " + this.dao.getName() + " as target");
+            if (fetchField != null)
+            {
+                text.add("left join fetch target." + fetchField);
+            }
+            text.add("where target.id in (:" + IDENTIFIERS_PARAMETER + ")");
+            compiledQuery = cache.put(shape, new CompiledQuery(text.toString()));
+        }
+        return compiledQuery;
+    }
+
+    /**
+     * Builds the EJBQL text for the given clauses
+     * 
+     * @param clauses
+     *            The clauses
+     * @param statement
+     *            The kind of statement to compile
+     * @param constraints
+     *            Match constraints or null if there is no match clause
+     * @param anyConstraints
+     *            Match constraints for each object of any match any clause or
+     *            null if there is no match any clause
+     * @param keyset
+     *            Position of keyset pagination or null if not paging by key
+     * @return The compiled query
+     */
+    private CompiledQuery compile(final ClauseList clauses, final Statement statement,
+                                  final List<MatchConstraint> constraints,
+                                  final List<List<MatchConstraint>> anyConstraints,
+                                  final Keyset<T, PK> keyset)
+    {
+        this.queryText.clear();
+        if (statement == Statement.DELETE)
+        {
+            this.queryText.add("delete");
+        }
+        else if (statement == Statement.UPDATE)
+        {
+            final StringList assignments = new StringList();
+            final List<Set> sets = clauses.findAll(Set.class);
+            for (int i = 0; i < sets.size(); i++)
+            {
+                final Set set = sets.get(i);
+                assignments.add("target." + set.getField() + " = "
+                                + (set.getValue() != null ? ":" + setParameter(i) : "null"));
+            }
+            this.queryText.add("update " + this.dao.getName() + " as target set "
+                               + assignments.join());
+        }
+        else if (statement == Statement.IDENTIFIERS)
+        {
+            this.queryText.add("select target.id");
+        }
+        else if (statement == Statement.PROJECTION)
+        {
+            final StringList properties = new StringList();
+            for (final String property : clauses.find(Project.class).getProperties())
+            {
+                properties.add("target." + property);
+            }
+            this.queryText.add("select " + properties.join());
+        }
+        else
+        {
+            // Count clause included?
+            final Count count = clauses.find(Count.class);
+            if (count != null)
+            {
+                this.queryText.add("select count(*)");
+            }
+
+            for (final Distinct distinct : clauses.findAll(Distinct.class))
+            {
+                this.queryText.add("select distinct target, target." + distinct.getField());
+            }
+        }
+
+        // Always add this, except to updates which name their target above
+        if (statement != Statement.UPDATE)
+        {
+            this.queryText.add("from " + this.dao.getName() + " as target");
+        }
+
+        // Add any fetch clauses
+        if (statement == Statement.SELECT)
+        {
+            for (final Fetch fetch : clauses.findAll(Fetch.class))
+            {
+                this.queryText.add("left join fetch target." + fetch.getField() + " as ignored"
+                                   + fetch.getField());
+            }
+        }
+
+        // Left join associations that filters navigate, so that objects whose
+        // association is null compare as null rather than being dropped
+        if (statement != Statement.DELETE && statement != Statement.UPDATE)
+        {
+            for (final String association : joins(clauses))
+            {
+                final int dot = association.lastIndexOf('.');
+                final String owner =
+                        dot < 0 ? "target" : Predicate.joinAlias("target", association
+                                .substring(0, dot));
+                this.queryText.add("left join " + owner + "." + association.substring(dot + 1)
+                                   + " as " + Predicate.joinAlias("target", association));
+            }
+        }
+
+        this.queryText.add("where 1=1");
+
+        // Add match constraints
+        if (constraints != null)
+        {
+            onMatch(constraints);
+        }
+        if (anyConstraints != null)
+        {
+            onMatchAny(anyConstraints);
+        }
+
+        // Add where constraints if no match clause
+        for (final Where where : clauses.findAll(Where.class))
+        {
+            this.queryText.and("(" + where + ")");
+        }
+
+        // Add predicates of filter clauses
+        final String filters = filters(clauses, new ArrayList<Object>());
+        if (filters != null)
+        {
+            this.queryText.and(filters);
+        }
+
+        // Add keyset position and ordering
+        if (keyset != null)
+        {
+            onKeyset(keyset);
+        }
+
+        // Add sort ordering clauses
+        else if (statement == Statement.SELECT || statement == Statement.PROJECTION)
+        {
+            final Ascending ascending = clauses.find(Ascending.class);
+            if (ascending != null)
+            {
+                onAscending(ascending);
+            }
+            final Descending descending = clauses.find(Descending.class);
+            if (descending != null)
+            {
+                onDescending(descending);
+            }
+        }
+        return new CompiledQuery(this.queryText.toString());
+    }
+
+    /**
+     * Adds a predicate selecting objects after the last sort key values and
+     * primary key of the keyset position (if a page has been fetched) and
+     * orders by the sort key, breaking ties on the primary key
+     * 
+     * @param keyset
+     *            The keyset position
+     */
+    private void onKeyset(final Keyset<T, PK> keyset)
+    {
+        final String[] fields = keyset.getOrder().getFields();
+        if (keyset.isStarted())
+        {
+            // f0 >= :k0 and ((f0 > :k0) or (f0 = :k0 and f1 > :k1) or ... or (... and
+            // id > :kid)), where the redundant leading bound lets the database
+            // seek an index on the first sort field instead of scanning
+            final String comparison = keyset.comparison();
+            final QueryText after = new QueryText();
+            final QueryText equal = new QueryText();
+            for (int i = 0; i <= fields.length; i++)
+            {
+                final String field = i < fields.length ? "target." + fields[i] : "target.id";
+                final String parameter =
+                        i < fields.length ? Keyset.parameter(i) : Keyset.PRIMARY_KEY_PARAMETER;
+                final QueryText term = new QueryText();
+                term.append(equal.toString());
+                term.and(field + " " + comparison + " :" + parameter);
+                if (i > 0)
+                {
+                    after.append(" or ");
+                }
+                after.append("(" + term + ")");
+                equal.and(field + " = :" + parameter);
+            }
+            this.queryText.and("target." + fields[0] + " " + comparison + "= :"
+                               + Keyset.parameter(0));
+            this.queryText.and("(" + after + ")");
+        }
+        final String direction = keyset.isDescending() ? " desc" : " asc";
+        final StringList order = new StringList();
+        for (final String field : fields)
+        {
+            order.add("target." + field + direction);
+        }
+        order.add("target.id" + direction);
+        this.queryText.add("order by " + order.join());
+    }
+
+    /**
+     * Adds a constraint matching any one of several objects by example
+     * 
+     * @param anyConstraints
+     *            The match constraints found in each object
+     */
+    private void onMatchAny(final List<List<MatchConstraint>> anyConstraints)
+    {
+        if (anyConstraints.isEmpty())
+        {
+            this.queryText.and("1=0");
+        }
+        else if (isInList(anyConstraints))
+        {
+            this.queryText.and("target." + anyConstraints.get(0).get(0).getName() + " in (:"
+                               + matchAnyParameter() + ")");
+        }
+        else
+        {
+            final QueryText any = new QueryText();
+            for (int i = 0; i < anyConstraints.size(); i++)
+            {
+                final QueryText all = new QueryText();
+                final List<MatchConstraint> objectConstraints = anyConstraints.get(i);
+                for (int j = 0; j < objectConstraints.size(); j++)
+                {
+                    all.and("target." + objectConstraints.get(j).getName() + " = :"
+                            + matchAnyParameter(i, j));
+                }
+                if (i > 0)
+                {
+                    any.append(" or ");
+                }
+                any.append("(" + all + ")");
+            }
+            this.queryText.and("(" + any + ")");
+        }
+    }
+
+    /**
+     * @return The DAO this query runs against
+     */
+    AbstractJpaDao<T, PK> getDao()
+    {
+        return this.dao;
+    }
+
+    private EntityManager getReadEntityManager()
+    {
+        return this.dao.readEntityManager();
+    }
+
+    private EntityManager getEntityManager()
+    {
+        return this.dao.entityManager();
+    }
+
+    /**
+     * Compiles the predicates of any filter clauses. Parameters are numbered
+     * across all filter clauses, so the text is the same each time the same
+     * clauses are compiled.
+     * 
+     * @param clauses
+     *            The clauses
+     * @param values
+     *            List to add the value of each bind parameter to
+     * @return Query text for the predicates or null if there are no filter
+     *         clauses
+     */
+    private String filters(final ClauseList clauses, final List<Object> values)
+    {
+        final List<Filter> filters = clauses.findAll(Filter.class);
+        if (filters.isEmpty())
+        {
+            return null;
+        }
+        final QueryText text = new QueryText();
+        for (final Filter filter : filters)
+        {
+            final QueryText predicate = new QueryText();
+            filter.getPredicate().compile(predicate, "target", values);
+            text.and("(" + predicate + ")");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param clauses
+     *            The clauses
+     * @return Paths of the associations navigated by the predicates of any
+     *         filter clauses, in order so that each follows any association its
+     *         path passes through
+     */
+    private List<String> joins(final ClauseList clauses)
+    {
+        final SortedSet<String> joins = new TreeSet<String>();
+        for (final Filter filter : clauses.findAll(Filter.class))
+        {
+            filter.getPredicate().addJoins(joins);
+        }
+        return new ArrayList<String>(joins);
+    }
+
+    /**
+     * @return True if this query fetches associations with its results
+     */
+    private boolean hasFetchJoins()
+    {
+        if (this.clauses != null)
+        {
+            return this.clauses.find(Fetch.class) != null;
+        }
+        return this.query.toLowerCase().contains(" fetch ");
+    }
+
+    /**
+     * Loads the objects on a cached page into the persistence context the
+     * query reads with. Objects already managed are used as they are and the
+     * rest are read by primary key, bypassing any entity cache, so that the
+     * page holds managed objects just as it would if the query had run.
+     * 
+     * @param ids
+     *            Primary keys of the objects on a cached page
+     * @return The objects in order or null if any of them no longer exists
+     */
+    private List<T> load(final List<PK> ids)
+    {
+        final Map<PK, T> objects = new HashMap<PK, T>();
+        final List<PK> missing = new ArrayList<PK>();
+        for (final PK id : ids)
+        {
+            final T object = this.dao.managed(id);
+            if (object != null)
+            {
+                objects.put(id, object);
+            }
+            else
+            {
+                missing.add(id);
+            }
+        }
+        final int chunkSize = Math.max(1, this.dao.getMaximumInListSize());
+        for (int i = 0; i < missing.size(); i += chunkSize)
+        {
+            final List<PK> chunk = missing.subList(i, Math.min(i + chunkSize, missing.size()));
+            for (final T object : read(chunk))
+            {
+                objects.put(object.getPrimaryKey(), object);
+            }
+        }
+        final List<T> page = new ArrayList<T>(ids.size());
+        for (final PK id : ids)
+        {
+            final T object = objects.get(id);
+            if (object == null)
+            {
+                return null;
+            }
+            page.add(object);
+        }
+        return page;
+    }
+
+    /**
+     * @param anyConstraints
+     *            Match constraints for each object of a match any clause
+     * @return True if every object matches on the same single property, so the
+     *         clause can be expressed as an "in" list
+     */
+    private boolean isInList(final List<List<MatchConstraint>> anyConstraints)
+    {
+        if (anyConstraints.isEmpty())
+        {
+            return false;
+        }
+        final String name = anyConstraints.get(0).get(0).getName();
+        for (final List<MatchConstraint> objectConstraints : anyConstraints)
+        {
+            if (objectConstraints.size() != 1 || !objectConstraints.get(0).getName().equals(name))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSupported(final Class<?> returnType)
+    {
+        return returnType.isPrimitive() || Number.class.isAssignableFrom(returnType)
+               || String.class.isAssignableFrom(returnType)
+               || Character.class.isAssignableFrom(returnType)
+               || Boolean.class.isAssignableFrom(returnType);
+    }
+
+    /**
+     * @return Name of parameter holding the list of values for a match any
+     *         clause expressed as an "in" list
+     */
+    private String matchAnyParameter()
+    {
+        return "a";
+    }
+
+    /**
+     * @param objectIndex
+     *            Index of object in match any clause
+     * @param index
+     *            Index of match constraint for the object
+     * @return Name of parameter holding the value for the match constraint
+     */
+    private String matchAnyParameter(final int objectIndex, final int index)
+    {
+        return "a" + objectIndex + "_" + index;
+    }
+
+    /**
+     * @param object
+     *            The object to match by example
+     * @return Constraints for all populated @Queryable properties of the
+     *         object
+     */
+    List<MatchConstraint> matchConstraints(final Object object)
+    {
+        final List<MatchConstraint> constraints = new ArrayList<MatchConstraint>();
+        final boolean queryablePropertyFound = addMatchConstraints(null, object, constraints);
+        if (constraints.isEmpty())
+        {
+            if (!queryablePropertyFound)
+            {
+                throw new IllegalStateException("No @Queryable properties found in match against "
+                                                + object.getClass());
+            }
+            else
+            {
+                throw new IllegalStateException("All @Queryable properties found in match against "
+                                                + object.getClass() + " were null");
+            }
+        }
+        return constraints;
+    }
+
+    /**
+     * @param constraints
+     *            Match constraints for a bulk update or delete or null if there
+     *            are none
+     * @throws IllegalArgumentException
+     *             If a constraint is on a property of an associated object
+     */
+    private void checkNotNested(final List<MatchConstraint> constraints)
+    {
+        if (constraints != null)
+        {
+            for (final MatchConstraint constraint : constraints)
+            {
+                if (constraint.getName().indexOf('.') >= 0)
+                {
+                    throw new IllegalArgumentException("Bulk update and delete statements "
+                                                       + "cannot match on nested property "
+                                                       + constraint.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the objects on a page before the next page is fetched
+     * 
+     * @param page
+     *            The page that has been iterated
+     */
+    private void onPageBoundary(final List<?> page)
+    {
+        switch (this.pageBoundary)
+        {
+            case CLOSE:
+                // Only the DAO's own primary entity manager is closed, since
+                // replicas and bound entity managers are shared or owned by
+                // their callers
+                final EntityManager entityManager = getReadEntityManager();
+                if (entityManager == this.dao.getEntityManager())
+                {
+                    entityManager.close();
+                }
+                else
+                {
+                    entityManager.clear();
+                }
+                break;
+
+            case CLEAR:
+                getReadEntityManager().clear();
+                break;
+
+            case EVICT:
+                final Session session = this.dao.getReadSession();
+                for (final Object object : page)
+                {
+                    // Pages of a column may not hold persistent objects
+                    if (this.dao.type.isInstance(object))
+                    {
+                        session.evict(object);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return The Project clause of this query
+     */
+    private Project projection()
+    {
+        final Project project = this.clauses != null ? this.clauses.find(Project.class) : null;
+        if (project == null)
+        {
+            throw new UnsupportedOperationException("Rows require a Project clause");
+        }
+        return project;
+    }
+
+    /**
+     * @param index
+     *            Index of match constraint
+     * @return Name of parameter holding the value for the match constraint
+     */
+    private String matchParameter(final int index)
+    {
+        return "m" + index;
+    }
+
+    /**
+     * @param index
+     *            Index of set clause
+     * @return Name of parameter holding the value to assign
+     */
+    private String setParameter(final int index)
+    {
+        return "s" + index;
+    }
+
+    /**
+     * @param clause
+     *            The clause
+     * @return Value which is equal for two clauses of the same type exactly
+     *         when they produce the same query text
+     */
+    private Object shapeOf(final Clause clause)
+    {
+        if (clause instanceof SortOrder)
+        {
+            return Arrays.asList(((SortOrder)clause).getFields());
+        }
+        if (clause instanceof Distinct)
+        {
+            return ((Distinct)clause).getField();
+        }
+        if (clause instanceof Fetch)
+        {
+            return ((Fetch)clause).getField();
+        }
+        if (clause instanceof Project)
+        {
+            return Arrays.asList(((Project)clause).getProperties());
+        }
+        if (clause instanceof Set)
+        {
+            final Set set = (Set)clause;
+            return Arrays.<Object>asList(set.getField(), set.getValue() == null);
+        }
+        if (clause instanceof Where)
+        {
+            return clause.toString();
+        }
+        return null;
+    }
+
+    /**
+     * A property of a match object and the value it must have
+     */
+    protected static final class MatchConstraint
+    {
+        private final String name;
+        private final Object value;
+
+        MatchConstraint(final String name, final Object value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * @return Property path relative to the query target
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return Value the property must have
+         */
+        public Object getValue()
+        {
+            return this.value;
+        }
+    }
+
+    /**
+     * Kinds of statement that clauses can be compiled into
+     */
+    enum Statement
+    {
+        DELETE, IDENTIFIERS, PROJECTION, SELECT, UPDATE
     }
 }
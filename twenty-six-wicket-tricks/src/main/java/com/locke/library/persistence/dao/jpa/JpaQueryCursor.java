@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.Type;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.ICursor;
+
+/**
+ * Cursor over forward-only Hibernate {@link ScrollableResults}. Each persistent
+ * object is evicted from the session once the cursor moves past it, along with
+ * the associated objects it refers to that were loaded after the cursor was
+ * opened, such as eagerly fetched associations. The persistence context
+ * therefore does not grow with the number of rows read. Objects that were
+ * already in the persistence context when the cursor was opened are never
+ * evicted.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ */
+final class JpaQueryCursor<T> implements ICursor<T>
+{
+    /**
+     * True if the results have been advanced to the row to return next
+     */
+    private boolean advanced;
+
+    /**
+     * True if there is a row to return next
+     */
+    private boolean available;
+
+    private boolean closed;
+
+    /**
+     * Keys of the objects in the persistence context when the cursor was
+     * opened
+     */
+    private final Set<EntityKey> loadedBefore;
+
+    /**
+     * Column of each row to return
+     */
+    private final int column;
+
+    /**
+     * The last object returned, which is evicted when the cursor moves on
+     */
+    private Object current;
+
+    private final ScrollableResults results;
+
+    private final Session session;
+
+    /**
+     * @param session
+     *            The session the results were scrolled in
+     * @param results
+     *            Forward-only results
+     * @param column
+     *            Column of each row to return
+     */
+    @SuppressWarnings("unchecked")
+    JpaQueryCursor(final Session session, final ScrollableResults results, final int column)
+    {
+        this.session = session;
+        this.results = results;
+        this.column = column;
+        this.loadedBefore =
+                new HashSet<EntityKey>(((SessionImplementor)session).getPersistenceContext()
+                        .getEntitiesByKey().keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        if (!this.closed)
+        {
+            this.closed = true;
+            evictCurrent();
+            this.results.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext()
+    {
+        if (this.closed)
+        {
+            return false;
+        }
+        if (!this.advanced)
+        {
+            evictCurrent();
+            this.available = this.results.next();
+            this.advanced = true;
+            if (!this.available)
+            {
+                close();
+            }
+        }
+        return this.available;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<T> iterator()
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        this.advanced = false;
+        this.current = this.results.get(this.column);
+        return (T)this.current;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Evicts an object and the objects it refers to that were loaded while
+     * the cursor was open
+     * 
+     * @param object
+     *            The object, which must be in the session
+     */
+    private void evict(final Object object)
+    {
+        final EntityPersister persister = persister(object);
+        Object[] values = null;
+        if (Hibernate.isInitialized(object))
+        {
+            final Object entity =
+                    object instanceof HibernateProxy ? ((HibernateProxy)object)
+                            .getHibernateLazyInitializer().getImplementation() : object;
+            values = persister.getPropertyValues(entity, EntityMode.POJO);
+        }
+        this.session.evict(object);
+        if (values != null)
+        {
+            final Type[] types = persister.getPropertyTypes();
+            for (int i = 0; i < values.length; i++)
+            {
+                if (types[i].isEntityType())
+                {
+                    evictLoaded(values[i]);
+                }
+                else if (types[i].isCollectionType() && values[i] instanceof Collection
+                         && Hibernate.isInitialized(values[i]))
+                {
+                    for (final Object element : (Collection<?>)values[i])
+                    {
+                        evictLoaded(element);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the last object returned from the session
+     */
+    private void evictCurrent()
+    {
+        if (this.current instanceof IPersistent && this.session.contains(this.current))
+        {
+            evict(this.current);
+        }
+        this.current = null;
+    }
+
+    /**
+     * Evicts an associated object if it is in the session and was loaded
+     * after the cursor was opened
+     * 
+     * @param value
+     *            Value of an association
+     */
+    private void evictLoaded(final Object value)
+    {
+        if (value != null && this.session.contains(value))
+        {
+            final EntityKey key =
+                    new EntityKey(this.session.getIdentifier(value), persister(value),
+                                  EntityMode.POJO);
+            if (!this.loadedBefore.contains(key))
+            {
+                evict(value);
+            }
+        }
+    }
+
+    /**
+     * @param object
+     *            An object in the session
+     * @return The persister for the object
+     */
+    private EntityPersister persister(final Object object)
+    {
+        return ((SessionImplementor)this.session).getEntityPersister(this.session
+                .getEntityName(object), object);
+    }
+}
@@ -21,8 +21,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-
-import javax.persistence.Query;
+import java.util.NoSuchElementException;
 
 import com.locke.library.persistence.IPersistent;
 
@@ -37,14 +36,45 @@ public abstract class JpaQueryResult<T extends IPersistent<PK>, PK extends Seria
     private int column = 0;
     private int index = 0;
     private final JpaQuery<T, PK> jpaQuery;
+
+    /**
+     * Keyset pagination position or null if paging by offset
+     */
+    private final Keyset<T, PK> keyset;
+
     private final int pageSize;
+
+    /**
+     * Index of the first result on the current page
+     */
+    private int pageStart = 0;
+
     private List<T> results;
 
     public JpaQueryResult(final JpaQuery<T, PK> jpaQuery, final int pageSize, final int column)
     {
+        checkPageSize(pageSize);
         this.jpaQuery = jpaQuery;
         this.pageSize = pageSize;
         this.column = column;
+        this.keyset = null;
+        fetchPage();
+    }
+
+    /**
+     * @param jpaQuery
+     *            The query
+     * @param pageSize
+     *            The page size
+     * @param keyset
+     *            Keyset position to page from
+     */
+    JpaQueryResult(final JpaQuery<T, PK> jpaQuery, final int pageSize, final Keyset<T, PK> keyset)
+    {
+        checkPageSize(pageSize);
+        this.jpaQuery = jpaQuery;
+        this.pageSize = pageSize;
+        this.keyset = keyset;
         fetchPage();
     }
 
@@ -53,6 +83,16 @@ public abstract class JpaQueryResult<T extends IPersistent<PK>, PK extends Seria
      */
     public boolean hasNext()
     {
+        if (pageIndex() >= this.results.size())
+        {
+            // A short page is the last page
+            if (this.results.size() < this.pageSize)
+            {
+                return false;
+            }
+            onBeforeNextPage();
+            fetchPage();
+        }
         return pageIndex() < this.results.size();
     }
 
@@ -77,14 +117,12 @@ public abstract class JpaQueryResult<T extends IPersistent<PK>, PK extends Seria
      */
     public T next()
     {
-        // Get next result
-        final int pageIndex = pageIndex();
-        if (pageIndex == 0 && this.index != 0)
+        // Get next result, fetching the next page if needed
+        if (!hasNext())
         {
-            onBeforeNextPage();
-            fetchPage();
+            throw new NoSuchElementException();
         }
-        final T result = this.results.get(pageIndex);
+        final T result = this.results.get(pageIndex());
         this.index++;
         return result;
     }
@@ -99,29 +137,68 @@ public abstract class JpaQueryResult<T extends IPersistent<PK>, PK extends Seria
 
     protected abstract void onBeforeNextPage();
 
-    @SuppressWarnings("unchecked")
-    private void fetchPage()
+    /**
+     * @return The results on the current page
+     */
+    List<T> getPage()
     {
-        // we try to find more results
-        final Query query = this.jpaQuery.build();
+        return this.results;
+    }
 
-        query.setFirstResult(this.index);
-        query.setMaxResults(this.pageSize);
-        try
+    /**
+     * @param pageSize
+     *            Number of results per page, which must be positive since
+     *            paging would otherwise never advance
+     */
+    static void checkPageSize(final int pageSize)
+    {
+        if (pageSize <= 0)
+        {
+            throw new IllegalArgumentException("Page size must be positive, not " + pageSize);
+        }
+    }
+
+    /**
+     * @param <T>
+     *            Type of result
+     * @param results
+     *            Results of a query
+     * @param column
+     *            Column to select if results are arrays
+     * @return The results, or the given column of each result if the results
+     *         are arrays
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> column(final List<?> results, final int column)
+    {
+        if (!results.isEmpty() && results.get(0).getClass().isArray())
         {
-            final List<?> results = query.getResultList();
-            if (!results.isEmpty() && results.get(0).getClass().isArray())
+            final List<T> selected = new ArrayList<T>();
+            for (final Object object : results)
             {
-                final List<T> firstColumn = new ArrayList<T>();
-                for (final Object object : results)
-                {
-                    firstColumn.add((T)((Object[])object)[this.column]);
-                }
-                this.results = firstColumn;
+                selected.add((T)((Object[])object)[column]);
             }
-            else
+            return selected;
+        }
+        return (List<T>)results;
+    }
+
+    private void fetchPage()
+    {
+        // we try to find more results, seeking past the last key if paging by
+        // key rather than skipping rows
+        final BoundQuery boundQuery =
+                this.keyset != null ? this.jpaQuery.bind(this.keyset) : this.jpaQuery.bind();
+        this.pageStart = this.index;
+        try
+        {
+            this.results =
+                    this.jpaQuery.fetchPage(boundQuery, this.keyset != null ? 0 : this.index,
+                                            this.pageSize, this.column);
+            this.jpaQuery.batchFetch(this.results);
+            if (this.keyset != null && !this.results.isEmpty())
             {
-                this.results = (List<T>)results;
+                this.keyset.advance(this.results.get(this.results.size() - 1));
             }
         }
         catch (final Exception e)
@@ -132,6 +209,6 @@ public abstract class JpaQueryResult<T extends IPersistent<PK>, PK extends Seria
 
     private int pageIndex()
     {
-        return this.index % this.pageSize;
+        return this.index - this.pageStart;
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+
+import org.apache.wicket.util.lang.PropertyResolver;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.query.clauses.Descending;
+import com.locke.library.persistence.dao.query.clauses.SortOrder;
+
+/**
+ * Position of a keyset (seek) pagination through query results. Holds the sort
+ * key values and primary key of the last object on the most recently fetched
+ * page, so the next page can be selected with a "where key > :last" predicate
+ * rather than by skipping rows.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+final class Keyset<T extends IPersistent<PK>, PK extends Serializable>
+{
+    /**
+     * Name of the parameter holding the last primary key
+     */
+    static final String PRIMARY_KEY_PARAMETER = "kid";
+
+    /**
+     * Last primary key or null if no page has been fetched yet
+     */
+    private PK lastPrimaryKey;
+
+    /**
+     * Last sort key values or null if no page has been fetched yet
+     */
+    private Object[] lastValues;
+
+    /**
+     * The sort order being paged through
+     */
+    private final SortOrder order;
+
+    /**
+     * @param order
+     *            The sort order to page through
+     */
+    Keyset(final SortOrder order)
+    {
+        if (order.getFields().length == 0)
+        {
+            throw new IllegalArgumentException("Keyset paging requires at least one sort field");
+        }
+        this.order = order;
+    }
+
+    /**
+     * @param last
+     *            The last object on the page just fetched
+     */
+    void advance(final T last)
+    {
+        final String[] fields = this.order.getFields();
+        final Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++)
+        {
+            values[i] = PropertyResolver.getValue(fields[i], last);
+            if (values[i] == null)
+            {
+                throw new IllegalStateException("Keyset paging requires non-null values for "
+                                                + fields[i] + " but found null in " + last);
+            }
+        }
+        this.lastValues = values;
+        this.lastPrimaryKey = last.getPrimaryKey();
+    }
+
+    /**
+     * @return Comparison operator for values after the last one
+     */
+    String comparison()
+    {
+        return isDescending() ? "<" : ">";
+    }
+
+    /**
+     * @return The last primary key
+     */
+    PK getLastPrimaryKey()
+    {
+        return this.lastPrimaryKey;
+    }
+
+    /**
+     * @param index
+     *            Index of sort field
+     * @return The last value of the sort field
+     */
+    Object getLastValue(final int index)
+    {
+        return this.lastValues[index];
+    }
+
+    /**
+     * @return The sort order being paged through
+     */
+    SortOrder getOrder()
+    {
+        return this.order;
+    }
+
+    /**
+     * @return True if sorting in descending order
+     */
+    boolean isDescending()
+    {
+        return this.order instanceof Descending;
+    }
+
+    /**
+     * @return True once the first page has been fetched
+     */
+    boolean isStarted()
+    {
+        return this.lastValues != null;
+    }
+
+    /**
+     * @param index
+     *            Index of sort field
+     * @return Name of the parameter holding the last value of the sort field
+     */
+    static String parameter(final int index)
+    {
+        return "k" + index;
+    }
+}
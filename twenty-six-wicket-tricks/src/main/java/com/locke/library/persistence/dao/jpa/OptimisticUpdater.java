@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+
+import org.apache.wicket.util.time.Duration;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.Transaction;
+import org.hibernate.ejb.HibernateEntityManager;
+import org.hibernate.engine.SessionImplementor;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.IDao.LockType;
+import com.locke.library.persistence.dao.IOptimisticUpdate;
+
+/**
+ * Updates objects using optimistic locking on their version property, as an
+ * alternative to holding a {@link LockType#READ} lock, which Hibernate takes
+ * with "select for update", while an object is modified. Each attempt reads
+ * the object, applies an update to it and commits in its own entity manager
+ * and transaction. If another transaction changed the object in the meantime,
+ * the attempt is rolled back and retried after a randomized, exponentially
+ * growing delay, so that contending writers spread out instead of colliding
+ * again. Calling {@link #setLockType(LockType)} makes each attempt also lock
+ * the object it reads through {@link AbstractJpaDao#lock}, for example with
+ * {@link LockType#WRITE} to increment the version even when an update changes
+ * nothing.
+ * <p>
+ * Transactions are begun through the Hibernate session, so they are JDBC or
+ * JTA transactions as the persistence unit is configured. The updater must
+ * not be called within a transaction, since each attempt has to commit on its
+ * own for conflicts to be retried. While an update runs, the DAO uses the
+ * attempt's entity manager on the current thread, and updates through the DAO
+ * bypass any {@link WriteBehindBuffer}, so they are written and checked by
+ * the attempt.
+ * <p>
+ * Counts of attempts, conflicts and retries can be published over JMX by
+ * calling {@link #register(String)}.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class OptimisticUpdater<T extends IPersistent<PK>, PK extends Serializable>
+                                                                                    implements
+                                                                                    OptimisticUpdaterMBean
+{
+    /**
+     * Default delay before the first retry
+     */
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.milliseconds(10);
+
+    /**
+     * Default number of attempts before giving up
+     */
+    public static final int DEFAULT_MAXIMUM_ATTEMPTS = 5;
+
+    /**
+     * Default longest delay between attempts
+     */
+    public static final Duration DEFAULT_MAXIMUM_BACKOFF = Duration.seconds(1);
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AbstractJpaDao<T, PK> dao;
+    private final EntityManagerFactory entityManagerFactory;
+    private final AtomicLong failures = new AtomicLong();
+    private final long initialBackoffMillis;
+    private final int maximumAttempts;
+    private final long maximumBackoffMillis;
+    private volatile LockType lockType;
+    private final Random random = new Random();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+
+    /**
+     * @param dao
+     *            The DAO for the objects to update
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each attempt
+     */
+    public OptimisticUpdater(final AbstractJpaDao<T, PK> dao,
+                             final EntityManagerFactory entityManagerFactory)
+    {
+        this(dao, entityManagerFactory, DEFAULT_MAXIMUM_ATTEMPTS, DEFAULT_INITIAL_BACKOFF,
+             DEFAULT_MAXIMUM_BACKOFF);
+    }
+
+    /**
+     * @param dao
+     *            The DAO for the objects to update
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each attempt
+     * @param maximumAttempts
+     *            Number of attempts before giving up
+     * @param initialBackoff
+     *            Delay before the first retry
+     * @param maximumBackoff
+     *            Longest delay between attempts
+     */
+    public OptimisticUpdater(final AbstractJpaDao<T, PK> dao,
+                             final EntityManagerFactory entityManagerFactory,
+                             final int maximumAttempts, final Duration initialBackoff,
+                             final Duration maximumBackoff)
+    {
+        if (maximumAttempts < 1)
+        {
+            throw new IllegalArgumentException("Must make at least one attempt");
+        }
+        this.dao = dao;
+        this.entityManagerFactory = entityManagerFactory;
+        this.maximumAttempts = maximumAttempts;
+        this.initialBackoffMillis = Math.max(1, initialBackoff.getMilliseconds());
+        this.maximumBackoffMillis = Math.max(1, maximumBackoff.getMilliseconds());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAttempts()
+    {
+        return this.attempts.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConflicts()
+    {
+        return this.conflicts.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailures()
+    {
+        return this.failures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRetries()
+    {
+        return this.retries.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUpdates()
+    {
+        return this.updates.get();
+    }
+
+    /**
+     * Registers this updater's statistics with the platform MBean server
+     * 
+     * @param name
+     *            JMX object name, such as
+     *            "com.locke.library:type=OptimisticUpdater,name=Counter"
+     */
+    public void register(final String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        }
+        catch (final JMException e)
+        {
+            throw new IllegalStateException("Unable to register optimistic updater as " + name,
+                                            e);
+        }
+    }
+
+    /**
+     * @param lockType
+     *            Lock to take on each object as it is read by an attempt, or
+     *            null to rely on the version check alone
+     */
+    public void setLockType(final LockType lockType)
+    {
+        this.lockType = lockType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[OptimisticUpdater updates=" + getUpdates() + ", attempts=" + getAttempts()
+               + ", conflicts=" + getConflicts() + ", retries=" + getRetries() + ", failures="
+               + getFailures() + "]";
+    }
+
+    /**
+     * Reads an object, updates it and commits, retrying if another transaction
+     * changes the object first. The DAO uses each attempt's entity manager on
+     * the current thread while the update runs, so the update may use the DAO.
+     * 
+     * @param id
+     *            Id of object to update
+     * @param update
+     *            The update to apply
+     * @return The updated object, which is detached
+     */
+    public T update(final PK id, final IOptimisticUpdate<T> update)
+    {
+        for (int attempt = 1;; attempt++)
+        {
+            this.attempts.incrementAndGet();
+            final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+            final EntityManager previous = this.dao.bindEntityManager(entityManager);
+            final Session session = ((HibernateEntityManager)entityManager).getSession();
+            Transaction transaction = null;
+            try
+            {
+                checkVersioned(session);
+                transaction = session.beginTransaction();
+                final T object = entityManager.find(this.dao.type, id);
+                if (object == null)
+                {
+                    throw new IllegalArgumentException("No " + this.dao.type.getSimpleName()
+                                                       + " with id " + id);
+                }
+                final LockType lockType = this.lockType;
+                if (lockType != null)
+                {
+                    this.dao.lock(object, lockType);
+                }
+                update.update(object);
+
+                // Flush first so that a conflict is thrown within the attempt
+                // however the transaction completes
+                session.flush();
+                transaction.commit();
+                this.dao.invalidate(object);
+                this.updates.incrementAndGet();
+                return object;
+            }
+            catch (final RuntimeException e)
+            {
+                if (!isConflict(e))
+                {
+                    throw e;
+                }
+                this.conflicts.incrementAndGet();
+                if (attempt >= this.maximumAttempts)
+                {
+                    this.failures.incrementAndGet();
+                    throw new IllegalStateException("Gave up updating "
+                                                    + this.dao.type.getSimpleName() + " " + id
+                                                    + " after " + attempt
+                                                    + " conflicting attempts", e);
+                }
+            }
+            finally
+            {
+                if (transaction != null && transaction.isActive())
+                {
+                    transaction.rollback();
+                }
+                this.dao.restoreEntityManager(previous);
+                entityManager.close();
+            }
+            this.retries.incrementAndGet();
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Sleeps for a random time between half and all of the backoff for the
+     * given attempt, which doubles with each attempt up to the maximum
+     * 
+     * @param attempt
+     *            The attempt that failed
+     */
+    private void backOff(final int attempt)
+    {
+        final long backoff =
+                Math.min(this.maximumBackoffMillis, this.initialBackoffMillis
+                                                    << Math.min(attempt - 1, 30));
+        final long half = backoff / 2;
+        final long delay = half + (long)(this.random.nextDouble() * (backoff - half + 1));
+        try
+        {
+            Thread.sleep(delay);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted retrying optimistic update", e);
+        }
+    }
+
+    /**
+     * @param session
+     *            The session of an attempt
+     */
+    private void checkVersioned(final Session session)
+    {
+        final SessionImplementor implementor = (SessionImplementor)session;
+        if (!implementor.getFactory().getEntityPersister(this.dao.type.getName()).isVersioned())
+        {
+            throw new IllegalStateException("Optimistic updates require a version property on "
+                                            + this.dao.type);
+        }
+    }
+
+    /**
+     * @param e
+     *            Exception thrown by an attempt
+     * @return True if the exception or any cause is due to a stale version
+     */
+    private boolean isConflict(final Throwable e)
+    {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
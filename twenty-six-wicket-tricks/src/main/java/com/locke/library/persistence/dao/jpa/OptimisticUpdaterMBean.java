@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+/**
+ * JMX management interface for {@link OptimisticUpdater}
+ * 
+ * @author Jonathan Locke
+ */
+public interface OptimisticUpdaterMBean
+{
+    /**
+     * @return Number of attempts at updates, including retries
+     */
+    long getAttempts();
+
+    /**
+     * @return Number of attempts that failed because another transaction
+     *         changed the object first
+     */
+    long getConflicts();
+
+    /**
+     * @return Number of updates abandoned after the maximum number of attempts
+     */
+    long getFailures();
+
+    /**
+     * @return Number of attempts retried after a conflict
+     */
+    long getRetries();
+
+    /**
+     * @return Number of updates that succeeded
+     */
+    long getUpdates();
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.utilities.concurrent.BoundedExecutor;
+
+/**
+ * Pages through query results like {@link JpaQueryResult}, but fetches the
+ * following pages on worker threads while the current page is consumed. Up to
+ * the given depth of pages are fetched ahead. Each page is fetched through the
+ * DAO like any other page, so it uses the DAO's result cache and, if the DAO
+ * routes reads to replicas and the thread creating this result has not
+ * written, the replica that thread reads from. Otherwise each page is fetched
+ * with its own entity manager for the primary. Either way, the objects
+ * returned are detached from the caller's persistence context. Closing the result cancels any pages still being
+ * fetched, so it must be closed if it is not iterated to the end.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+final class PrefetchingJpaQueryResult<T extends IPersistent<PK>, PK extends Serializable>
+                                                                                           implements
+                                                                                           ICursor<T>
+{
+    private final BoundQuery boundQuery;
+    private boolean closed;
+    private final AbstractJpaDao<T, PK> dao;
+    private final EntityManagerFactory entityManagerFactory;
+    private final BoundedExecutor executor;
+
+    /**
+     * The query, for recording statistics
+     */
+    private final JpaQuery<T, PK> jpaQuery;
+
+    /**
+     * True once a page shorter than the page size has been taken, since no
+     * page can follow it
+     */
+    private boolean lastPageTaken;
+
+    /**
+     * Index of the first result of the next page to fetch
+     */
+    private int nextFirst;
+
+    /**
+     * The current page
+     */
+    private List<T> page = Collections.emptyList();
+
+    /**
+     * Index of the next result on the current page
+     */
+    private int pageIndex;
+
+    private final int pageSize;
+
+    /**
+     * Pages being fetched, in order
+     */
+    private final LinkedList<Future<List<T>>> pending = new LinkedList<Future<List<T>>>();
+
+    /**
+     * The replica that the thread creating this result reads from, or null if
+     * pages must be read from the primary. Worker threads are outside any
+     * request, so they would otherwise each be assigned a replica of their own
+     * and keep it.
+     */
+    private final EntityManager replica;
+
+    /**
+     * @param jpaQuery
+     *            The query to page through
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each page
+     * @param executor
+     *            The executor to fetch pages on
+     * @param pageSize
+     *            Number of results per page
+     * @param depth
+     *            Number of pages to fetch ahead of the current page, at least
+     *            one
+     */
+    PrefetchingJpaQueryResult(final JpaQuery<T, PK> jpaQuery,
+                              final EntityManagerFactory entityManagerFactory,
+                              final BoundedExecutor executor, final int pageSize, final int depth)
+    {
+        JpaQueryResult.checkPageSize(pageSize);
+        if (depth < 1)
+        {
+            throw new IllegalArgumentException("Prefetch depth must be at least one, not "
+                                               + depth);
+        }
+        this.jpaQuery = jpaQuery;
+        this.boundQuery = jpaQuery.bind();
+        this.dao = jpaQuery.getDao();
+        this.replica = this.dao.replicaEntityManager();
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        for (int i = 0; i <= depth; i++)
+        {
+            fetchAhead();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        if (!this.closed)
+        {
+            this.closed = true;
+            cancelPending();
+            this.page = Collections.emptyList();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext()
+    {
+        while (!this.closed && this.pageIndex >= this.page.size())
+        {
+            if (this.lastPageTaken || this.pending.isEmpty())
+            {
+                close();
+                return false;
+            }
+            this.page = await(this.pending.removeFirst());
+            this.pageIndex = 0;
+            if (this.page.size() < this.pageSize)
+            {
+                // Pages after a short page are empty
+                this.lastPageTaken = true;
+                cancelPending();
+            }
+            else
+            {
+                // Keep the same number of pages in flight
+                fetchAhead();
+            }
+        }
+        return !this.closed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<T> iterator()
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return this.page.get(this.pageIndex++);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param future
+     *            Future page
+     * @return The page, once it has been fetched
+     */
+    private List<T> await(final Future<List<T>> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (final InterruptedException e)
+        {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted fetching page of " + this.boundQuery, e);
+        }
+        catch (final ExecutionException e)
+        {
+            close();
+            throw new IllegalStateException("Failed executing query " + this.boundQuery, e
+                    .getCause());
+        }
+    }
+
+    /**
+     * Cancels all pages still being fetched
+     */
+    private void cancelPending()
+    {
+        for (final Future<List<T>> future : this.pending)
+        {
+            future.cancel(true);
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * Fetches a page through the DAO on the current worker thread
+     * 
+     * @param first
+     *            Index of the first result on the page
+     * @return The page
+     */
+    private List<T> fetch(final int first)
+    {
+        final EntityManager entityManager =
+                this.replica != null ? this.replica : this.entityManagerFactory
+                        .createEntityManager();
+        final EntityManager previous = this.dao.bindEntityManager(entityManager);
+        try
+        {
+            final List<T> page =
+                    new ArrayList<T>(this.jpaQuery.fetchPage(this.boundQuery, first,
+                                                             this.pageSize, 0));
+            this.jpaQuery.batchFetch(page, entityManager);
+            return page;
+        }
+        finally
+        {
+            this.dao.restoreEntityManager(previous);
+            if (this.replica == null)
+            {
+                entityManager.close();
+            }
+        }
+    }
+
+    /**
+     * Starts fetching the next page on a worker thread
+     */
+    private void fetchAhead()
+    {
+        final int first = this.nextFirst;
+        this.nextFirst += this.pageSize;
+        this.pending.add(this.executor.submit(new Callable<List<T>>()
+        {
+            public List<T> call()
+            {
+                return fetch(first);
+            }
+        }));
+    }
+}
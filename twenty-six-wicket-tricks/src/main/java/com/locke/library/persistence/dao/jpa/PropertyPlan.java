@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.locke.library.persistence.dao.jpa.AbstractJpaDao.PropertyProcessingMode;
+import com.locke.library.utilities.object.ClassRegistry;
+import com.locke.library.utilities.strings.MethodName;
+
+/**
+ * The {@link Attachable} and {@link Ensurable} properties of a class, resolved
+ * once to accessible getter and setter methods so that attaching and ensuring
+ * objects does no per-call method lookup or annotation scanning.
+ * 
+ * @author Jonathan Locke
+ */
+final class PropertyPlan
+{
+    /**
+     * Plans by class
+     */
+    private static final ClassRegistry<PropertyPlan> plans = new ClassRegistry<PropertyPlan>()
+    {
+        @Override
+        protected PropertyPlan computeValue(final Class<?> type)
+        {
+            return new PropertyPlan(type);
+        }
+    };
+
+    /**
+     * @param type
+     *            The class
+     * @return The property plan for the class
+     */
+    static PropertyPlan forClass(final Class<?> type)
+    {
+        return plans.get(type);
+    }
+
+    private final List<Property> attachable;
+    private final List<Property> ensurable;
+
+    /**
+     * @param type
+     *            The class to plan property access for
+     */
+    private PropertyPlan(final Class<?> type)
+    {
+        final List<Property> attachable = new ArrayList<Property>();
+        final List<Property> ensurable = new ArrayList<Property>();
+        for (final Method method : type.getMethods())
+        {
+            final boolean isAttachable = method.getAnnotation(Attachable.class) != null;
+            final boolean isEnsurable = method.getAnnotation(Ensurable.class) != null;
+            if (isAttachable || isEnsurable)
+            {
+                try
+                {
+                    final MethodName methodName = new MethodName(method);
+                    if (!methodName.isGetter())
+                    {
+                        throw new IllegalStateException("Attachable and/or Ensurable method '"
+                                                        + method + "' is not a getter");
+                    }
+                    final Method writeMethod =
+                            type.getMethod(methodName.prefixed("set"), method.getReturnType());
+                    final Property property = new Property(method, writeMethod);
+                    if (isAttachable)
+                    {
+                        attachable.add(property);
+                    }
+                    if (isEnsurable)
+                    {
+                        ensurable.add(property);
+                    }
+                }
+                catch (final SecurityException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (final NoSuchMethodException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+        this.attachable = Collections.unmodifiableList(attachable);
+        this.ensurable = Collections.unmodifiableList(ensurable);
+    }
+
+    /**
+     * @param mode
+     *            Either Mode.ENSURE or Mode.ATTACH
+     * @return The properties to process in the given mode
+     */
+    List<Property> properties(final PropertyProcessingMode mode)
+    {
+        return mode == PropertyProcessingMode.ATTACH ? this.attachable : this.ensurable;
+    }
+
+    /**
+     * A property with a getter and a setter
+     */
+    static final class Property
+    {
+        private final Method readMethod;
+        private final Method writeMethod;
+
+        Property(final Method readMethod, final Method writeMethod)
+        {
+            this.readMethod = readMethod;
+            this.writeMethod = writeMethod;
+
+            // Skip access checks on each invocation
+            readMethod.setAccessible(true);
+            writeMethod.setAccessible(true);
+        }
+
+        /**
+         * @param object
+         *            The object
+         * @return The value of this property of the object
+         * @throws IllegalAccessException
+         * @throws InvocationTargetException
+         */
+        Object read(final Object object) throws IllegalAccessException,
+            InvocationTargetException
+        {
+            return this.readMethod.invoke(object, (Object[])null);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return this.readMethod.toString();
+        }
+
+        /**
+         * @param object
+         *            The object
+         * @param value
+         *            The new value of this property of the object
+         * @throws IllegalAccessException
+         * @throws InvocationTargetException
+         */
+        void write(final Object object, final Object value) throws IllegalAccessException,
+            InvocationTargetException
+        {
+            this.writeMethod.invoke(object, value);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution statistics for all queries of one shape. Latencies are recorded in
+ * a histogram of power-of-two buckets, so recording is lock-free and takes
+ * constant time and space, at the cost of percentiles being accurate only to
+ * within a factor of two.
+ * 
+ * @author Jonathan Locke
+ */
+public final class QueryShapeStatistics
+{
+    /**
+     * One bucket for each possible bit length of a latency in nanoseconds
+     */
+    private static final int BUCKETS = 65;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong maximumNanoseconds = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final String query;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong totalNanoseconds = new AtomicLong();
+
+    /**
+     * @param query
+     *            EJBQL text of the query shape
+     */
+    QueryShapeStatistics(final String query)
+    {
+        this.query = query;
+    }
+
+    /**
+     * @return Number of times queries of this shape were executed
+     */
+    public long getExecutions()
+    {
+        return this.executions.get();
+    }
+
+    /**
+     * @return Longest execution time in nanoseconds
+     */
+    public long getMaximumNanoseconds()
+    {
+        return this.maximumNanoseconds.get();
+    }
+
+    /**
+     * @return Mean execution time in nanoseconds
+     */
+    public long getMeanNanoseconds()
+    {
+        final long executions = getExecutions();
+        return executions == 0 ? 0 : this.totalNanoseconds.get() / executions;
+    }
+
+    /**
+     * @return Number of result pages fetched
+     */
+    public long getPages()
+    {
+        return this.pages.get();
+    }
+
+    /**
+     * @param percentile
+     *            Percentile between 0 and 100
+     * @return Upper bound of the execution time in nanoseconds that the given
+     *         percentage of executions completed within
+     */
+    public long getPercentileNanoseconds(final double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            total += this.buckets.get(i);
+        }
+        final long target = (long)Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += this.buckets.get(i);
+            if (seen >= target && seen > 0)
+            {
+                // Bucket i holds latencies with a bit length of i
+                final long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, getMaximumNanoseconds());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return EJBQL text of the query shape
+     */
+    public String getQuery()
+    {
+        return this.query;
+    }
+
+    /**
+     * @return Number of rows returned or updated
+     */
+    public long getRows()
+    {
+        return this.rows.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[executions=" + getExecutions() + ", p50=" + millis(getPercentileNanoseconds(50))
+               + "ms, p99=" + millis(getPercentileNanoseconds(99)) + "ms, max="
+               + millis(getMaximumNanoseconds()) + "ms, rows=" + getRows() + ", pages="
+               + getPages() + ", query=" + this.query + "]";
+    }
+
+    /**
+     * @param nanoseconds
+     *            Execution time
+     * @param rows
+     *            Number of rows returned or updated
+     * @param page
+     *            True if the execution fetched a page of results
+     */
+    void record(final long nanoseconds, final int rows, final boolean page)
+    {
+        this.executions.incrementAndGet();
+        this.totalNanoseconds.addAndGet(nanoseconds);
+        this.rows.addAndGet(rows);
+        if (page)
+        {
+            this.pages.incrementAndGet();
+        }
+        this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanoseconds));
+        long maximum = this.maximumNanoseconds.get();
+        while (nanoseconds > maximum
+               && !this.maximumNanoseconds.compareAndSet(maximum, nanoseconds))
+        {
+            maximum = this.maximumNanoseconds.get();
+        }
+    }
+
+    /**
+     * @param nanoseconds
+     *            Time in nanoseconds
+     * @return Time in milliseconds
+     */
+    private double millis(final long nanoseconds)
+    {
+        return Math.round(nanoseconds / 1000.0) / 1000.0;
+    }
+}
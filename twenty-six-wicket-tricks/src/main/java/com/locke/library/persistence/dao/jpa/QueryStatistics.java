@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe execution statistics for the queries of a DAO, kept per query
+ * shape, together with a log of queries that take longer than a threshold.
+ * Recording an execution takes a map lookup and a few atomic increments, so
+ * statistics can be left on in production.
+ * <p>
+ * Slow queries are logged as warnings along with the clauses they were built
+ * from. Subclasses can override {@link #onSlowQuery} to report them
+ * elsewhere. Statistics can be published over JMX by calling
+ * {@link #register(String)}.
+ * 
+ * @author Jonathan Locke
+ */
+public class QueryStatistics implements QueryStatisticsMBean
+{
+    /**
+     * Default maximum number of query shapes to keep statistics for
+     */
+    public static final int DEFAULT_MAXIMUM_SHAPES = 512;
+
+    /**
+     * Default execution time in milliseconds above which queries are logged
+     */
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 500;
+
+    private static final Logger log = LoggerFactory.getLogger(QueryStatistics.class);
+
+    private final AtomicLong executions = new AtomicLong();
+    private final int maximumShapes;
+    private final ConcurrentHashMap<CompiledQuery, QueryShapeStatistics> shapes =
+            new ConcurrentHashMap<CompiledQuery, QueryShapeStatistics>();
+    private final AtomicLong slowQueries = new AtomicLong();
+    private volatile long slowQueryThresholdNanoseconds;
+
+    public QueryStatistics()
+    {
+        this(DEFAULT_MAXIMUM_SHAPES, DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * @param maximumShapes
+     *            Maximum number of query shapes to keep statistics for. Queries
+     *            of further shapes are counted only in the totals.
+     * @param slowQueryThresholdMillis
+     *            Execution time in milliseconds above which queries are
+     *            logged
+     */
+    public QueryStatistics(final int maximumShapes, final long slowQueryThresholdMillis)
+    {
+        this.maximumShapes = maximumShapes;
+        setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getExecutions()
+    {
+        return this.executions.get();
+    }
+
+    /**
+     * @param query
+     *            The compiled query
+     * @return Statistics for the shape of the given query or null if none have
+     *         been recorded
+     */
+    public QueryShapeStatistics getShape(final CompiledQuery query)
+    {
+        return this.shapes.get(query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getShapes()
+    {
+        final List<String> shapes = new ArrayList<String>();
+        for (final QueryShapeStatistics shape : this.shapes.values())
+        {
+            shapes.add(shape.toString());
+        }
+        return shapes.toArray(new String[shapes.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSlowQueries()
+    {
+        return this.slowQueries.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSlowQueryThresholdMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.slowQueryThresholdNanoseconds);
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server
+     * 
+     * @param name
+     *            JMX object name, such as
+     *            "com.locke.library:type=QueryStatistics,name=Person"
+     */
+    public void register(final String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        }
+        catch (final JMException e)
+        {
+            throw new IllegalStateException("Unable to register query statistics as " + name, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        this.shapes.clear();
+        this.executions.set(0);
+        this.slowQueries.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSlowQueryThresholdMillis(final long millis)
+    {
+        this.slowQueryThresholdNanoseconds = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[QueryStatistics shapes=" + this.shapes.size() + ", executions="
+               + getExecutions() + ", slowQueries=" + getSlowQueries() + "]";
+    }
+
+    /**
+     * Unregisters these statistics from the platform MBean server
+     * 
+     * @param name
+     *            JMX object name passed to {@link #register(String)}
+     */
+    public void unregister(final String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+        }
+        catch (final JMException e)
+        {
+            throw new IllegalStateException("Unable to unregister query statistics " + name, e);
+        }
+    }
+
+    /**
+     * Called when a query takes longer than the slow query threshold
+     * 
+     * @param query
+     *            The query
+     * @param clauses
+     *            The clauses the query was built from or null if it was built
+     *            from query text
+     * @param nanoseconds
+     *            Execution time
+     * @param rows
+     *            Number of rows returned or updated
+     */
+    protected void onSlowQuery(final CompiledQuery query, final ClauseList clauses,
+                               final long nanoseconds, final int rows)
+    {
+        if (log.isWarnEnabled())
+        {
+            log.warn("Slow query (" + TimeUnit.NANOSECONDS.toMillis(nanoseconds) + "ms, " + rows
+                     + " rows): " + query + " from clauses " + clauses);
+        }
+    }
+
+    /**
+     * Records an execution of a query
+     * 
+     * @param query
+     *            The query
+     * @param clauses
+     *            The clauses the query was built from or null if it was built
+     *            from query text
+     * @param nanoseconds
+     *            Execution time
+     * @param rows
+     *            Number of rows returned or updated
+     * @param page
+     *            True if the execution fetched a page of results
+     */
+    void record(final CompiledQuery query, final ClauseList clauses, final long nanoseconds,
+                final int rows, final boolean page)
+    {
+        this.executions.incrementAndGet();
+        final QueryShapeStatistics shape = shape(query);
+        if (shape != null)
+        {
+            shape.record(nanoseconds, rows, page);
+        }
+        if (nanoseconds > this.slowQueryThresholdNanoseconds)
+        {
+            this.slowQueries.incrementAndGet();
+            onSlowQuery(query, clauses, nanoseconds, rows);
+        }
+    }
+
+    /**
+     * @param query
+     *            The query
+     * @return Statistics for the shape of the query or null if the maximum
+     *         number of shapes is already being kept
+     */
+    private QueryShapeStatistics shape(final CompiledQuery query)
+    {
+        final QueryShapeStatistics shape = this.shapes.get(query);
+        if (shape != null || this.shapes.size() >= this.maximumShapes)
+        {
+            return shape;
+        }
+        final QueryShapeStatistics created = new QueryShapeStatistics(query.getEjbql());
+        final QueryShapeStatistics existing = this.shapes.putIfAbsent(query, created);
+        return existing != null ? existing : created;
+    }
+}
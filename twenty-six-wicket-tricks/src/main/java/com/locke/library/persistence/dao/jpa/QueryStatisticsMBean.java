@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+/**
+ * JMX management interface for {@link QueryStatistics}
+ * 
+ * @author Jonathan Locke
+ */
+public interface QueryStatisticsMBean
+{
+    /**
+     * @return Number of queries executed
+     */
+    long getExecutions();
+
+    /**
+     * @return Statistics for each query shape, one shape per line
+     */
+    String[] getShapes();
+
+    /**
+     * @return Number of queries that took longer than the slow query threshold
+     */
+    long getSlowQueries();
+
+    /**
+     * @return Execution time in milliseconds above which queries are logged
+     */
+    long getSlowQueryThresholdMillis();
+
+    /**
+     * Discards all statistics
+     */
+    void reset();
+
+    /**
+     * @param millis
+     *            Execution time in milliseconds above which queries are
+     *            logged
+     */
+    void setSlowQueryThresholdMillis(long millis);
+}
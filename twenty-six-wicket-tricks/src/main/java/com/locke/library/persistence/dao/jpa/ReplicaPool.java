@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.RequestCycle;
+
+/**
+ * Pool of entity managers for replicas of a database, for use by
+ * {@link AbstractJpaDao#getReplicaEntityManager()}. Each request is assigned a
+ * replica in turn and keeps it until the request ends, so that all reads in a
+ * request see the same replica. Threads outside any request keep their replica
+ * until {@link #release()} is called.
+ * <p>
+ * The entity managers must be safe to share between threads, as container or
+ * Spring managed shared entity managers are.
+ * 
+ * @author Jonathan Locke
+ */
+public class ReplicaPool
+{
+    /**
+     * Replicas assigned to the current request, by pool
+     */
+    private static final MetaDataKey<HashMap<ReplicaPool, EntityManager>> ASSIGNED =
+            new MetaDataKey<HashMap<ReplicaPool, EntityManager>>()
+            {
+                private static final long serialVersionUID = -2739512218845360414L;
+            };
+
+    /**
+     * Replica assigned to each thread outside any request
+     */
+    private final ThreadLocal<EntityManager> assigned = new ThreadLocal<EntityManager>();
+
+    /**
+     * Count of assignments, for choosing replicas in turn
+     */
+    private final AtomicInteger assignments = new AtomicInteger();
+
+    /**
+     * The replicas
+     */
+    private final List<EntityManager> replicas;
+
+    /**
+     * @param replicas
+     *            Entity managers for the replicas
+     */
+    public ReplicaPool(final List<EntityManager> replicas)
+    {
+        if (replicas.isEmpty())
+        {
+            throw new IllegalArgumentException("Replica pool must have at least one replica");
+        }
+        this.replicas = new ArrayList<EntityManager>(replicas);
+    }
+
+    /**
+     * @return The replica assigned to the current request or thread, assigning
+     *         the next replica in turn if there is none
+     */
+    public EntityManager get()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            HashMap<ReplicaPool, EntityManager> assigned = cycle.getMetaData(ASSIGNED);
+            if (assigned == null)
+            {
+                assigned = new HashMap<ReplicaPool, EntityManager>();
+                cycle.setMetaData(ASSIGNED, assigned);
+            }
+            EntityManager replica = assigned.get(this);
+            if (replica == null)
+            {
+                replica = next();
+                assigned.put(this, replica);
+            }
+            return replica;
+        }
+        EntityManager replica = this.assigned.get();
+        if (replica == null)
+        {
+            replica = next();
+            this.assigned.set(replica);
+        }
+        return replica;
+    }
+
+    /**
+     * Releases the current request's or thread's replica, so that its next
+     * read may use a different one. Replicas assigned to a request are
+     * released when it ends, but threads outside any request must call this
+     * when their unit of work is done.
+     */
+    public void release()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            final HashMap<ReplicaPool, EntityManager> assigned = cycle.getMetaData(ASSIGNED);
+            if (assigned != null)
+            {
+                assigned.remove(this);
+            }
+        }
+        this.assigned.remove();
+    }
+
+    /**
+     * @return Number of replicas in this pool
+     */
+    public int size()
+    {
+        return this.replicas.size();
+    }
+
+    /**
+     * @return The next replica in turn
+     */
+    private EntityManager next()
+    {
+        final int index = (this.assignments.getAndIncrement() & Integer.MAX_VALUE)
+                          % this.replicas.size();
+        return this.replicas.get(index);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Cache of the pages returned by {@link com.locke.library.persistence.dao.IQuery}
+ * result iteration, keyed by compiled query, parameter values and page range.
+ * Only primary keys are held, so entries are small, and cached pages are
+ * loaded again by primary key into the persistence context of the query.
+ * Pages of queries with {@link com.locke.library.persistence.dao.query.clauses.Fetch}
+ * clauses are not cached. Pages are served for at most the staleness window
+ * given to the constructor. They are discarded sooner if the owning DAO writes
+ * any object of its type, but not when other types that a query refers to
+ * change.
+ * 
+ * @author Jonathan Locke
+ * @param <PK>
+ */
+public class ResultCache<PK extends Serializable> extends TimedCache<Object, List<PK>>
+{
+    /**
+     * Number of times the cache has been cleared, so that a page read before
+     * a write is not cached after it
+     */
+    private long generation;
+
+    /**
+     * Largest page that will be cached
+     */
+    private final int maximumRows;
+
+    /**
+     * @param maximumSize
+     *            Maximum number of pages to hold
+     * @param maximumRows
+     *            Largest page to cache
+     * @param staleness
+     *            How long a page may be served after it was read
+     */
+    public ResultCache(final int maximumSize, final int maximumRows, final Duration staleness)
+    {
+        super(maximumSize, staleness);
+        this.maximumRows = maximumRows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void clear()
+    {
+        this.generation++;
+        super.clear();
+    }
+
+    /**
+     * @return Largest page that will be cached
+     */
+    public int getMaximumRows()
+    {
+        return this.maximumRows;
+    }
+
+    /**
+     * @return Token to pass to {@link #put(Object, List, long)} for a page
+     *         about to be read
+     */
+    synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Caches a page unless the cache has been cleared since the page was read
+     * 
+     * @param key
+     *            The key
+     * @param ids
+     *            Primary keys of the objects on the page
+     * @param generation
+     *            Value of {@link #getGeneration()} before the page was read
+     */
+    synchronized void put(final Object key, final List<PK> ids, final long generation)
+    {
+        if (generation == this.generation && ids.size() <= this.maximumRows)
+        {
+            put(key, ids);
+        }
+    }
+}
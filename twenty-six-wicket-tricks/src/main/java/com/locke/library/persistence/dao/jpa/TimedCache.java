@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Thread-safe, size-bounded, least-recently-used cache whose entries expire a
+ * fixed time after they were added. Keeps hit, miss and eviction statistics.
+ * 
+ * @author Jonathan Locke
+ * @param <K>
+ *            Key type
+ * @param <V>
+ *            Value type
+ */
+public class TimedCache<K, V>
+{
+    private final Map<K, CachedValue<V>> entries;
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final long timeToLiveMillis;
+
+    /**
+     * @param maximumSize
+     *            Maximum number of entries to hold
+     * @param timeToLive
+     *            How long an entry may be served after it was added
+     */
+    public TimedCache(final int maximumSize, final Duration timeToLive)
+    {
+        this.timeToLiveMillis = timeToLive.getMilliseconds();
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 6417906164722851339L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, CachedValue<V>> eldest)
+            {
+                if (size() > maximumSize)
+                {
+                    TimedCache.this.evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * @param key
+     *            The key
+     * @return The value or null if it is not cached or has expired
+     */
+    public V get(final K key)
+    {
+        final V value;
+        synchronized (this)
+        {
+            final CachedValue<V> entry = this.entries.get(key);
+            if (entry == null)
+            {
+                this.misses.incrementAndGet();
+                return null;
+            }
+            if (entry.isExpired())
+            {
+                this.entries.remove(key);
+                this.evictions.incrementAndGet();
+                this.misses.incrementAndGet();
+                return null;
+            }
+            value = entry.value;
+        }
+        this.hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * @return Number of entries evicted because the cache was full or they
+     *         had expired
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return Number of lookups served from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of lookups not served from the cache
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @param key
+     *            The key
+     * @param value
+     *            The value to cache
+     */
+    public void put(final K key, final V value)
+    {
+        final long expiresAt = System.currentTimeMillis() + this.timeToLiveMillis;
+        final CachedValue<V> cached = new CachedValue<V>(value, expiresAt);
+        synchronized (this)
+        {
+            this.entries.put(key, cached);
+        }
+    }
+
+    /**
+     * Removes expired entries from the cache
+     */
+    public synchronized void purge()
+    {
+        for (final Iterator<CachedValue<V>> iterator = this.entries.values().iterator(); iterator
+                .hasNext();)
+        {
+            if (iterator.next().isExpired())
+            {
+                iterator.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            Key of entry to remove from the cache
+     */
+    public synchronized void remove(final K key)
+    {
+        this.entries.remove(key);
+    }
+
+    /**
+     * @return Number of entries in the cache
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[" + getClass().getSimpleName() + " size=" + size() + ", hits=" + getHits()
+               + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+    /**
+     * A cached value and the time it expires
+     */
+    private static final class CachedValue<V>
+    {
+        final long expiresAt;
+        final V value;
+
+        CachedValue(final V value, final long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() > this.expiresAt;
+        }
+    }
+}
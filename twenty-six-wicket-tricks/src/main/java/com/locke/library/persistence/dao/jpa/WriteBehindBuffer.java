@@ -0,0 +1,673 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.time.Duration;
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.ejb.HibernateEntityManager;
+import org.hibernate.metadata.ClassMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * Buffers updates to existing objects and writes them on a background thread,
+ * for objects such as counters and timestamps that are updated many times a
+ * second. Updates to the same object within the flush window are coalesced,
+ * so only the last state is written, and each flush writes all pending
+ * objects in one transaction, flushing every {@link AbstractJpaDao#getBatchSize()}
+ * objects. Statements are only sent as JDBC batches if
+ * hibernate.jdbc.batch_size is configured for the persistence unit.
+ * <p>
+ * A copy of each object is taken when it is added, so objects must be
+ * serializable, as for {@link EntityCache}, and callers may keep changing
+ * their own instance. Each flush writes fresh copies of the pending copies,
+ * which are reattached without being read first, so every column is written.
+ * The last update wins: the version of each copy of a versioned object is set
+ * to the version in the database, read with one query per chunk of objects,
+ * before it is written. Until an object has been written,
+ * {@link #get(Serializable)} returns a copy of its latest state.
+ * <p>
+ * If a flush fails, its objects are written one per transaction. Any object
+ * that still fails is logged, counted in {@link #getFailures()} and kept to be
+ * written again by the next flush, unless a newer update of it arrives first.
+ * An object that fails {@link #MAXIMUM_STALE_ATTEMPTS} times because its row
+ * was deleted or changed while it was being written is dropped and counted in
+ * {@link #getDropped()}.
+ * <p>
+ * Pending objects are written when the buffer is closed, and a shutdown hook
+ * closes the buffer if the virtual machine exits normally first. Statistics
+ * can be published over JMX by calling {@link #register(String)}.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class WriteBehindBuffer<T extends IPersistent<PK>, PK extends Serializable> implements
+    WriteBehindBufferMBean
+{
+    /**
+     * Default number of pending objects at which callers flush
+     */
+    public static final int DEFAULT_MAXIMUM_DEPTH = 10000;
+
+    /**
+     * Default time between flushes
+     */
+    public static final Duration DEFAULT_WINDOW = Duration.seconds(1);
+
+    /**
+     * Number of times an object may fail to be written because its row is
+     * stale before it is dropped
+     */
+    public static final int MAXIMUM_STALE_ATTEMPTS = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    /**
+     * Guards against updates being added while the buffer is closed
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private boolean closed;
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AbstractJpaDao<T, PK> dao;
+    private final EntityManagerFactory entityManagerFactory;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Number of failed attempts to write each pending object whose last write
+     * failed, by primary key
+     */
+    private final ConcurrentHashMap<PK, Integer> failing = new ConcurrentHashMap<PK, Integer>();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Held while flushing, so that flushes write in the order objects were
+     * drained
+     */
+    private final Object flushLock = new Object();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile long lastFlushMillis;
+    private final int maximumDepth;
+    private volatile long maximumFlushMillis;
+
+    /**
+     * Copies of objects waiting to be written by primary key
+     */
+    private final ConcurrentHashMap<PK, T> pending = new ConcurrentHashMap<PK, T>();
+
+    private final Thread shutdownHook;
+    private final AtomicLong updates = new AtomicLong();
+
+    /**
+     * Copies of objects being written by the current flush, by primary key
+     */
+    private final ConcurrentHashMap<PK, T> writing = new ConcurrentHashMap<PK, T>();
+
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param dao
+     *            The DAO for the objects to write
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each flush
+     */
+    public WriteBehindBuffer(final AbstractJpaDao<T, PK> dao,
+                             final EntityManagerFactory entityManagerFactory)
+    {
+        this(dao, entityManagerFactory, DEFAULT_WINDOW, DEFAULT_MAXIMUM_DEPTH);
+    }
+
+    /**
+     * @param dao
+     *            The DAO for the objects to write
+     * @param entityManagerFactory
+     *            Factory for the entity manager of each flush
+     * @param window
+     *            Time between flushes, within which updates to the same object
+     *            are coalesced
+     * @param maximumDepth
+     *            Number of pending objects at which the caller adding an
+     *            update flushes rather than waiting for the background thread
+     */
+    public WriteBehindBuffer(final AbstractJpaDao<T, PK> dao,
+                             final EntityManagerFactory entityManagerFactory,
+                             final Duration window, final int maximumDepth)
+    {
+        if (maximumDepth < 1)
+        {
+            throw new IllegalArgumentException("Maximum depth must be at least 1");
+        }
+        this.dao = dao;
+        this.entityManagerFactory = entityManagerFactory;
+        this.maximumDepth = maximumDepth;
+        final String name = "WriteBehindBuffer-" + dao.type.getSimpleName();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final long windowMillis = Math.max(1, window.getMilliseconds());
+        this.executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                // An exception would cancel all further flushes
+                try
+                {
+                    flush();
+                }
+                catch (final RuntimeException e)
+                {
+                    log.error("Unable to flush " + WriteBehindBuffer.this, e);
+                }
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(name + "-shutdown")
+        {
+            @Override
+            public void run()
+            {
+                WriteBehindBuffer.this.close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+    }
+
+    /**
+     * Adds an update of an existing object, replacing any pending update of
+     * the same object
+     * 
+     * @param object
+     *            The object, which must have a primary key
+     * @return True if the update was added, false if the buffer is closed and
+     *         the caller must write the object itself. Any pending update of
+     *         the object is then discarded in favor of the caller's write.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean add(final T object)
+    {
+        final PK id = object.getPrimaryKey();
+        if (id == null)
+        {
+            throw new IllegalArgumentException("Only objects with primary keys can be buffered");
+        }
+        final T copy = (T)Objects.cloneObject(object);
+        this.closeLock.readLock().lock();
+        try
+        {
+            if (this.closed)
+            {
+                discard(id);
+                return false;
+            }
+            this.updates.incrementAndGet();
+            this.failing.remove(id);
+            if (this.pending.put(id, copy) != null)
+            {
+                this.coalesced.incrementAndGet();
+            }
+        }
+        finally
+        {
+            this.closeLock.readLock().unlock();
+        }
+        if (this.pending.size() >= this.maximumDepth)
+        {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Stops buffering and writes all pending objects. Later calls to
+     * {@link #add(IPersistent)} return false. Calling this method more than
+     * once has no effect.
+     * 
+     * @throws IllegalStateException
+     *             If any pending object could not be written. Such objects
+     *             are kept, and calling {@link #flush()} tries again.
+     */
+    public void close()
+    {
+        this.closeLock.writeLock().lock();
+        try
+        {
+            if (this.closed)
+            {
+                return;
+            }
+            this.closed = true;
+        }
+        finally
+        {
+            this.closeLock.writeLock().unlock();
+        }
+        this.executor.shutdown();
+        flush();
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+        }
+        catch (final IllegalStateException e)
+        {
+            // Closed by the shutdown hook
+        }
+        final int depth = getDepth();
+        if (depth > 0)
+        {
+            throw new IllegalStateException("Closed " + this + " with " + depth
+                                            + " updates that could not be written");
+        }
+    }
+
+    /**
+     * Writes all pending objects now. Objects that cannot be written are kept
+     * to be written by a later flush.
+     */
+    public void flush()
+    {
+        synchronized (this.flushLock)
+        {
+            // Move pending objects to those being written, so that reads
+            // still see them until the write commits
+            final List<T> objects = new ArrayList<T>();
+            for (final PK id : this.pending.keySet())
+            {
+                final T object = this.pending.get(id);
+                if (object != null)
+                {
+                    this.writing.put(id, object);
+                    if (this.pending.remove(id, object))
+                    {
+                        objects.add(object);
+                    }
+                    else
+                    {
+                        this.writing.remove(id, object);
+                    }
+                }
+            }
+            if (objects.isEmpty())
+            {
+                return;
+            }
+            final long start = System.nanoTime();
+            try
+            {
+                write(objects);
+                for (final T object : objects)
+                {
+                    this.failing.remove(object.getPrimaryKey());
+                }
+            }
+            catch (final RuntimeException e)
+            {
+                // Write objects one at a time so that one bad object does not
+                // hold back the rest
+                for (final T object : objects)
+                {
+                    final PK id = object.getPrimaryKey();
+                    try
+                    {
+                        write(Collections.singletonList(object));
+                        this.failing.remove(id);
+                    }
+                    catch (final RuntimeException objectException)
+                    {
+                        this.failures.incrementAndGet();
+                        failed(object, objectException);
+                    }
+                }
+            }
+            finally
+            {
+                for (final T object : objects)
+                {
+                    this.writing.remove(object.getPrimaryKey(), object);
+                }
+            }
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            this.lastFlushMillis = elapsedMillis;
+            this.maximumFlushMillis = Math.max(this.maximumFlushMillis, elapsedMillis);
+            this.flushes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Discards any pending update of an object, because a newer state of it
+     * is being written by the caller
+     * 
+     * @param id
+     *            Primary key of the object
+     */
+    public void discard(final PK id)
+    {
+        this.pending.remove(id);
+        this.failing.remove(id);
+    }
+
+    /**
+     * @param id
+     *            Primary key of an object
+     * @return A copy of the latest buffered state of the object, or null if
+     *         it has no update waiting to be written
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final PK id)
+    {
+        T object = this.pending.get(id);
+        if (object == null)
+        {
+            object = this.writing.get(id);
+        }
+        return object == null ? null : (T)Objects.cloneObject(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCoalesced()
+    {
+        return this.coalesced.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getDepth()
+    {
+        return this.pending.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDropped()
+    {
+        return this.dropped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getFailing()
+    {
+        return this.failing.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailures()
+    {
+        return this.failures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFlushes()
+    {
+        return this.flushes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastFlushMillis()
+    {
+        return this.lastFlushMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaximumFlushMillis()
+    {
+        return this.maximumFlushMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUpdates()
+    {
+        return this.updates.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWritten()
+    {
+        return this.written.get();
+    }
+
+    /**
+     * Registers this buffer's statistics with the platform MBean server
+     * 
+     * @param name
+     *            JMX object name, such as
+     *            "com.locke.library:type=WriteBehindBuffer,name=Counter"
+     */
+    public void register(final String name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        }
+        catch (final JMException e)
+        {
+            throw new IllegalStateException("Unable to register write-behind buffer as " + name,
+                                            e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[WriteBehindBuffer depth=" + getDepth() + ", updates=" + getUpdates()
+               + ", coalesced=" + getCoalesced() + ", written=" + getWritten() + ", failures="
+               + getFailures() + ", failing=" + getFailing() + ", dropped=" + getDropped() + "]";
+    }
+
+    /**
+     * Keeps an object that could not be written to be written again, unless a
+     * newer update has replaced it or its row has been stale too many times
+     * 
+     * @param object
+     *            The object
+     * @param exception
+     *            Why it could not be written
+     */
+    private void failed(final T object, final RuntimeException exception)
+    {
+        final PK id = object.getPrimaryKey();
+        final Integer previous = this.failing.get(id);
+        final int attempts = previous == null ? 1 : previous + 1;
+        if (isStale(exception) && attempts >= MAXIMUM_STALE_ATTEMPTS)
+        {
+            this.failing.remove(id);
+            this.dropped.incrementAndGet();
+            log.error("Dropped buffered update of " + this.dao.type.getSimpleName() + " " + id
+                      + " after " + attempts + " attempts", exception);
+        }
+        else
+        {
+            if (this.pending.putIfAbsent(id, object) == null)
+            {
+                this.failing.put(id, attempts);
+            }
+            log.error("Unable to write buffered update of " + this.dao.type.getSimpleName() + " "
+                      + id, exception);
+        }
+    }
+
+    /**
+     * @param exception
+     *            Exception from a write
+     * @return True if the write failed because the object's row was deleted
+     *         or changed while it was being written
+     */
+    private boolean isStale(final Throwable exception)
+    {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof StaleStateException || cause instanceof OptimisticLockException)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param session
+     *            Session of the write
+     * @param metadata
+     *            Metadata of the versioned class of the objects
+     * @param objects
+     *            Objects to be written
+     * @return Versions of the objects' rows in the database by primary key
+     */
+    private Map<Object, Object> versions(final Session session, final ClassMetadata metadata,
+                                         final List<T> objects)
+    {
+        final String id = metadata.getIdentifierPropertyName();
+        final String version = metadata.getPropertyNames()[metadata.getVersionProperty()];
+        final org.hibernate.Query query =
+                session.createQuery("select target." + id + ", target." + version + " from "
+                                    + metadata.getEntityName() + " as target where target."
+                                    + id + " in (:ids)");
+        final Map<Object, Object> versions = new HashMap<Object, Object>();
+        final int chunkSize = Math.max(1, this.dao.getMaximumInListSize());
+        for (int i = 0; i < objects.size(); i += chunkSize)
+        {
+            final List<PK> ids = new ArrayList<PK>();
+            for (final T object : objects.subList(i, Math.min(i + chunkSize, objects.size())))
+            {
+                ids.add(object.getPrimaryKey());
+            }
+            for (final Object row : query.setParameterList("ids", ids).list())
+            {
+                versions.put(((Object[])row)[0], ((Object[])row)[1]);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Writes copies of objects in one transaction, so that the objects
+     * themselves are never attached to a session and can be written again if
+     * the transaction fails
+     * 
+     * @param objects
+     *            Copies of the objects to write
+     */
+    private void write(final List<T> objects)
+    {
+        final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        final EntityTransaction transaction = entityManager.getTransaction();
+        try
+        {
+            transaction.begin();
+            final Session session = ((HibernateEntityManager)entityManager).getSession();
+            final int batchSize = this.dao.getBatchSize();
+            final ClassMetadata metadata =
+                    session.getSessionFactory().getClassMetadata(this.dao.type);
+            final Map<Object, Object> versions =
+                    metadata.isVersioned() ? versions(session, metadata, objects) : null;
+            int count = 0;
+            for (final T object : objects)
+            {
+                final Object copy = Objects.cloneObject(object);
+                if (versions != null)
+                {
+                    final Object version = versions.get(object.getPrimaryKey());
+                    if (version == null)
+                    {
+                        throw new StaleStateException(this.dao.type.getSimpleName() + " "
+                                                      + object.getPrimaryKey()
+                                                      + " no longer exists");
+                    }
+                    metadata.setPropertyValue(copy, metadata.getPropertyNames()[metadata
+                            .getVersionProperty()], version, EntityMode.POJO);
+                }
+                session.update(copy);
+                if (++count % batchSize == 0)
+                {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            transaction.commit();
+        }
+        finally
+        {
+            if (transaction.isActive())
+            {
+                transaction.rollback();
+            }
+            entityManager.close();
+        }
+        for (final T object : objects)
+        {
+            this.dao.invalidateCommitted(object);
+        }
+        this.written.addAndGet(objects.size());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+/**
+ * JMX management interface for {@link WriteBehindBuffer}
+ * 
+ * @author Jonathan Locke
+ */
+public interface WriteBehindBufferMBean
+{
+    /**
+     * @return Number of updates received that replaced a pending update of the
+     *         same object
+     */
+    long getCoalesced();
+
+    /**
+     * @return Number of objects waiting to be written
+     */
+    int getDepth();
+
+    /**
+     * @return Number of objects dropped because their rows were stale after
+     *         {@link WriteBehindBuffer#MAXIMUM_STALE_ATTEMPTS} attempts
+     */
+    long getDropped();
+
+    /**
+     * @return Number of objects waiting to be written again because their
+     *         last write failed
+     */
+    int getFailing();
+
+    /**
+     * @return Number of times an object could not be written
+     */
+    long getFailures();
+
+    /**
+     * @return Number of flushes that wrote at least one object
+     */
+    long getFlushes();
+
+    /**
+     * @return Time taken by the most recent flush in milliseconds
+     */
+    long getLastFlushMillis();
+
+    /**
+     * @return Longest time taken by a flush in milliseconds
+     */
+    long getMaximumFlushMillis();
+
+    /**
+     * @return Number of updates received
+     */
+    long getUpdates();
+
+    /**
+     * @return Number of objects written
+     */
+    long getWritten();
+}
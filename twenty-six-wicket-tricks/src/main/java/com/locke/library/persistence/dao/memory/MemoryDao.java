@@ -0,0 +1,558 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.memory;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.BatchResult;
+import com.locke.library.persistence.dao.IDao;
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.jpa.Attachable;
+import com.locke.library.persistence.dao.jpa.Ensurable;
+import com.locke.library.persistence.dao.jpa.Queryable;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.utilities.object.Type;
+import com.locke.library.utilities.strings.MethodName;
+
+/**
+ * {@link IDao} that keeps objects in memory, for small sets of hot objects and
+ * for tests that should not start a database. Every {@link Queryable} property
+ * of a supported type has a secondary index, so {@link MemoryQuery} can
+ * evaluate matches and sort orders from indexes rather than by scanning all
+ * objects.
+ * <p>
+ * Objects are stored by reference, as in a persistence context that is never
+ * cleared. An object changed in place must be passed to
+ * {@link #update(IPersistent)} before queries will see its new property
+ * values. Objects must have primary keys when created, unless a subclass
+ * assigns them in {@link #assignPrimaryKey(IPersistent)}.
+ * <p>
+ * As with the JPA DAOs, {@link Attachable} and {@link Ensurable} properties are
+ * resolved by the most recently constructed memory DAO for the property's
+ * class. See {@link MemoryQuery} for how queries differ from JPA queries.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class MemoryDao<T extends IPersistent<PK>, PK extends Serializable> implements IDao<T, PK>
+{
+    /**
+     * Memory DAOs by the class of object they manage
+     */
+    private static final ConcurrentHashMap<Class<?>, MemoryDao<?, ?>> daoForClass =
+            new ConcurrentHashMap<Class<?>, MemoryDao<?, ?>>();
+
+    /**
+     * Indexed properties in a fixed order
+     */
+    private final List<PropertyIndex<PK>> indexes = new ArrayList<PropertyIndex<PK>>();
+
+    /**
+     * Indexed properties by name
+     */
+    private final Map<String, PropertyIndex<PK>> indexForName =
+            new HashMap<String, PropertyIndex<PK>>();
+
+    /**
+     * Values of indexed properties for each object as last indexed, in index
+     * order
+     */
+    private final Map<PK, Object[]> indexedValues = new HashMap<PK, Object[]>();
+
+    /**
+     * Guards indexes, so that queries see each write completely or not at all
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Objects by primary key
+     */
+    private final ConcurrentHashMap<PK, T> objects = new ConcurrentHashMap<PK, T>();
+
+    /**
+     * Class of object managed by this DAO
+     */
+    final Class<T> type;
+
+    /**
+     * @param type
+     *            Type of object managed by this DAO
+     */
+    public MemoryDao(final Class<T> type)
+    {
+        this.type = type;
+        daoForClass.put(type, this);
+        for (final Method method : Type.forClass(type).annotatedMethods(Queryable.class))
+        {
+            if (PropertyIndex.isSupported(method.getReturnType()))
+            {
+                method.setAccessible(true);
+                final PropertyIndex<PK> index =
+                        new PropertyIndex<PK>(new MethodName(method).getName(), method);
+                this.indexes.add(index);
+                this.indexForName.put(index.getName(), index);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void attach(final T object)
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void create(final T object)
+    {
+        if (object.getPrimaryKey() == null)
+        {
+            assignPrimaryKey(object);
+        }
+        final PK id = object.getPrimaryKey();
+        this.lock.writeLock().lock();
+        try
+        {
+            if (this.objects.putIfAbsent(id, object) != null)
+            {
+                throw new IllegalStateException(this.type.getSimpleName() + " " + id
+                                                + " already exists");
+            }
+            index(id, object);
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult createAll(final Iterable<T> objects)
+    {
+        final long start = System.nanoTime();
+        int count = 0;
+        for (final T object : objects)
+        {
+            create(object);
+            count++;
+        }
+        return new BatchResult(count, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete(final T object)
+    {
+        final PK id = object.getPrimaryKey();
+        this.lock.writeLock().lock();
+        try
+        {
+            if (this.objects.remove(id) != null)
+            {
+                unindex(id);
+            }
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult deleteAll(final Iterable<T> objects)
+    {
+        final long start = System.nanoTime();
+        int count = 0;
+        for (final T object : objects)
+        {
+            delete(object);
+            count++;
+        }
+        return new BatchResult(count, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Locks have no effect, since objects are shared rather than copied and
+     * there are no transactions to isolate. Unlike a JPA DAO, a READ lock does
+     * not block other writers and a WRITE lock does not increment the version.
+     * 
+     * @see IDao#lock(IPersistent, LockType)
+     */
+    public void lock(final T object, final LockType lockType)
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <C extends Clause> IQuery<T> query(final C... clauses)
+    {
+        return new MemoryQuery<T, PK>(this, clauses);
+    }
+
+    /**
+     * Not supported, since there is no query language to interpret
+     * 
+     * @see IDao#query(String)
+     */
+    public <C extends Clause> IQuery<T> query(final String query)
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                                                + " does not support query text");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void queryAttach(final T object)
+    {
+        processProperties(object, Attachable.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void queryAttachAll(final Collection<T> objects)
+    {
+        for (final T object : objects)
+        {
+            queryAttach(object);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T queryEnsure(final T object)
+    {
+        // Ensure property values before locking, since that locks other DAOs
+        processProperties(object, Ensurable.class);
+        this.lock.writeLock().lock();
+        try
+        {
+            final T found = query(new Clause[] { new Match<T>(object) }).firstMatch();
+            if (found != null)
+            {
+                return found;
+            }
+            create(object);
+            return object;
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<T> queryEnsureAll(final Collection<T> objects)
+    {
+        final List<T> ensured = new ArrayList<T>(objects.size());
+        for (final T object : objects)
+        {
+            ensured.add(queryEnsure(object));
+        }
+        return ensured;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T read(final PK id)
+    {
+        return this.objects.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<PK, T> read(final Collection<PK> ids)
+    {
+        return read(ids, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<PK, T> read(final Collection<PK> ids, final boolean preserveOrder)
+    {
+        final Map<PK, T> objects =
+                preserveOrder ? new LinkedHashMap<PK, T>() : new HashMap<PK, T>();
+        for (final PK id : ids)
+        {
+            final T object = this.objects.get(id);
+            if (object != null)
+            {
+                objects.put(id, object);
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Has no effect, since objects are shared rather than copied
+     * 
+     * @see IDao#setReadOnlyQueries(boolean)
+     */
+    public void setReadOnlyQueries(final boolean readOnly)
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void update(final T object)
+    {
+        if (object.getPrimaryKey() == null)
+        {
+            create(object);
+            return;
+        }
+        final PK id = object.getPrimaryKey();
+        this.lock.writeLock().lock();
+        try
+        {
+            this.objects.put(id, object);
+            index(id, object);
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BatchResult updateAll(final Iterable<T> objects)
+    {
+        final long start = System.nanoTime();
+        int count = 0;
+        for (final T object : objects)
+        {
+            update(object);
+            count++;
+        }
+        return new BatchResult(count, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Override this method to assign primary keys to objects created without
+     * one
+     * 
+     * @param object
+     *            Object being created with a null primary key
+     */
+    protected void assignPrimaryKey(final T object)
+    {
+        throw new IllegalStateException("Cannot create " + this.type.getSimpleName()
+                                        + " without a primary key");
+    }
+
+    /**
+     * @return All objects, in no particular order
+     */
+    Collection<T> all()
+    {
+        return this.objects.values();
+    }
+
+    /**
+     * @param name
+     *            Name of property
+     * @return Index on the property or null if it is not indexed
+     */
+    PropertyIndex<PK> index(final String name)
+    {
+        return this.indexForName.get(name);
+    }
+
+    /**
+     * @return Lock that queries must hold while using indexes
+     */
+    Lock readLock()
+    {
+        return this.lock.readLock();
+    }
+
+    /**
+     * @return Lock that bulk operations must hold while changing objects
+     */
+    Lock writeLock()
+    {
+        return this.lock.writeLock();
+    }
+
+    /**
+     * Removes an object from this DAO. The write lock must be held.
+     * 
+     * @param id
+     *            Id of object
+     */
+    void remove(final PK id)
+    {
+        if (this.objects.remove(id) != null)
+        {
+            unindex(id);
+        }
+    }
+
+    /**
+     * Indexes an object, replacing any earlier index entries for it. The write
+     * lock must be held.
+     * 
+     * @param id
+     *            Id of object
+     * @param object
+     *            The object
+     */
+    void index(final PK id, final T object)
+    {
+        final Object[] old = this.indexedValues.get(id);
+        final Object[] values = new Object[this.indexes.size()];
+        for (int i = 0; i < values.length; i++)
+        {
+            final PropertyIndex<PK> index = this.indexes.get(i);
+            if (old != null)
+            {
+                index.remove(id, old[i]);
+            }
+            values[i] = index.valueOf(object);
+            index.add(id, values[i]);
+        }
+        this.indexedValues.put(id, values);
+    }
+
+    /**
+     * Replaces the values of annotated persistent properties of an object with
+     * matching objects from the DAOs for their classes. Values of
+     * {@link Ensurable} properties are created if no match is found.
+     * 
+     * @param object
+     *            The object
+     * @param annotation
+     *            {@link Attachable} or {@link Ensurable}
+     */
+    private void processProperties(final T object, final Class<? extends Annotation> annotation)
+    {
+        for (final Method getter : Type.forClass(this.type).annotatedMethods(annotation))
+        {
+            try
+            {
+                final Object value = getter.invoke(object);
+                if (value instanceof IPersistent)
+                {
+                    final MemoryDao<?, ?> dao = daoForClass.get(value.getClass());
+                    if (dao == null)
+                    {
+                        throw new IllegalStateException("No DAO found for " + value.getClass());
+                    }
+                    final Object replacement = replacement(dao, value, annotation);
+                    if (replacement != null && replacement != value)
+                    {
+                        this.type.getMethod(new MethodName(getter).prefixed("set"),
+                                            getter.getReturnType()).invoke(object, replacement);
+                    }
+                }
+            }
+            catch (final NoSuchMethodException e)
+            {
+                throw new IllegalStateException("No setter for " + getter, e);
+            }
+            catch (final IllegalAccessException e)
+            {
+                throw new IllegalStateException("Unable to access " + getter, e);
+            }
+            catch (final InvocationTargetException e)
+            {
+                throw new IllegalStateException("Unable to process " + getter, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @param dao
+     *            The DAO for the class of the value
+     * @param value
+     *            Value of an annotated property
+     * @param annotation
+     *            {@link Attachable} or {@link Ensurable}
+     * @return The matching object from the DAO, which is created for
+     *         {@link Ensurable} values if there is none, or null if an
+     *         {@link Attachable} value has no match
+     */
+    private static <V extends IPersistent<K>, K extends Serializable> V replacement(
+            final MemoryDao<V, K> dao, final Object value,
+            final Class<? extends Annotation> annotation)
+    {
+        final V object = dao.type.cast(value);
+        if (annotation == Ensurable.class)
+        {
+            return dao.queryEnsure(object);
+        }
+        return dao.query(new Clause[] { new Match<V>(object) }).firstMatch();
+    }
+
+    /**
+     * Removes an object's index entries. The write lock must be held.
+     * 
+     * @param id
+     *            Id of object
+     */
+    private void unindex(final PK id)
+    {
+        final Object[] old = this.indexedValues.remove(id);
+        if (old != null)
+        {
+            for (int i = 0; i < old.length; i++)
+            {
+                this.indexes.get(i).remove(id, old[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,1074 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.memory;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.wicket.util.lang.PropertyResolver;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.jpa.Queryable;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.BatchFetch;
+import com.locke.library.persistence.dao.query.clauses.Count;
+import com.locke.library.persistence.dao.query.clauses.Descending;
+import com.locke.library.persistence.dao.query.clauses.Fetch;
+import com.locke.library.persistence.dao.query.clauses.Filter;
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.persistence.dao.query.clauses.MatchAny;
+import com.locke.library.persistence.dao.query.clauses.Project;
+import com.locke.library.persistence.dao.query.clauses.Range;
+import com.locke.library.persistence.dao.query.clauses.Set;
+import com.locke.library.persistence.dao.query.clauses.SortOrder;
+import com.locke.library.utilities.object.Type;
+import com.locke.library.utilities.strings.MethodName;
+
+/**
+ * Query over the objects of a {@link MemoryDao}. Matches on indexed properties
+ * are resolved by intersecting index entries, smallest first, and only nested
+ * properties are compared object by object. Results are ordered as the JPA
+ * DAOs order them, so the two can be swapped for one another.
+ * <p>
+ * Supports {@link Match}, {@link MatchAny}, {@link Filter}, {@link Ascending},
+ * {@link Descending}, {@link Range}, {@link Count} and {@link Project} clauses.
+ * Filter predicates are evaluated object by object, after any matches.
+ * {@link Fetch} and {@link BatchFetch} clauses have no effect, since every
+ * object is already loaded. Other clauses are not supported.
+ * <p>
+ * Pages and cursors run the query again for each page, as the JPA DAOs do, so
+ * they see writes made between pages. Known differences from a JPA DAO over a
+ * database are:
+ * <ul>
+ * <li>Values are sorted by their Java {@link Comparable} order, so strings sort
+ * by UTF-16 code unit rather than by any database collation</li>
+ * <li>Pages honor any {@link Range}, where JPA pages ignore it</li>
+ * <li>A {@link Count} clause is allowed in counts. Queries for objects fail on
+ * it with an {@link IllegalStateException} rather than failing to cast the
+ * count.</li>
+ * </ul>
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+final class MemoryQuery<T extends IPersistent<PK>, PK extends Serializable> implements IQuery<T>
+{
+    private static final int DEFAULT_CURSOR_FETCH_SIZE = 100;
+
+    private Ascending ascending;
+    private Count count;
+    private final MemoryDao<T, PK> dao;
+    private Descending descending;
+    private final List<Filter> filters = new ArrayList<Filter>();
+    private Match<T> match;
+    private MatchAny<T> matchAny;
+    private Project project;
+    private Range range;
+
+    /**
+     * @param dao
+     *            The DAO to query
+     * @param clauses
+     *            Clauses of the query
+     */
+    @SuppressWarnings("unchecked")
+    MemoryQuery(final MemoryDao<T, PK> dao, final Clause[] clauses)
+    {
+        this.dao = dao;
+        for (final Clause clause : clauses)
+        {
+            if (clause instanceof Match)
+            {
+                this.match = (Match<T>)clause;
+            }
+            else if (clause instanceof MatchAny)
+            {
+                this.matchAny = (MatchAny<T>)clause;
+            }
+            else if (clause instanceof Ascending)
+            {
+                this.ascending = (Ascending)clause;
+            }
+            else if (clause instanceof Descending)
+            {
+                this.descending = (Descending)clause;
+            }
+            else if (clause instanceof Filter)
+            {
+                this.filters.add((Filter)clause);
+            }
+            else if (clause instanceof Range)
+            {
+                this.range = (Range)clause;
+            }
+            else if (clause instanceof Project)
+            {
+                this.project = (Project)clause;
+            }
+            else if (clause instanceof Count)
+            {
+                this.count = (Count)clause;
+            }
+            else if (!(clause instanceof Fetch) && !(clause instanceof BatchFetch))
+            {
+                throw new UnsupportedOperationException("In-memory queries do not support "
+                                                        + clause.getClass().getSimpleName()
+                                                        + " clauses");
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int countMatches()
+    {
+        this.dao.readLock().lock();
+        try
+        {
+            return matchingIds().size();
+        }
+        finally
+        {
+            this.dao.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int countMatches(final int maximum)
+    {
+        this.dao.readLock().lock();
+        try
+        {
+            final Collection<PK> ids = matchingIdsOrNull(maximum);
+            return Math.min(ids == null ? this.dao.all().size() : ids.size(), maximum);
+        }
+        finally
+        {
+            this.dao.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ICursor<T> cursor()
+    {
+        return cursor(DEFAULT_CURSOR_FETCH_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ICursor<T> cursor(final int fetchSize)
+    {
+        final Iterator<T> iterator = page(fetchSize).iterator();
+        return new ICursor<T>()
+        {
+            private boolean closed;
+
+            public void close()
+            {
+                this.closed = true;
+            }
+
+            public boolean hasNext()
+            {
+                return !this.closed && iterator.hasNext();
+            }
+
+            public Iterator<T> iterator()
+            {
+                return this;
+            }
+
+            public T next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return iterator.next();
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete()
+    {
+        this.dao.writeLock().lock();
+        try
+        {
+            for (final PK id : new ArrayList<PK>(matchingIds()))
+            {
+                this.dao.remove(id);
+            }
+        }
+        finally
+        {
+            this.dao.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T firstMatch()
+    {
+        final List<T> matches = list();
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> matches()
+    {
+        return list();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> matches(final int column)
+    {
+        checkColumn(column);
+        return list();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> page(final int pageSize)
+    {
+        return page(pageSize, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> page(final int pageSize, final int column)
+    {
+        checkColumn(column);
+        checkObjects();
+        checkPageSize(pageSize);
+        return new Iterable<T>()
+        {
+            public Iterator<T> iterator()
+            {
+                return new PageIterator(pageSize)
+                {
+                    @Override
+                    protected List<T> fetch(final int offset, final T last)
+                    {
+                        return fetchPage(offset, pageSize);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterable<T> page(final int pageSize, final SortOrder key)
+    {
+        if (this.ascending != null || this.descending != null || this.range != null)
+        {
+            throw new IllegalArgumentException("Keyset paging cannot be combined with "
+                                               + "SortOrder or Range clauses");
+        }
+        if (key.getFields().length == 0)
+        {
+            throw new IllegalArgumentException("Keyset paging requires at least one sort field");
+        }
+        checkObjects();
+        checkPageSize(pageSize);
+        return new Iterable<T>()
+        {
+            public Iterator<T> iterator()
+            {
+                return new PageIterator(pageSize)
+                {
+                    @Override
+                    protected List<T> fetch(final int offset, final T last)
+                    {
+                        return fetchPage(key, last, pageSize);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Has no effect, since objects are never detached
+     * 
+     * @see IQuery#pageBoundary(PageBoundary)
+     */
+    public IQuery<T> pageBoundary(final PageBoundary boundary)
+    {
+        return this;
+    }
+
+    /**
+     * Has no effect, since objects are shared rather than copied
+     * 
+     * @see IQuery#readOnly(boolean)
+     */
+    public IQuery<T> readOnly(final boolean readOnly)
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Object[]> rows()
+    {
+        if (this.project == null)
+        {
+            throw new UnsupportedOperationException("Rows require a Project clause");
+        }
+        final String[] properties = this.project.getProperties();
+        final List<T> matches = list();
+        final List<Object[]> rows = new ArrayList<Object[]>(matches.size());
+        for (final T object : matches)
+        {
+            final Object[] row = new Object[properties.length];
+            for (int i = 0; i < properties.length; i++)
+            {
+                row[i] = PropertyResolver.getValue(properties[i], object);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> rows(final Class<R> type)
+    {
+        final List<Object[]> rows = rows();
+        final int columns = this.project.getProperties().length;
+        Constructor<R> constructor = null;
+        for (final Constructor<?> candidate : type.getConstructors())
+        {
+            if (candidate.getParameterTypes().length == columns)
+            {
+                constructor = (Constructor<R>)candidate;
+                break;
+            }
+        }
+        if (constructor == null)
+        {
+            throw new IllegalArgumentException(type + " has no public constructor taking "
+                                               + columns + " projected properties");
+        }
+        final List<R> objects = new ArrayList<R>(rows.size());
+        try
+        {
+            for (final Object[] row : rows)
+            {
+                objects.add(constructor.newInstance(row));
+            }
+        }
+        catch (final InstantiationException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e);
+        }
+        catch (final IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e);
+        }
+        catch (final InvocationTargetException e)
+        {
+            throw new IllegalStateException("Unable to construct " + type, e.getCause());
+        }
+        return objects;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int update(final Set... assignments)
+    {
+        if (assignments.length == 0)
+        {
+            throw new IllegalArgumentException("Bulk update must set at least one field");
+        }
+        final Method[] setters = new Method[assignments.length];
+        for (int i = 0; i < assignments.length; i++)
+        {
+            setters[i] = setter(assignments[i].getField());
+        }
+        this.dao.writeLock().lock();
+        try
+        {
+            final List<T> matches = objects(false);
+            for (final T object : matches)
+            {
+                for (int i = 0; i < assignments.length; i++)
+                {
+                    setters[i].invoke(object, assignments[i].getValue());
+                }
+                this.dao.index(object.getPrimaryKey(), object);
+            }
+            return matches.size();
+        }
+        catch (final IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to update " + this.dao.type, e);
+        }
+        catch (final InvocationTargetException e)
+        {
+            throw new IllegalStateException("Unable to update " + this.dao.type, e.getCause());
+        }
+        finally
+        {
+            this.dao.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param column
+     *            Column requested
+     */
+    private void checkColumn(final int column)
+    {
+        if (column != 0)
+        {
+            throw new IllegalArgumentException("In-memory queries have only column 0");
+        }
+    }
+
+    /**
+     * Checks that this query selects objects rather than a count
+     */
+    private void checkObjects()
+    {
+        if (this.count != null)
+        {
+            throw new IllegalStateException("Queries with a Count clause select a count rather "
+                                            + "than objects. Use countMatches() instead.");
+        }
+    }
+
+    /**
+     * @param pageSize
+     *            Number of objects per page
+     */
+    private void checkPageSize(final int pageSize)
+    {
+        if (pageSize < 1)
+        {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+    }
+
+    /**
+     * @param fields
+     *            Property paths to compare, in order
+     * @param a
+     *            First object
+     * @param b
+     *            Second object
+     * @return Comparison of the objects' values for the given properties
+     */
+    private int compare(final String[] fields, final Object a, final Object b)
+    {
+        for (final String field : fields)
+        {
+            final int difference =
+                    PropertyIndex.VALUE_ORDER.compare(PropertyResolver.getValue(field, a),
+                                                      PropertyResolver.getValue(field, b));
+            if (difference != 0)
+            {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param object
+     *            An example object
+     * @return Values of all populated @Queryable properties of the object, by
+     *         property path
+     */
+    private Map<String, Object> constraints(final Object object)
+    {
+        final Map<String, Object> constraints = new LinkedHashMap<String, Object>();
+        if (!addConstraints(null, object, constraints))
+        {
+            throw new IllegalStateException("No @Queryable properties found in match against "
+                                            + object.getClass());
+        }
+        if (constraints.isEmpty())
+        {
+            throw new IllegalStateException("All @Queryable properties found in match against "
+                                            + object.getClass() + " were null");
+        }
+        return constraints;
+    }
+
+    /**
+     * @param baseName
+     *            Path of the object or null for the example object
+     * @param object
+     *            The object
+     * @param constraints
+     *            Map to add values of populated @Queryable properties to
+     * @return True if the object has any @Queryable properties
+     */
+    private boolean addConstraints(final String baseName, final Object object,
+                                   final Map<String, Object> constraints)
+    {
+        boolean queryablePropertyFound = false;
+        for (final Method method : Type.forClass(object.getClass())
+                .annotatedMethods(Queryable.class))
+        {
+            queryablePropertyFound = true;
+            method.setAccessible(true);
+            final Object value;
+            try
+            {
+                value = method.invoke(object);
+            }
+            catch (final IllegalAccessException e)
+            {
+                throw new IllegalStateException("Unable to read " + method, e);
+            }
+            catch (final InvocationTargetException e)
+            {
+                throw new IllegalStateException("Unable to read " + method, e.getCause());
+            }
+            if (value != null)
+            {
+                String name = new MethodName(method).getName();
+                if (baseName != null)
+                {
+                    name = baseName + "." + name;
+                }
+                if (PropertyIndex.isSupported(method.getReturnType()))
+                {
+                    constraints.put(name, value);
+                }
+                else
+                {
+                    addConstraints(name, value, constraints);
+                }
+            }
+        }
+        return queryablePropertyFound;
+    }
+
+    /**
+     * @return Matching objects, sorted and limited to any range
+     */
+    private List<T> list()
+    {
+        checkObjects();
+        List<T> matches;
+        this.dao.readLock().lock();
+        try
+        {
+            matches = objects(true);
+        }
+        finally
+        {
+            this.dao.readLock().unlock();
+        }
+        if (this.range != null)
+        {
+            final int first = (int)Math.min(this.range.getFirst(), matches.size());
+            final int last = (int)Math.min(first + this.range.getCount(), matches.size());
+            matches = matches.subList(first, last);
+        }
+        return matches;
+    }
+
+    /**
+     * @param example
+     *            An example object
+     * @return Ids of objects matching the example. The read lock must be held.
+     */
+    private Collection<PK> matchingIds(final Object example)
+    {
+        // Find index entries for indexed properties, smallest first
+        final List<Collection<PK>> hits = new ArrayList<Collection<PK>>();
+        final Map<String, Object> unindexed = new LinkedHashMap<String, Object>();
+        for (final Map.Entry<String, Object> entry : constraints(example).entrySet())
+        {
+            final PropertyIndex<PK> index = this.dao.index(entry.getKey());
+            if (index != null)
+            {
+                hits.add(index.get(entry.getValue()));
+            }
+            else
+            {
+                unindexed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Collections.sort(hits, new Comparator<Collection<PK>>()
+        {
+            public int compare(final Collection<PK> a, final Collection<PK> b)
+            {
+                return a.size() - b.size();
+            }
+        });
+
+        // Intersect index entries
+        final Collection<PK> ids;
+        if (hits.isEmpty())
+        {
+            ids = new LinkedHashSet<PK>();
+            for (final T object : this.dao.all())
+            {
+                ids.add(object.getPrimaryKey());
+            }
+        }
+        else
+        {
+            ids = new LinkedHashSet<PK>(hits.get(0));
+            for (int i = 1; i < hits.size() && !ids.isEmpty(); i++)
+            {
+                ids.retainAll(hits.get(i));
+            }
+        }
+
+        // Compare values of unindexed properties object by object
+        if (!unindexed.isEmpty())
+        {
+            for (final Iterator<PK> iterator = ids.iterator(); iterator.hasNext();)
+            {
+                final T object = this.dao.read(iterator.next());
+                for (final Map.Entry<String, Object> entry : unindexed.entrySet())
+                {
+                    if (!entry.getValue().equals(PropertyResolver.getValue(entry.getKey(), object)))
+                    {
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return Ids of objects matching the match, match any and filter clauses,
+     *         in no particular order, or null if all objects match. The read
+     *         lock must be held.
+     */
+    private Collection<PK> matchingIdsOrNull()
+    {
+        return matchingIdsOrNull(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maximum
+     *            Number of objects after which to stop evaluating filters
+     * @return Ids of objects matching the match, match any and filter clauses,
+     *         in no particular order, or null if all objects match. If there
+     *         are filter clauses, no more than the maximum number of ids is
+     *         returned. The read lock must be held.
+     */
+    private Collection<PK> matchingIdsOrNull(final int maximum)
+    {
+        Collection<PK> ids = null;
+        if (this.match != null)
+        {
+            if (!this.match.getObject().getClass().isAssignableFrom(this.dao.type))
+            {
+                throw new IllegalArgumentException("Invalid match clause: " + this.match);
+            }
+            ids = matchingIds(this.match.getObject());
+        }
+        if (this.matchAny != null)
+        {
+            final Collection<PK> any = new LinkedHashSet<PK>();
+            for (final T object : this.matchAny.getObjects())
+            {
+                if (!object.getClass().isAssignableFrom(this.dao.type))
+                {
+                    throw new IllegalArgumentException("Invalid match any clause: "
+                                                       + this.matchAny);
+                }
+                any.addAll(matchingIds(object));
+            }
+            if (ids == null)
+            {
+                ids = any;
+            }
+            else
+            {
+                ids.retainAll(any);
+            }
+        }
+        if (!this.filters.isEmpty())
+        {
+            final Collection<PK> filtered = new LinkedHashSet<PK>();
+            for (final T object : ids == null ? this.dao.all() : objects(ids))
+            {
+                if (filtered.size() == maximum)
+                {
+                    break;
+                }
+                if (matchesFilters(object))
+                {
+                    filtered.add(object.getPrimaryKey());
+                }
+            }
+            ids = filtered;
+        }
+        return ids;
+    }
+
+    /**
+     * @return Ids of objects matching the match, match any and filter
+     *         clauses. The read lock must be held.
+     */
+    private Collection<PK> matchingIds()
+    {
+        final Collection<PK> ids = matchingIdsOrNull();
+        if (ids == null)
+        {
+            final Collection<PK> all = new ArrayList<PK>();
+            for (final T object : this.dao.all())
+            {
+                all.add(object.getPrimaryKey());
+            }
+            return all;
+        }
+        return ids;
+    }
+
+    /**
+     * @param object
+     *            An object
+     * @return True if the predicates of all filter clauses hold for the
+     *         object
+     */
+    private boolean matchesFilters(final T object)
+    {
+        for (final Filter filter : this.filters)
+        {
+            if (!filter.getPredicate().evaluate(object))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param offset
+     *            Index of the first object on the page, within any range
+     * @param pageSize
+     *            Number of objects per page
+     * @return The page of matching objects
+     */
+    private List<T> fetchPage(final int offset, final int pageSize)
+    {
+        final List<T> matches;
+        this.dao.readLock().lock();
+        try
+        {
+            matches = objects(true);
+        }
+        finally
+        {
+            this.dao.readLock().unlock();
+        }
+        long first = offset;
+        long last = (long)offset + pageSize;
+        if (this.range != null)
+        {
+            first += this.range.getFirst();
+            last = this.range.getFirst() + Math.min(last, this.range.getCount());
+        }
+        first = Math.min(first, matches.size());
+        last = Math.max(first, Math.min(last, matches.size()));
+        return new ArrayList<T>(matches.subList((int)first, (int)last));
+    }
+
+    /**
+     * @param key
+     *            Sort key to page by
+     * @param last
+     *            Last object on the previous page or null for the first page
+     * @param pageSize
+     *            Number of objects per page
+     * @return The matching objects that follow the last object in key order,
+     *         up to the page size
+     */
+    private List<T> fetchPage(final SortOrder key, final T last, final int pageSize)
+    {
+        final String[] fields = key.getFields();
+        final boolean descending = key instanceof Descending;
+        final Comparator<T> order = new Comparator<T>()
+        {
+            public int compare(final T a, final T b)
+            {
+                int difference = MemoryQuery.this.compare(fields, a, b);
+                if (difference == 0)
+                {
+                    difference =
+                            PropertyIndex.VALUE_ORDER.compare(a.getPrimaryKey(), b.getPrimaryKey());
+                }
+                return descending ? -difference : difference;
+            }
+        };
+        final List<T> following = new ArrayList<T>();
+        this.dao.readLock().lock();
+        try
+        {
+            for (final T object : objects(false))
+            {
+                for (final String field : fields)
+                {
+                    if (PropertyResolver.getValue(field, object) == null)
+                    {
+                        throw new IllegalStateException("Keyset paging requires non-null values "
+                                                        + "for " + field + " but found null in "
+                                                        + object);
+                    }
+                }
+                if (last == null || order.compare(object, last) > 0)
+                {
+                    following.add(object);
+                }
+            }
+        }
+        finally
+        {
+            this.dao.readLock().unlock();
+        }
+        Collections.sort(following, order);
+        return new ArrayList<T>(following.subList(0, Math.min(pageSize, following.size())));
+    }
+
+    /**
+     * @param sort
+     *            True to sort by any sort order clauses
+     * @return Matching objects, without applying any range. The read lock must
+     *         be held.
+     */
+    private List<T> objects(final boolean sort)
+    {
+        final Collection<PK> ids = matchingIdsOrNull();
+
+        // Walk the index in order if all objects are sorted on one property
+        final SortOrder order = this.ascending == null ? this.descending
+                : (this.descending == null ? this.ascending : null);
+        if (sort && ids == null && order != null && order.getFields().length == 1)
+        {
+            final PropertyIndex<PK> index = this.dao.index(order.getFields()[0]);
+            if (index != null)
+            {
+                return objects(index.ids(order instanceof Descending));
+            }
+        }
+
+        final List<T> objects =
+                ids == null ? new ArrayList<T>(this.dao.all()) : objects(ids);
+        if (sort && (this.ascending != null || this.descending != null))
+        {
+            Collections.sort(objects, new Comparator<T>()
+            {
+                public int compare(final T a, final T b)
+                {
+                    return MemoryQuery.this.compare(a, b);
+                }
+            });
+        }
+        return objects;
+    }
+
+    /**
+     * @param ids
+     *            Object ids
+     * @return The objects with the given ids, in order
+     */
+    private List<T> objects(final Collection<PK> ids)
+    {
+        final List<T> objects = new ArrayList<T>(ids.size());
+        for (final PK id : ids)
+        {
+            final T object = this.dao.read(id);
+            if (object != null)
+            {
+                objects.add(object);
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Compares objects in the order of the sort clauses. As in the JPA query
+     * text, the fields of a descending clause before its last field are sorted
+     * in ascending order.
+     * 
+     * @param a
+     *            First object
+     * @param b
+     *            Second object
+     * @return Comparison of the objects
+     */
+    private int compare(final T a, final T b)
+    {
+        if (this.ascending != null)
+        {
+            final int difference = compare(this.ascending.getFields(), a, b);
+            if (difference != 0)
+            {
+                return difference;
+            }
+        }
+        if (this.descending != null)
+        {
+            final String[] fields = this.descending.getFields();
+            for (int i = 0; i < fields.length; i++)
+            {
+                final int difference = compare(new String[] { fields[i] }, a, b);
+                if (difference != 0)
+                {
+                    return i == fields.length - 1 ? -difference : difference;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param field
+     *            Name of a property
+     * @return Accessible setter for the property
+     */
+    private Method setter(final String field)
+    {
+        final String name = "set" + field.substring(0, 1).toUpperCase() + field.substring(1);
+        for (final Method method : this.dao.type.getMethods())
+        {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1)
+            {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException(this.dao.type.getSimpleName() + " has no setter for "
+                                           + field);
+    }
+
+    /**
+     * Iterates through matching objects a page at a time, fetching each page
+     * when the previous one is used up. A page shorter than the page size is
+     * the last one.
+     * 
+     * @author Jonathan Locke
+     */
+    private abstract class PageIterator implements Iterator<T>
+    {
+        private boolean done;
+        private int fetched;
+        private T last;
+        private Iterator<T> page = Collections.<T> emptyList().iterator();
+        private final int pageSize;
+
+        /**
+         * @param pageSize
+         *            Number of objects per page
+         */
+        PageIterator(final int pageSize)
+        {
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext()
+        {
+            if (!this.page.hasNext() && !this.done)
+            {
+                final List<T> next = fetch(this.fetched, this.last);
+                this.fetched += next.size();
+                this.done = next.size() < this.pageSize;
+                this.page = next.iterator();
+            }
+            return this.page.hasNext();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            this.last = this.page.next();
+            return this.last;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @param offset
+         *            Number of objects on earlier pages
+         * @param last
+         *            Last object on the previous page or null for the first
+         *            page
+         * @return The next page
+         */
+        protected abstract List<T> fetch(int offset, T last);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.memory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Secondary index on one property of the objects in a {@link MemoryDao}. Ids
+ * are kept both in a hash map, for matching values, and in a sorted map, for
+ * walking objects in property order. Not thread-safe; the DAO guards its
+ * indexes with a lock.
+ * 
+ * @author Jonathan Locke
+ * @param <PK>
+ */
+final class PropertyIndex<PK>
+{
+    /**
+     * Orders property values as the database does, with nulls first
+     */
+    static final Comparator<Object> VALUE_ORDER = new Comparator<Object>()
+    {
+        @SuppressWarnings("unchecked")
+        public int compare(final Object a, final Object b)
+        {
+            if (a == null || b == null)
+            {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return ((Comparable<Object>)a).compareTo(b);
+        }
+    };
+
+    /**
+     * @param type
+     *            Type of property
+     * @return True if properties of the given type can be matched and indexed
+     */
+    static boolean isSupported(final Class<?> type)
+    {
+        return type.isPrimitive() || Number.class.isAssignableFrom(type)
+               || String.class.isAssignableFrom(type) || Character.class.isAssignableFrom(type)
+               || Boolean.class.isAssignableFrom(type);
+    }
+
+    private final Map<Object, Set<PK>> byValue = new HashMap<Object, Set<PK>>();
+    private final Method getter;
+    private final String name;
+    private final TreeMap<Object, Set<PK>> sorted = new TreeMap<Object, Set<PK>>(VALUE_ORDER);
+
+    /**
+     * @param name
+     *            Name of the property
+     * @param getter
+     *            Accessible getter for the property
+     */
+    PropertyIndex(final String name, final Method getter)
+    {
+        this.name = name;
+        this.getter = getter;
+    }
+
+    /**
+     * @param id
+     *            Id of object
+     * @param value
+     *            Value of the property for the object
+     */
+    void add(final PK id, final Object value)
+    {
+        Set<PK> ids = this.byValue.get(value);
+        if (ids == null)
+        {
+            ids = new LinkedHashSet<PK>();
+            this.byValue.put(value, ids);
+            this.sorted.put(value, ids);
+        }
+        ids.add(id);
+    }
+
+    /**
+     * @param value
+     *            A property value
+     * @return Ids of objects with the given value
+     */
+    Set<PK> get(final Object value)
+    {
+        final Set<PK> ids = this.byValue.get(value);
+        if (ids == null)
+        {
+            return Collections.emptySet();
+        }
+        return ids;
+    }
+
+    /**
+     * @return Name of the property
+     */
+    String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @param descending
+     *            True to list ids in descending order of value
+     * @return Ids of all objects, in order of their values for this property
+     */
+    List<PK> ids(final boolean descending)
+    {
+        final List<Set<PK>> groups = new ArrayList<Set<PK>>(this.sorted.values());
+        if (descending)
+        {
+            Collections.reverse(groups);
+        }
+        final List<PK> ids = new ArrayList<PK>();
+        for (final Set<PK> equal : groups)
+        {
+            ids.addAll(equal);
+        }
+        return ids;
+    }
+
+    /**
+     * @param id
+     *            Id of object
+     * @param value
+     *            Value of the property when the object was added
+     */
+    void remove(final PK id, final Object value)
+    {
+        final Set<PK> ids = this.byValue.get(value);
+        if (ids != null)
+        {
+            ids.remove(id);
+            if (ids.isEmpty())
+            {
+                this.byValue.remove(value);
+                this.sorted.remove(value);
+            }
+        }
+    }
+
+    /**
+     * @param object
+     *            An object
+     * @return The value of this property for the object
+     */
+    Object valueOf(final Object object)
+    {
+        try
+        {
+            return this.getter.invoke(object);
+        }
+        catch (final IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to read " + this.name, e);
+        }
+        catch (final InvocationTargetException e)
+        {
+            throw new IllegalStateException("Unable to read " + this.name, e.getCause());
+        }
+    }
+}
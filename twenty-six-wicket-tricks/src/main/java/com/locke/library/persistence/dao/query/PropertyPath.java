@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query;
+
+import java.util.regex.Pattern;
+
+/**
+ * Check for property paths named by clauses. Paths are put into query text
+ * rather than bound as parameters, so they are limited to dotted identifiers.
+ * 
+ * @author Jonathan Locke
+ */
+public final class PropertyPath
+{
+    private static final Pattern PATH = Pattern.compile("[A-Za-z_]\\w*(\\.[A-Za-z_]\\w*)*");
+
+    /**
+     * @param path
+     *            A property path
+     * @return The path
+     * @throws IllegalArgumentException
+     *             If the path is null or not a dotted identifier
+     */
+    public static String check(final String path)
+    {
+        if (path == null || !PATH.matcher(path).matches())
+        {
+            throw new IllegalArgumentException("Invalid property path: " + path);
+        }
+        return path;
+    }
+
+    private PropertyPath()
+    {
+    }
+}
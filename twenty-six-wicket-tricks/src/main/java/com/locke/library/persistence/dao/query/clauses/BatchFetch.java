@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.clauses;
+
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.PropertyPath;
+
+/**
+ * Clause for initializing an association of every object on a page of results
+ * with one additional query per page, rather than one query per object as each
+ * lazy association is first used. Unlike {@link Fetch}, the association is not
+ * joined into the query itself, so paging over collection associations still
+ * happens in the database.
+ * 
+ * @author Jonathan Locke
+ */
+public class BatchFetch extends Clause
+{
+    /**
+     * The association to initialize
+     */
+    private final String field;
+
+    /**
+     * @param field
+     *            The association to initialize
+     */
+    public BatchFetch(final String field)
+    {
+        this.field = PropertyPath.check(field);
+    }
+
+    /**
+     * @return The association to initialize
+     */
+    public String getField()
+    {
+        return this.field;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[BatchFetch " + this.field + "]";
+    }
+}
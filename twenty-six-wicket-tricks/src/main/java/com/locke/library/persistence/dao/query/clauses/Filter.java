@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.clauses;
+
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.predicates.Predicate;
+
+/**
+ * Clause restricting a query to objects for which a typed {@link Predicate}
+ * holds. Unlike {@link Where}, the values compared are passed as bind
+ * parameters, so queries differing only in those values share one compiled
+ * query.
+ * 
+ * @author Jonathan Locke
+ */
+public class Filter extends Clause
+{
+    private static final long serialVersionUID = -5227690542402419266L;
+
+    /**
+     * The predicate
+     */
+    private final Predicate predicate;
+
+    /**
+     * @param predicate
+     *            The predicate objects must satisfy
+     */
+    public Filter(final Predicate predicate)
+    {
+        if (predicate == null)
+        {
+            throw new IllegalArgumentException("Filter requires a predicate");
+        }
+        this.predicate = predicate;
+    }
+
+    /**
+     * @return The predicate objects must satisfy
+     */
+    public Predicate getPredicate()
+    {
+        return this.predicate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[Filter " + this.predicate + "]";
+    }
+}
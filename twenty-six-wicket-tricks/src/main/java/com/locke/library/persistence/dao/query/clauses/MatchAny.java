@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.clauses;
+
+import java.util.Collection;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.query.Clause;
+
+/**
+ * Clause for query-by-example matching of any one of several example objects
+ * 
+ * @author Jonathan Locke
+ */
+public class MatchAny<T extends IPersistent<?>> extends Clause
+{
+    /**
+     * The example objects
+     */
+    private final Collection<T> objects;
+
+    /**
+     * @param objects
+     *            The objects with properties that may match
+     */
+    public MatchAny(final Collection<T> objects)
+    {
+        this.objects = objects;
+    }
+
+    /**
+     * @return The objects with properties that may match
+     */
+    public Collection<T> getObjects()
+    {
+        return this.objects;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[MatchAny " + this.objects.size() + " objects]";
+    }
+}
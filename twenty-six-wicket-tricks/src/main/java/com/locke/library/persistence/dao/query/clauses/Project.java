@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.clauses;
+
+import java.util.Arrays;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.PropertyPath;
+
+/**
+ * Clause selecting the properties returned by {@link IQuery#rows()} and
+ * {@link IQuery#rows(Class)}. Only the named properties are selected, so no
+ * objects are loaded or tracked by the persistence context. The clause is
+ * ignored by queries that return whole objects.
+ * 
+ * @author Jonathan Locke
+ */
+public class Project extends Clause
+{
+    /**
+     * The properties to select
+     */
+    private final String[] properties;
+
+    /**
+     * @param properties
+     *            Property paths to select, in column order
+     */
+    public Project(final String... properties)
+    {
+        if (properties.length == 0)
+        {
+            throw new IllegalArgumentException("Must project at least one property");
+        }
+        for (final String property : properties)
+        {
+            PropertyPath.check(property);
+        }
+        this.properties = properties.clone();
+    }
+
+    /**
+     * @return Property paths to select, in column order
+     */
+    public String[] getProperties()
+    {
+        return this.properties;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[Project " + Arrays.asList(this.properties) + "]";
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.clauses;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.PropertyPath;
+
+/**
+ * Clause assigning a value to a field in a bulk update
+ * 
+ * @see IQuery#update(Set...)
+ * @author Jonathan Locke
+ */
+public class Set extends Clause
+{
+    /**
+     * The field to assign
+     */
+    private final String field;
+
+    /**
+     * The value to assign
+     */
+    private final Object value;
+
+    /**
+     * @param field
+     *            The field to assign
+     * @param value
+     *            The value to assign, which may be null
+     */
+    public Set(final String field, final Object value)
+    {
+        this.field = PropertyPath.check(field);
+        this.value = value;
+    }
+
+    /**
+     * @return The field to assign
+     */
+    public String getField()
+    {
+        return this.field;
+    }
+
+    /**
+     * @return The value to assign
+     */
+    public Object getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[Set " + this.field + " = " + this.value + "]";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.List;
+
+/**
+ * Predicate holding when all of several other predicates hold
+ * 
+ * @author Jonathan Locke
+ */
+final class And extends Junction
+{
+    private static final long serialVersionUID = 6622810949152370571L;
+
+    /**
+     * @param predicates
+     *            The predicates
+     */
+    And(final List<Predicate> predicates)
+    {
+        super("and", predicates);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        return test(object, false);
+    }
+}
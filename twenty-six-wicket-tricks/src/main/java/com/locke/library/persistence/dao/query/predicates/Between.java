@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when a property lies between two values, inclusive
+ * 
+ * @author Jonathan Locke
+ */
+final class Between extends PropertyPredicate
+{
+    private static final long serialVersionUID = 2898163522645104378L;
+
+    private final Object high;
+    private final Object low;
+
+    /**
+     * @param path
+     *            Property path
+     * @param low
+     *            Lowest value
+     * @param high
+     *            Highest value
+     */
+    Between(final String path, final Object low, final Object high)
+    {
+        super(path);
+        this.low = checkNotNull(low, "between");
+        this.high = checkNotNull(high, "between");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        final String low = bind(values, this.low);
+        text.append(property(alias) + " between " + low + " and " + bind(values, this.high));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        final Object actual = valueOf(object);
+        if (actual == null)
+        {
+            return null;
+        }
+        return compare(actual, this.low) >= 0 && compare(actual, this.high) <= 0;
+    }
+}
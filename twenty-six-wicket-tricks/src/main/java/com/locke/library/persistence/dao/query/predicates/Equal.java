@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when a property equals a value
+ * 
+ * @author Jonathan Locke
+ */
+final class Equal extends PropertyPredicate
+{
+    private static final long serialVersionUID = -2245126170361850938L;
+
+    private final Object value;
+
+    /**
+     * @param path
+     *            Property path
+     * @param value
+     *            The value
+     */
+    Equal(final String path, final Object value)
+    {
+        super(path);
+        this.value = checkNotNull(value, "eq");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        text.append(property(alias) + " = " + bind(values, this.value));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        final Object actual = valueOf(object);
+        if (actual == null)
+        {
+            return null;
+        }
+        return equal(actual, this.value);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when a property equals any one of a list of values
+ * 
+ * @author Jonathan Locke
+ */
+final class In extends PropertyPredicate
+{
+    private static final long serialVersionUID = 7365512954390715573L;
+
+    private final ArrayList<Object> values;
+
+    /**
+     * @param path
+     *            Property path
+     * @param values
+     *            The values
+     */
+    In(final String path, final Collection<?> values)
+    {
+        super(path);
+        this.values = new ArrayList<Object>(values);
+        for (final Object value : this.values)
+        {
+            checkNotNull(value, "in");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        if (this.values.isEmpty())
+        {
+            // An empty list is not valid query text and matches nothing
+            text.append("1 = 0");
+        }
+        else
+        {
+            text.append(property(alias) + " in (" + bind(values, this.values) + ")");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        if (this.values.isEmpty())
+        {
+            return false;
+        }
+        final Object actual = valueOf(object);
+        if (actual == null)
+        {
+            return null;
+        }
+        for (final Object value : this.values)
+        {
+            if (equal(actual, value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
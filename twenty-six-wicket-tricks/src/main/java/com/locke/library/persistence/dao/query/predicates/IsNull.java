@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when a property is null
+ * 
+ * @author Jonathan Locke
+ */
+final class IsNull extends PropertyPredicate
+{
+    private static final long serialVersionUID = 5176374305447125213L;
+
+    /**
+     * @param path
+     *            Property path
+     */
+    IsNull(final String path)
+    {
+        super(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        text.append(property(alias) + " is null");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        return valueOf(object) == null;
+    }
+}
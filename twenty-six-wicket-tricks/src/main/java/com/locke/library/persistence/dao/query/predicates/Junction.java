@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Base class for predicates combining other predicates with "and" or "or"
+ * 
+ * @author Jonathan Locke
+ */
+abstract class Junction extends Predicate
+{
+    private static final long serialVersionUID = -1640264937417735185L;
+
+    /**
+     * The operator in query text
+     */
+    private final String operator;
+
+    private final ArrayList<Predicate> predicates;
+
+    /**
+     * @param operator
+     *            The operator in query text
+     * @param predicates
+     *            The predicates to combine
+     */
+    Junction(final String operator, final List<Predicate> predicates)
+    {
+        if (predicates.isEmpty())
+        {
+            throw new IllegalArgumentException("Must combine at least one predicate");
+        }
+        for (final Predicate predicate : predicates)
+        {
+            if (predicate == null)
+            {
+                throw new IllegalArgumentException("Cannot combine a null predicate");
+            }
+        }
+        this.operator = operator;
+        this.predicates = new ArrayList<Predicate>(predicates);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addJoins(final Collection<String> associations)
+    {
+        for (final Predicate predicate : this.predicates)
+        {
+            predicate.addJoins(associations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        text.append("(");
+        for (int i = 0; i < this.predicates.size(); i++)
+        {
+            if (i > 0)
+            {
+                text.append(" " + this.operator + " ");
+            }
+            this.predicates.get(i).compile(text, alias, values);
+        }
+        text.append(")");
+    }
+
+    /**
+     * Evaluates the predicates in order with three-valued logic, stopping at
+     * the first result which decides the whole
+     * 
+     * @param object
+     *            An object
+     * @param decisive
+     *            The result of a predicate which decides the result of the
+     *            junction
+     * @return Result of the junction
+     */
+    Boolean test(final Object object, final boolean decisive)
+    {
+        boolean unknown = false;
+        for (final Predicate predicate : this.predicates)
+        {
+            final Boolean result = predicate.test(object);
+            if (result == null)
+            {
+                unknown = true;
+            }
+            else if (result.booleanValue() == decisive)
+            {
+                return decisive;
+            }
+        }
+        return unknown ? null : !decisive;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when a property matches a pattern, in which % matches any
+ * characters and _ matches one character
+ * 
+ * @author Jonathan Locke
+ */
+final class Like extends PropertyPredicate
+{
+    private static final long serialVersionUID = -6153860170932843275L;
+
+    private final String pattern;
+
+    /**
+     * The pattern as a regular expression, for evaluation in memory
+     */
+    private transient Pattern regex;
+
+    /**
+     * @param path
+     *            Property path
+     * @param pattern
+     *            The pattern
+     */
+    Like(final String path, final String pattern)
+    {
+        super(path);
+        this.pattern = (String)checkNotNull(pattern, "like");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        text.append(property(alias) + " like " + bind(values, this.pattern));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        final Object actual = valueOf(object);
+        if (actual == null)
+        {
+            return null;
+        }
+        return regex().matcher(actual.toString()).matches();
+    }
+
+    /**
+     * @return The pattern as a regular expression
+     */
+    private Pattern regex()
+    {
+        if (this.regex == null)
+        {
+            final StringBuilder regex = new StringBuilder();
+            final StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < this.pattern.length(); i++)
+            {
+                final char c = this.pattern.charAt(i);
+                if (c == '%' || c == '_')
+                {
+                    if (literal.length() > 0)
+                    {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                }
+                else
+                {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0)
+            {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            this.regex = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+        return this.regex;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+
+/**
+ * Predicate holding when another predicate does not
+ * 
+ * @author Jonathan Locke
+ */
+final class Not extends Predicate
+{
+    private static final long serialVersionUID = -811652338315539412L;
+
+    private final Predicate predicate;
+
+    /**
+     * @param predicate
+     *            The predicate to negate
+     */
+    Not(final Predicate predicate)
+    {
+        if (predicate == null)
+        {
+            throw new IllegalArgumentException("Cannot negate a null predicate");
+        }
+        this.predicate = predicate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addJoins(final Collection<String> associations)
+    {
+        this.predicate.addJoins(associations);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void compile(final QueryText text, final String alias, final List<Object> values)
+    {
+        text.append("not (");
+        this.predicate.compile(text, alias, values);
+        text.append(")");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Boolean test(final Object object)
+    {
+        final Boolean result = this.predicate.test(object);
+        return result == null ? null : !result;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.QueryText;
+import com.locke.library.persistence.dao.query.clauses.Filter;
+
+/**
+ * A typed condition on the properties of objects, built with the static
+ * methods of this class and applied to queries with a {@link Filter} clause.
+ * Unlike the text of a where clause, a predicate never puts values into query
+ * text. Values are passed as bind parameters, so the compiled text depends
+ * only on the shape of the predicate and queries differing only in values
+ * share one compiled query.
+ * <p>
+ * A predicate can also be evaluated against objects in memory, with the same
+ * result the database would give. Comparisons against null properties are
+ * unknown, as in SQL, so neither a predicate nor its negation matches an
+ * object whose property is null. Only {@link #isNull(String)} matches nulls.
+ * <p>
+ * A property path may navigate single-valued associations, as in
+ * "maker.name". An object whose association is null has a null value for
+ * every property beyond it, both in memory and in queries, which left join
+ * the associations named by {@link #addJoins(Collection)} rather than
+ * dropping such objects with the inner join implied by a nested path.
+ * 
+ * @author Jonathan Locke
+ */
+public abstract class Predicate implements Serializable
+{
+    private static final long serialVersionUID = -3904286134925113042L;
+
+    /**
+     * @param predicates
+     *            Predicates which must all hold
+     * @return Conjunction of the predicates
+     */
+    public static Predicate and(final Predicate... predicates)
+    {
+        return new And(Arrays.asList(predicates));
+    }
+
+    /**
+     * @param path
+     *            Property path
+     * @param low
+     *            Lowest value, inclusive
+     * @param high
+     *            Highest value, inclusive
+     * @return Predicate holding when the property lies between the values
+     */
+    public static Predicate between(final String path, final Object low, final Object high)
+    {
+        return new Between(path, low, high);
+    }
+
+    /**
+     * @param path
+     *            Property path
+     * @param value
+     *            Value, which must not be null
+     * @return Predicate holding when the property equals the value
+     * @see #isNull(String)
+     */
+    public static Predicate eq(final String path, final Object value)
+    {
+        return new Equal(path, value);
+    }
+
+    /**
+     * @param path
+     *            Property path
+     * @param values
+     *            Values, none of which may be null
+     * @return Predicate holding when the property equals any of the values
+     */
+    public static Predicate in(final String path, final Collection<?> values)
+    {
+        return new In(path, values);
+    }
+
+    /**
+     * @param path
+     *            Property path
+     * @return Predicate holding when the property is null
+     */
+    public static Predicate isNull(final String path)
+    {
+        return new IsNull(path);
+    }
+
+    /**
+     * @param path
+     *            Property path
+     * @param pattern
+     *            Pattern in which % matches any characters and _ matches one
+     *            character
+     * @return Predicate holding when the property matches the pattern
+     */
+    public static Predicate like(final String path, final String pattern)
+    {
+        return new Like(path, pattern);
+    }
+
+    /**
+     * @param predicate
+     *            Predicate which must not hold
+     * @return Negation of the predicate
+     */
+    public static Predicate not(final Predicate predicate)
+    {
+        return new Not(predicate);
+    }
+
+    /**
+     * @param predicates
+     *            Predicates of which at least one must hold
+     * @return Disjunction of the predicates
+     */
+    public static Predicate or(final Predicate... predicates)
+    {
+        return new Or(Arrays.asList(predicates));
+    }
+
+    /**
+     * @param alias
+     *            Alias of an object
+     * @param association
+     *            Path of an association of the object
+     * @return Alias by which query text refers to the associated object
+     */
+    public static String joinAlias(final String alias, final String association)
+    {
+        return alias + "_" + association.replace('.', '_');
+    }
+
+    /**
+     * @param index
+     *            Index of a bind parameter in the values of a predicate
+     * @return Name of the parameter
+     */
+    public static String parameter(final int index)
+    {
+        return "p" + index;
+    }
+
+    /**
+     * @param a
+     *            A non-null value
+     * @param b
+     *            Another non-null value
+     * @return Comparison of the values, comparing numbers of different types
+     *         by value
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(final Object a, final Object b)
+    {
+        if (a instanceof Number && b instanceof Number && !a.getClass().equals(b.getClass()))
+        {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+        }
+        return ((Comparable<Object>)a).compareTo(b);
+    }
+
+    /**
+     * @param a
+     *            A non-null value
+     * @param b
+     *            Another non-null value
+     * @return True if the values are equal, comparing numbers of different
+     *         types by value
+     */
+    static boolean equal(final Object a, final Object b)
+    {
+        if (a instanceof Number && b instanceof Number)
+        {
+            return compare(a, b) == 0;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Adds the paths of the associations navigated by the property paths of
+     * this predicate. Query text compiled with an alias refers to properties
+     * beyond an association through its {@link #joinAlias(String, String)},
+     * so the query must left join each association under that alias.
+     * 
+     * @param associations
+     *            Collection to add association paths to
+     */
+    public abstract void addJoins(Collection<String> associations);
+
+    /**
+     * Appends the text of this predicate to the given query text, adding the
+     * value of each bind parameter to the given list. Parameters are named by
+     * {@link #parameter(int)} from their index in the list, so predicates can
+     * share one list of values.
+     * 
+     * @param text
+     *            Query text to append to
+     * @param alias
+     *            Alias of the object whose properties are compared or null
+     *            for none
+     * @param values
+     *            Values of bind parameters
+     */
+    public abstract void compile(QueryText text, String alias, List<Object> values);
+
+    /**
+     * @param object
+     *            An object
+     * @return True if this predicate holds for the object
+     */
+    public boolean evaluate(final Object object)
+    {
+        return Boolean.TRUE.equals(test(object));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        final QueryText text = new QueryText();
+        compile(text, null, new ArrayList<Object>());
+        return text.toString();
+    }
+
+    /**
+     * @param object
+     *            An object
+     * @return True if this predicate holds for the object, false if it does
+     *         not and null if it is unknown because a compared property is
+     *         null
+     */
+    abstract Boolean test(Object object);
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query.predicates;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.wicket.util.lang.PropertyResolver;
+
+import com.locke.library.persistence.dao.query.PropertyPath;
+
+/**
+ * Base class for predicates on the value of one property
+ * 
+ * @author Jonathan Locke
+ */
+abstract class PropertyPredicate extends Predicate
+{
+    private static final long serialVersionUID = 4130785531052372409L;
+
+    /**
+     * Path of the property
+     */
+    private final String path;
+
+    /**
+     * @param path
+     *            Path of the property
+     */
+    PropertyPredicate(final String path)
+    {
+        this.path = PropertyPath.check(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addJoins(final Collection<String> associations)
+    {
+        for (int dot = this.path.indexOf('.'); dot >= 0; dot = this.path.indexOf('.', dot + 1))
+        {
+            associations.add(this.path.substring(0, dot));
+        }
+    }
+
+    /**
+     * @param values
+     *            Values of bind parameters
+     * @param value
+     *            Value to bind
+     * @return Reference to the parameter bound to the value
+     */
+    String bind(final List<Object> values, final Object value)
+    {
+        values.add(value);
+        return ":" + parameter(values.size() - 1);
+    }
+
+    /**
+     * @param alias
+     *            Alias of the object or null
+     * @return The property in query text, referring to a nested property
+     *         through the alias of the association it belongs to
+     */
+    String property(final String alias)
+    {
+        if (alias == null)
+        {
+            return this.path;
+        }
+        final int dot = this.path.lastIndexOf('.');
+        if (dot < 0)
+        {
+            return alias + "." + this.path;
+        }
+        return joinAlias(alias, this.path.substring(0, dot)) + this.path.substring(dot);
+    }
+
+    /**
+     * @param object
+     *            An object
+     * @return Value of the property for the object
+     */
+    Object valueOf(final Object object)
+    {
+        return PropertyResolver.getValue(this.path, object);
+    }
+
+    /**
+     * @param value
+     *            Value to compare against
+     * @param name
+     *            Name of the predicate
+     * @return The value
+     */
+    static Object checkNotNull(final Object value, final String name)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Values of " + name
+                                               + " predicates must not be null");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.utilities.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of daemon threads with a bounded work queue, which keeps
+ * statistics on how long tasks wait and run. When the queue is full, a task is
+ * run by the thread submitting it, which slows submitters down rather than
+ * letting work pile up without limit.
+ * 
+ * @author Jonathan Locke
+ */
+public class BoundedExecutor
+{
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * @param name
+     *            Name prefix for threads
+     * @param threads
+     *            Number of threads
+     * @param queueCapacity
+     *            Maximum number of tasks waiting for a thread
+     */
+    public BoundedExecutor(final String name, final int threads, final int queueCapacity)
+    {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadFactory threadFactory = new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread =
+                        new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        final RejectedExecutionHandler callerRunsHandler = new RejectedExecutionHandler()
+        {
+            public void rejectedExecution(final Runnable runnable,
+                                          final ThreadPoolExecutor executor)
+            {
+                if (executor.isShutdown())
+                {
+                    throw new RejectedExecutionException("Executor " + name + " is shut down");
+                }
+                BoundedExecutor.this.callerRuns.incrementAndGet();
+                runnable.run();
+            }
+        };
+        this.executor =
+                new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                       new ArrayBlockingQueue<Runnable>(queueCapacity),
+                                       threadFactory, callerRunsHandler);
+    }
+
+    /**
+     * @return Number of threads currently running tasks
+     */
+    public int getActiveCount()
+    {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * @return Average time tasks waited in the queue in milliseconds
+     */
+    public double getAverageQueueMillis()
+    {
+        final long finished = this.completed.get() + this.failed.get();
+        return finished == 0 ? 0 : this.queueNanos.get() / 1000000.0 / finished;
+    }
+
+    /**
+     * @return Average time tasks took to run in milliseconds
+     */
+    public double getAverageRunMillis()
+    {
+        final long finished = this.completed.get() + this.failed.get();
+        return finished == 0 ? 0 : this.runNanos.get() / 1000000.0 / finished;
+    }
+
+    /**
+     * @return Number of tasks run by the submitting thread because the queue
+     *         was full
+     */
+    public long getCallerRuns()
+    {
+        return this.callerRuns.get();
+    }
+
+    /**
+     * @return Number of tasks that completed normally
+     */
+    public long getCompleted()
+    {
+        return this.completed.get();
+    }
+
+    /**
+     * @return Number of tasks that threw an exception
+     */
+    public long getFailed()
+    {
+        return this.failed.get();
+    }
+
+    /**
+     * @return Number of tasks waiting for a thread
+     */
+    public int getQueueDepth()
+    {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return Number of tasks submitted
+     */
+    public long getSubmitted()
+    {
+        return this.submitted.get();
+    }
+
+    /**
+     * Stops accepting tasks and waits for queued tasks to finish
+     * 
+     * @param timeout
+     *            Maximum time to wait
+     * @param unit
+     *            Unit of timeout
+     * @return True if all tasks finished in time
+     * @throws InterruptedException
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        this.executor.shutdown();
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @param <V>
+     *            Type of result
+     * @param task
+     *            The task to run
+     * @return Future result of the task
+     */
+    public <V> Future<V> submit(final Callable<V> task)
+    {
+        this.submitted.incrementAndGet();
+        final long submittedAt = System.nanoTime();
+        return this.executor.submit(new Callable<V>()
+        {
+            public V call() throws Exception
+            {
+                final long startedAt = System.nanoTime();
+                BoundedExecutor.this.queueNanos.addAndGet(startedAt - submittedAt);
+                boolean succeeded = false;
+                try
+                {
+                    final V result = task.call();
+                    succeeded = true;
+                    return result;
+                }
+                finally
+                {
+                    BoundedExecutor.this.runNanos.addAndGet(System.nanoTime() - startedAt);
+                    if (succeeded)
+                    {
+                        BoundedExecutor.this.completed.incrementAndGet();
+                    }
+                    else
+                    {
+                        BoundedExecutor.this.failed.incrementAndGet();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[BoundedExecutor active=" + getActiveCount() + ", queued=" + getQueueDepth()
+               + ", submitted=" + getSubmitted() + ", completed=" + getCompleted() + ", failed="
+               + getFailed() + ", callerRuns=" + getCallerRuns() + "]";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.utilities.object;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Thread-safe, lazily computed association of a value with each class, in the
+ * style of java.lang.ClassValue (which is not available on the Java versions
+ * this library targets). The value for a class is computed at most once, by
+ * the first thread to ask for it, while other threads asking for the same
+ * class wait for that computation. Once computed, reads do not lock.
+ * <p>
+ * Values are held strongly, so a registry should only hold metadata for
+ * classes that live as long as the registry's own class loader, or call
+ * {@link #remove(Class)} when a class is being unloaded.
+ * 
+ * @author Jonathan Locke
+ * @param <V>
+ *            Type of value associated with each class
+ */
+public abstract class ClassRegistry<V>
+{
+    private final ConcurrentHashMap<Class<?>, FutureTask<V>> values =
+            new ConcurrentHashMap<Class<?>, FutureTask<V>>();
+
+    /**
+     * @param type
+     *            The class
+     * @return The value for the class, computing it if this is the first
+     *         request for it
+     */
+    public V get(final Class<?> type)
+    {
+        FutureTask<V> task = this.values.get(type);
+        if (task == null)
+        {
+            final FutureTask<V> newTask = new FutureTask<V>(new Callable<V>()
+            {
+                public V call()
+                {
+                    return computeValue(type);
+                }
+            });
+            task = this.values.putIfAbsent(type, newTask);
+            if (task == null)
+            {
+                task = newTask;
+                task.run();
+            }
+        }
+        try
+        {
+            return task.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted computing value for " + type, e);
+        }
+        catch (final ExecutionException e)
+        {
+            // Let a later request try again
+            this.values.remove(type, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("Unable to compute value for " + type, cause);
+        }
+    }
+
+    /**
+     * Removes any value for the given class
+     * 
+     * @param type
+     *            The class
+     */
+    public void remove(final Class<?> type)
+    {
+        this.values.remove(type);
+    }
+
+    /**
+     * @param type
+     *            The class
+     * @return The value for the class
+     */
+    protected abstract V computeValue(Class<?> type);
+}
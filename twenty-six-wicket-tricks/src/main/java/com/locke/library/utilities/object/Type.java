@@ -3,61 +3,78 @@ package com.locke.library.utilities.object;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.wicket.util.lang.Classes;
 import org.apache.wicket.util.string.Strings;
 
-import com.locke.library.utilities.collections.MapList;
-
 /**
+ * Cached reflection information about a class. Types are shared between
+ * threads, so all state is either immutable or held in concurrent maps.
+ * 
  * @author jlocke
  */
 public class Type
 {
-    private static final Map<Class<?>, Type> typeMap = new HashMap<Class<?>, Type>();
+    private static final ClassRegistry<Type> typeMap = new ClassRegistry<Type>()
+    {
+        @Override
+        protected Type computeValue(final Class<?> type)
+        {
+            return new Type(type);
+        }
+    };
 
     @SuppressWarnings("unchecked")
     public static Type forClass(final Class javaType)
     {
-        Type type = typeMap.get(javaType);
-        if (type == null)
-        {
-            type = new Type(javaType);
-            typeMap.put(javaType, type);
-        }
-        return type;
+        return typeMap.get(javaType);
     }
 
-    private final List<Method> methods = new ArrayList<Method>();
-    private final MapList<Class<? extends Annotation>, Method> methodsForAnnotation =
-            new MapList<Class<? extends Annotation>, Method>();
+    private final List<Method> methods;
+    private final ConcurrentHashMap<Class<? extends Annotation>, List<Method>> methodsForAnnotation
+        = new ConcurrentHashMap<Class<? extends Annotation>, List<Method>>();
     private final Class<?> type;
 
     private Type(final Class<?> type)
     {
         this.type = type;
+        final List<Method> methods = new ArrayList<Method>();
+        Class<?> at = type;
+        while (at != null && at != Object.class)
+        {
+            for (final Method method : at.getDeclaredMethods())
+            {
+                methods.add(method);
+            }
+            at = at.getSuperclass();
+        }
+        this.methods = Collections.unmodifiableList(methods);
     }
 
     public <A extends Annotation> Iterable<Method> annotatedMethods(final Class<A> annotationType)
     {
-        List<Method> annotatedMethods = this.methodsForAnnotation.list(annotationType);
+        List<Method> annotatedMethods = this.methodsForAnnotation.get(annotationType);
         if (annotatedMethods == null)
         {
+            final List<Method> found = new ArrayList<Method>();
             for (final Method method : methods())
             {
                 if (method.isAnnotationPresent(annotationType))
                 {
-                    this.methodsForAnnotation.add(annotationType, method);
+                    found.add(method);
                 }
             }
-            annotatedMethods = this.methodsForAnnotation.list(annotationType);
-            if (annotatedMethods == null)
+
+            // If another thread got here first, use its list
+            annotatedMethods = Collections.unmodifiableList(found);
+            final List<Method> existing =
+                    this.methodsForAnnotation.putIfAbsent(annotationType, annotatedMethods);
+            if (existing != null)
             {
-                this.methodsForAnnotation.emptyList(annotationType);
-                annotatedMethods = this.methodsForAnnotation.list(annotationType);
+                annotatedMethods = existing;
             }
         }
         return annotatedMethods;
@@ -70,19 +87,6 @@ public class Type
 
     public Iterable<Method> methods()
     {
-        if (this.methods.isEmpty())
-        {
-            Class<?> at = this.type;
-            do
-            {
-                for (final Method method : at.getDeclaredMethods())
-                {
-                    this.methods.add(method);
-                }
-                at = at.getSuperclass();
-            }
-            while (at != Object.class);
-        }
         return this.methods;
     }
 
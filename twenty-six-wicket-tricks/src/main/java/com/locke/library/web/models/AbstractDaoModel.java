@@ -28,6 +28,10 @@ import com.locke.library.persistence.dao.IDao;
  * for the object or a reference to any loaded object, or both. This permits the
  * object to be persistent or not, and if it is persistent it can be loaded or
  * not.
+ * <p>
+ * Models created from an id register it with the request's
+ * {@link DaoBatchLoader} for their DAO, so that when the first such model
+ * needs its object, the objects for all of them are read together.
  * 
  * @author Jonathan Locke
  * @param <T>
@@ -69,6 +73,10 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
     public AbstractDaoModel(final PK id)
     {
         this.id = id;
+        if (id != null)
+        {
+            DaoBatchLoader.defer(this);
+        }
     }
 
     /**
@@ -87,6 +95,7 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
     public void delete()
     {
         getDao().delete(getObject());
+        evict();
     }
 
     /**
@@ -103,9 +112,11 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
             if (this.object.getPrimaryKey() != null)
             {
 
-                // save the id and null out the entity
+                // save the id, null out the entity and let later loads in
+                // this request read it again
                 this.id = this.object.getPrimaryKey();
                 this.object = null;
+                evict();
             }
         }
     }
@@ -124,8 +135,16 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
             if (this.id != null)
             {
 
-                // ask DAO to load it
-                this.object = getDao().read(this.id);
+                // ask any batch loader or else the DAO to load it
+                final DaoBatchLoader<T, PK> loader = getBatchLoader();
+                if (loader != null)
+                {
+                    this.object = loader.load(this.id);
+                }
+                else
+                {
+                    this.object = getDao().read(this.id);
+                }
             }
         }
         return this.object;
@@ -145,6 +164,8 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
         {
             getDao().update(object);
         }
+        this.id = object.getPrimaryKey();
+        evict();
     }
 
     /**
@@ -156,8 +177,50 @@ public abstract class AbstractDaoModel<T extends IPersistent<PK>, PK extends Ser
                                                 + " does not support setObject(T object)");
     }
 
+    /**
+     * Registers the id of any object this model will need to load with its
+     * batch loader
+     */
+    void register()
+    {
+        if (this.object == null && this.id != null)
+        {
+            final DaoBatchLoader<T, PK> loader = getBatchLoader();
+            if (loader != null)
+            {
+                loader.register(this.id);
+            }
+        }
+    }
+
+    /**
+     * Override to return null if objects should be read one at a time
+     * 
+     * @return The loader to load objects with or null if there is none
+     */
+    protected DaoBatchLoader<T, PK> getBatchLoader()
+    {
+        return DaoBatchLoader.get(getDao());
+    }
+
     /**
      * @return The DAO for this model
      */
     protected abstract IDao<T, PK> getDao();
+
+    /**
+     * Evicts this model's object from any batch loader, so other models read
+     * it again
+     */
+    private void evict()
+    {
+        if (this.id != null)
+        {
+            final DaoBatchLoader<T, PK> loader = getBatchLoader();
+            if (loader != null)
+            {
+                loader.evict(this.id);
+            }
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.web.models;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.RequestCycle;
+
+import com.locke.library.persistence.IPersistent;
+import com.locke.library.persistence.dao.IDao;
+
+/**
+ * Loads persistent objects for many models at once. Models register the ids of
+ * the objects they will need, and the first model to need its object causes
+ * all registered ids to be read together, in batches of no more than a maximum
+ * size. Objects are shared by all models using the loader, so each object is
+ * read only once per request.
+ * <p>
+ * {@link AbstractDaoModel}s created during a request are deferred until the
+ * first object is loaded and only then asked for their DAO and id, since their
+ * DAO may not be available while they are being constructed. Deferred models
+ * are only weakly referenced, and those that have since been garbage
+ * collected or have already loaded their object register nothing.
+ * <p>
+ * Deleting, saving or detaching a model evicts its object, so later loads in
+ * the same request read it again. Objects changed through the DAO directly
+ * should be evicted with {@link #evict(Serializable)}.
+ * <p>
+ * A loader lives only as long as the request cycle that created it, so it
+ * never holds objects across requests.
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public final class DaoBatchLoader<T extends IPersistent<PK>, PK extends Serializable>
+{
+    /**
+     * Default maximum number of ids to read with one query
+     */
+    public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 100;
+
+    /**
+     * Models created in the current request that have not registered their ids
+     */
+    private static final MetaDataKey<ArrayList<WeakReference<AbstractDaoModel<?, ?>>>> DEFERRED =
+            new MetaDataKey<ArrayList<WeakReference<AbstractDaoModel<?, ?>>>>()
+            {
+                private static final long serialVersionUID = -4183375096826612054L;
+            };
+
+    /**
+     * Loaders for the current request, by DAO
+     */
+    private static final MetaDataKey<HashMap<IDao<?, ?>, DaoBatchLoader<?, ?>>> LOADERS =
+            new MetaDataKey<HashMap<IDao<?, ?>, DaoBatchLoader<?, ?>>>()
+            {
+                private static final long serialVersionUID = 2709516314591416385L;
+            };
+
+    /**
+     * @param <T>
+     *            Type of object
+     * @param <PK>
+     *            Type of primary key
+     * @param dao
+     *            The DAO to load objects with
+     * @return The loader for the DAO in the current request or null if there
+     *         is no current request
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends IPersistent<PK>, PK extends Serializable> DaoBatchLoader<T, PK> get(
+            final IDao<T, PK> dao)
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle == null)
+        {
+            return null;
+        }
+        HashMap<IDao<?, ?>, DaoBatchLoader<?, ?>> loaders = cycle.getMetaData(LOADERS);
+        if (loaders == null)
+        {
+            loaders = new HashMap<IDao<?, ?>, DaoBatchLoader<?, ?>>();
+            cycle.setMetaData(LOADERS, loaders);
+        }
+        DaoBatchLoader<T, PK> loader = (DaoBatchLoader<T, PK>)loaders.get(dao);
+        if (loader == null)
+        {
+            loader = new DaoBatchLoader<T, PK>(dao, DEFAULT_MAXIMUM_BATCH_SIZE);
+            loaders.put(dao, loader);
+        }
+        return loader;
+    }
+
+    /**
+     * Defers registration of a model's id until objects are first loaded in
+     * the current request, if there is one
+     * 
+     * @param model
+     *            The model
+     */
+    static void defer(final AbstractDaoModel<?, ?> model)
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            ArrayList<WeakReference<AbstractDaoModel<?, ?>>> deferred =
+                    cycle.getMetaData(DEFERRED);
+            if (deferred == null)
+            {
+                deferred = new ArrayList<WeakReference<AbstractDaoModel<?, ?>>>();
+                cycle.setMetaData(DEFERRED, deferred);
+            }
+            deferred.add(new WeakReference<AbstractDaoModel<?, ?>>(model));
+        }
+    }
+
+    /**
+     * Registers the ids of all deferred models that still need their objects
+     * with their loaders
+     */
+    private static void registerDeferred()
+    {
+        final RequestCycle cycle = RequestCycle.get();
+        if (cycle != null)
+        {
+            final ArrayList<WeakReference<AbstractDaoModel<?, ?>>> deferred =
+                    cycle.getMetaData(DEFERRED);
+            if (deferred != null)
+            {
+                cycle.setMetaData(DEFERRED, null);
+                for (final WeakReference<AbstractDaoModel<?, ?>> reference : deferred)
+                {
+                    final AbstractDaoModel<?, ?> model = reference.get();
+                    if (model != null)
+                    {
+                        model.register();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The DAO to load objects with
+     */
+    private final IDao<T, PK> dao;
+
+    /**
+     * Objects loaded so far by id, including null for ids with no object
+     */
+    private final Map<PK, T> loaded = new HashMap<PK, T>();
+
+    /**
+     * Maximum number of ids to read with one query
+     */
+    private final int maximumBatchSize;
+
+    /**
+     * Ids registered but not yet loaded, in registration order
+     */
+    private final Set<PK> pending = new LinkedHashSet<PK>();
+
+    /**
+     * @param dao
+     *            The DAO to load objects with
+     * @param maximumBatchSize
+     *            Maximum number of ids to read with one query
+     */
+    public DaoBatchLoader(final IDao<T, PK> dao, final int maximumBatchSize)
+    {
+        if (maximumBatchSize < 1)
+        {
+            throw new IllegalArgumentException("Maximum batch size must be positive");
+        }
+        this.dao = dao;
+        this.maximumBatchSize = maximumBatchSize;
+    }
+
+    /**
+     * Forgets any object loaded or id registered for the given id, so that the
+     * next load reads it again
+     * 
+     * @param id
+     *            Id of an object that has been changed or deleted
+     */
+    public void evict(final PK id)
+    {
+        this.loaded.remove(id);
+        this.pending.remove(id);
+    }
+
+    /**
+     * @param id
+     *            Id of object to load
+     * @return The object with the given id, loaded together with all other
+     *         registered ids if it has not been loaded yet, or null if there is
+     *         no such object
+     */
+    public T load(final PK id)
+    {
+        if (!this.loaded.containsKey(id))
+        {
+            registerDeferred();
+            this.pending.add(id);
+            loadPending();
+        }
+        return this.loaded.get(id);
+    }
+
+    /**
+     * @param id
+     *            Id of an object that will be needed later in this request
+     */
+    public void register(final PK id)
+    {
+        if (!this.loaded.containsKey(id))
+        {
+            this.pending.add(id);
+        }
+    }
+
+    /**
+     * Reads all pending ids in batches
+     */
+    private void loadPending()
+    {
+        final List<PK> ids = new ArrayList<PK>(this.pending);
+        this.pending.clear();
+        for (int i = 0; i < ids.size(); i += this.maximumBatchSize)
+        {
+            final List<PK> batch =
+                    ids.subList(i, Math.min(i + this.maximumBatchSize, ids.size()));
+            final Map<PK, T> objects = this.dao.read(batch);
+            for (final PK id : batch)
+            {
+                this.loaded.put(id, objects.get(id));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import org.hibernate.Hibernate;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.BatchFetch;
+
+/**
+ * Tests that {@link BatchFetch} clauses initialize lazy associations with one
+ * query per page rather than one per object
+ * 
+ * @author Jonathan Locke
+ */
+public class BatchFetchTest extends JpaTestSupport
+{
+    public void testOneQueryPerPage()
+    {
+        final long queries = queries();
+        final long collectionFetches = statistics().getCollectionFetchCount();
+        int makers = 0;
+        for (final Maker maker : this.makers.query(new Ascending("id"), new BatchFetch("widgets"))
+                .page(3))
+        {
+            assertTrue(Hibernate.isInitialized(maker.getWidgets()));
+            assertEquals(2, maker.getWidgets().size());
+            makers++;
+        }
+        assertEquals(6, makers);
+
+        // Two pages, each read with one query and batch fetched with one more,
+        // then one query for the empty page that ends paging
+        assertEquals(queries + 5, queries());
+        assertEquals(collectionFetches, statistics().getCollectionFetchCount());
+    }
+
+    public void testWithoutBatchFetchEachObjectLoads()
+    {
+        final long collectionFetches = statistics().getCollectionFetchCount();
+        for (final Maker maker : this.makers.query(new Ascending("id")).page(3))
+        {
+            assertFalse(Hibernate.isInitialized(maker.getWidgets()));
+            assertEquals(2, maker.getWidgets().size());
+        }
+        assertEquals(collectionFetches + 6, statistics().getCollectionFetchCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        begin();
+        for (int i = 0; i < 6; i++)
+        {
+            final Maker maker = new Maker("maker" + i);
+            entityManager().persist(maker);
+            for (int j = 0; j < 2; j++)
+            {
+                final Widget widget = new Widget("widget" + i + "." + j, j);
+                widget.setMaker(maker);
+                entityManager().persist(widget);
+            }
+        }
+        commit();
+    }
+
+    /**
+     * @return Hibernate statistics for the test database
+     */
+    private Statistics statistics()
+    {
+        return ((HibernateEntityManagerFactory)this.entityManagerFactory).getSessionFactory()
+                .getStatistics();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.BatchResult;
+import com.locke.library.persistence.dao.query.Clause;
+
+/**
+ * Tests batched createAll, updateAll and deleteAll
+ * 
+ * @author Jonathan Locke
+ */
+public class BatchWriteTest extends JpaTestSupport
+{
+    public void testCreateAllFlushesPerBatch()
+    {
+        final List<Widget> created = new ArrayList<Widget>();
+        for (int i = 0; i < 120; i++)
+        {
+            created.add(new Widget("widget" + i, i));
+        }
+        begin();
+        final BatchResult result = this.widgets.createAll(created);
+        commit();
+        assertEquals(120, result.getCount());
+        assertEquals(3, result.getFlushes());
+        assertEquals(120, this.widgets.query(new Clause[0]).countMatches());
+    }
+
+    public void testUpdateAndDeleteDetachedObjects()
+    {
+        final List<Widget> created = createWidgets(60, 5);
+        for (final Widget widget : created)
+        {
+            widget.setName("renamed");
+        }
+        begin();
+        this.widgets.updateAll(created);
+        commit();
+        assertEquals("renamed", this.widgets.read(created.get(59).getPrimaryKey()).getName());
+        begin();
+        this.widgets.deleteAll(created.subList(0, 55));
+        commit();
+        assertEquals(5, this.widgets.query(new Clause[0]).countMatches());
+    }
+
+    public void testQueryCachesInvalidatedOncePerCall()
+    {
+        final List<Widget> created = createWidgets(120, 5);
+        final EntityCache<Widget, Long> entityCache =
+                new EntityCache<Widget, Long>(1000, Duration.minutes(1));
+        final ResultCache<Long> resultCache = new ResultCache<Long>(100, 1000,
+                                                                    Duration.minutes(1));
+        this.widgets.setEntityCache(entityCache);
+        this.widgets.setResultCache(resultCache);
+        for (final Widget widget : created)
+        {
+            assertNotNull(this.widgets.read(widget.getPrimaryKey()));
+        }
+        assertEquals(120, entityCache.size());
+        final long generation = resultCache.getGeneration();
+        begin();
+        this.widgets.updateAll(created.subList(0, 100));
+        commit();
+        assertEquals(20, entityCache.size());
+
+        // Once for the call and once when the transaction commits
+        assertEquals(generation + 2, resultCache.getGeneration());
+    }
+}
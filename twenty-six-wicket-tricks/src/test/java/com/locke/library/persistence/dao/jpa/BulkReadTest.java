@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Tests reading many objects by primary key in chunks that stay within the
+ * DAO's limit on in-list size
+ * 
+ * @author Jonathan Locke
+ */
+public class BulkReadTest extends JpaTestSupport
+{
+    /**
+     * In-list limit of the DAO under test, well below the number of ids read
+     */
+    private static final int MAXIMUM_IN_LIST_SIZE = 10;
+
+    public void testChunksAndPreservesOrder()
+    {
+        final List<Long> ids = ids(createWidgets(35, 5));
+        Collections.shuffle(ids, new Random(17));
+
+        // Ask for missing ids among the real ones
+        final List<Long> requested = new ArrayList<Long>(ids);
+        requested.add(3, -1L);
+        requested.add(20, 100000L);
+        requested.add(-2L);
+
+        final long queries = queries();
+        final Map<Long, Widget> read = this.widgets.read(requested, true);
+        assertEquals(ids, new ArrayList<Long>(read.keySet()));
+        for (final Map.Entry<Long, Widget> entry : read.entrySet())
+        {
+            assertEquals(entry.getKey(), entry.getValue().getPrimaryKey());
+        }
+
+        // 38 ids in chunks of 10
+        assertEquals(queries + 4, queries());
+    }
+
+    public void testManagedObjectsAreNotQueried()
+    {
+        final List<Long> ids = ids(createWidgets(MAXIMUM_IN_LIST_SIZE + 1, 1));
+        final Widget managed = this.widgets.read(ids.get(0));
+        final long queries = queries();
+        final Map<Long, Widget> read = this.widgets.read(ids, true);
+        assertEquals(ids, new ArrayList<Long>(read.keySet()));
+        assertSame(managed, read.get(ids.get(0)));
+
+        // The other ids fit in one chunk
+        assertEquals(queries + 1, queries());
+    }
+
+    public void testUnordered()
+    {
+        final List<Long> ids = ids(createWidgets(25, 5));
+        final List<Long> requested = new ArrayList<Long>(ids);
+        requested.add(-1L);
+        final Map<Long, Widget> read = this.widgets.read(requested, false);
+        assertEquals(new HashSet<Long>(ids), read.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return BulkReadTest.this.entityManager();
+            }
+
+            @Override
+            protected int getMaximumInListSize()
+            {
+                return MAXIMUM_IN_LIST_SIZE;
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.Arrays;
+
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.persistence.dao.query.clauses.MatchAny;
+import com.locke.library.persistence.dao.query.clauses.Set;
+
+/**
+ * Tests bulk update and delete statements
+ * 
+ * @author Jonathan Locke
+ */
+public class BulkUpdateTest extends JpaTestSupport
+{
+    public void testDelete()
+    {
+        createWidgets(10, 2);
+        begin();
+        this.widgets.query(new Match<Widget>(new Widget(null, 0))).delete();
+        commit();
+        assertEquals(5, this.widgets.query(new Match<Widget>(new Widget(null, 1))).countMatches());
+        assertEquals(0, this.widgets.query(new Match<Widget>(new Widget(null, 0))).countMatches());
+    }
+
+    public void testRejectsNestedMatch()
+    {
+        createWidgets(2, 2);
+        final Widget example = new Widget();
+        example.setMaker(new Maker("acme"));
+        try
+        {
+            this.widgets.query(new Match<Widget>(example)).delete();
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().indexOf("maker.name") >= 0);
+        }
+        try
+        {
+            this.widgets.query(new MatchAny<Widget>(Arrays.asList(example, new Widget(null, 1))))
+                    .update(new Set("name", "renamed"));
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().indexOf("maker.name") >= 0);
+        }
+
+        // Queries can still match on associated objects
+        assertEquals(0, this.widgets.query(new Match<Widget>(example)).countMatches());
+    }
+
+    public void testUpdate()
+    {
+        createWidgets(10, 2);
+        begin();
+        assertEquals(5, this.widgets.query(new Match<Widget>(new Widget(null, 1)))
+                .update(new Set("name", "odd"), new Set("rank", null)));
+        commit();
+        assertEquals(5, this.widgets.query(new Match<Widget>(new Widget("odd", null)))
+                .countMatches());
+        assertEquals(5, this.widgets.query(new Match<Widget>(new Widget(null, 0)))
+                .countMatches());
+    }
+}
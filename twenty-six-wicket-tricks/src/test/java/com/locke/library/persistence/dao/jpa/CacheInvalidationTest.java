@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.concurrent.Callable;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.clauses.Match;
+
+/**
+ * Tests that cached objects, counts and result pages read by other entity
+ * managers while a write is in progress are discarded when the write's
+ * transaction completes
+ * 
+ * @author Jonathan Locke
+ */
+public class CacheInvalidationTest extends JpaTestSupport
+{
+    private Long id;
+
+    public void testCountCacheInvalidatedAfterCommit() throws Exception
+    {
+        begin();
+        rename("new");
+        assertEquals(1, concurrently(new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                return named("old").countMatches();
+            }
+        }).intValue());
+        commit();
+        assertEquals(0, named("old").countMatches());
+    }
+
+    public void testEntityCacheInvalidatedAfterCommit() throws Exception
+    {
+        begin();
+        rename("new");
+        assertEquals("old", concurrently(new Callable<String>()
+        {
+            public String call()
+            {
+                return CacheInvalidationTest.this.widgets.read(CacheInvalidationTest.this.id)
+                        .getName();
+            }
+        }));
+        commit();
+        assertEquals("new", this.widgets.read(this.id).getName());
+    }
+
+    public void testEntityCacheInvalidatedAfterRollback() throws Exception
+    {
+        begin();
+        rename("dirty");
+        entityManager().flush();
+        concurrently(new Callable<String>()
+        {
+            public String call()
+            {
+                return CacheInvalidationTest.this.widgets.read(CacheInvalidationTest.this.id)
+                        .getName();
+            }
+        });
+        entityManager().getTransaction().rollback();
+        entityManager().clear();
+        assertEquals("old", this.widgets.read(this.id).getName());
+    }
+
+    public void testResultCacheInvalidatedAfterCommit() throws Exception
+    {
+        begin();
+        rename("new");
+        assertNotNull(concurrently(new Callable<Widget>()
+        {
+            public Widget call()
+            {
+                return named("old").firstMatch();
+            }
+        }));
+        commit();
+        assertNull(named("old").firstMatch());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.id = createWidgets(1, 1).get(0).getPrimaryKey();
+        begin();
+        this.widgets.read(this.id).setName("old");
+        commit();
+        this.widgets.setCountCache(new CountCache(100, Duration.minutes(1)));
+        this.widgets.setEntityCache(new EntityCache<Widget, Long>(100, Duration.minutes(1)));
+        this.widgets.setResultCache(new ResultCache<Long>(100, 100, Duration.minutes(1)));
+    }
+
+    /**
+     * Runs the given read with its own entity manager, as another request
+     * would while this test's transaction is open
+     */
+    private <V> V concurrently(final Callable<V> read) throws Exception
+    {
+        final EntityManager other = this.entityManagerFactory.createEntityManager();
+        final EntityManager previous = this.widgets.bindEntityManager(other);
+        try
+        {
+            return read.call();
+        }
+        finally
+        {
+            this.widgets.restoreEntityManager(previous);
+            other.close();
+        }
+    }
+
+    /**
+     * @return Query for widgets with the given name
+     */
+    private IQuery<Widget> named(final String name)
+    {
+        return this.widgets.query(new Match<Widget>(new Widget(name, null)));
+    }
+
+    /**
+     * Renames the widget in the current transaction
+     */
+    private void rename(final String name)
+    {
+        final Widget widget = entityManager().find(Widget.class, this.id);
+        widget.setName(name);
+        this.widgets.update(widget);
+    }
+}
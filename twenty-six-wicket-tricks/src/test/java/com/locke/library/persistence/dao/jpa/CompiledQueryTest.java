@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Filter;
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.persistence.dao.query.predicates.Predicate;
+
+/**
+ * Tests that query values are bound as parameters, so that queries of the
+ * same shape share one compiled query
+ * 
+ * @author Jonathan Locke
+ */
+public class CompiledQueryTest extends JpaTestSupport
+{
+    public void testLiteralsAreBound()
+    {
+        final BoundQuery boundQuery = bind(new Match<Widget>(new Widget("o'brien", 4242)));
+        final String ejbql = boundQuery.getCompiledQuery().getEjbql();
+        assertFalse(ejbql, ejbql.contains("brien"));
+        assertFalse(ejbql, ejbql.contains("4242"));
+        assertTrue(boundQuery.getParameters().containsValue("o'brien"));
+        assertTrue(boundQuery.getParameters().containsValue(4242));
+
+        // The quote needs no escaping, since it never appears in the text
+        begin();
+        this.widgets.create(new Widget("o'brien", 4242));
+        commit();
+        assertEquals("o'brien", this.widgets.query(new Match<Widget>(new Widget("o'brien", 4242)))
+                .firstMatch().getName());
+    }
+
+    public void testSameShapeSharesCompiledQuery()
+    {
+        final CompiledQueryCache cache = this.widgets.getCompiledQueryCache();
+        final BoundQuery first = bind(new Filter(Predicate.eq("name", "first")));
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+        final BoundQuery second = bind(new Filter(Predicate.eq("name", "second")));
+        assertSame(first.getCompiledQuery(), second.getCompiledQuery());
+        assertFalse(first.equals(second));
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses, cache.getMisses());
+
+        // A different shape is compiled separately
+        final BoundQuery other = bind(new Filter(Predicate.eq("rank", 1)));
+        assertNotSame(first.getCompiledQuery(), other.getCompiledQuery());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    /**
+     * @param clauses
+     *            Query clauses
+     * @return A widget query for the clauses, bound to its parameter values
+     */
+    private BoundQuery bind(final Clause... clauses)
+    {
+        return new JpaQuery<Widget, Long>(this.widgets, new ClauseList(clauses)).bind();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Match;
+
+/**
+ * Tests cached and bounded counts
+ * 
+ * @author Jonathan Locke
+ */
+public class CountCacheTest extends JpaTestSupport
+{
+    private CountCache cache;
+
+    public void testBoundedCountIsExactBelowMaximum()
+    {
+        createWidgets(25, 5);
+        assertEquals(25, all().countMatches(100));
+        assertEquals(10, all().countMatches(10));
+        assertEquals(5, ranked(3).countMatches(10));
+        assertEquals(3, ranked(3).countMatches(3));
+    }
+
+    public void testCountsAreCachedByParameters()
+    {
+        createWidgets(20, 4);
+        final long queries = queries();
+        assertEquals(5, ranked(1).countMatches());
+        assertEquals(5, ranked(1).countMatches());
+        assertEquals(5, ranked(2).countMatches());
+        assertEquals(2, queries() - queries);
+        assertEquals(1, this.cache.getHits());
+
+        // Bounded counts are cached separately for each maximum
+        assertEquals(3, ranked(1).countMatches(3));
+        assertEquals(3, ranked(1).countMatches(3));
+        assertEquals(5, ranked(1).countMatches(10));
+        assertEquals(4, queries() - queries);
+    }
+
+    public void testCountsExpire() throws Exception
+    {
+        this.widgets.setCountCache(new CountCache(100, Duration.milliseconds(50)));
+        createWidgets(4, 1);
+        assertEquals(4, all().countMatches());
+
+        // A write the DAO does not see, so only staleness can expire the count
+        final EntityManager other = this.entityManagerFactory.createEntityManager();
+        other.getTransaction().begin();
+        other.persist(new Widget("outside", 0));
+        other.getTransaction().commit();
+        other.close();
+        assertEquals(4, all().countMatches());
+        Thread.sleep(100);
+        assertEquals(5, all().countMatches());
+    }
+
+    public void testWritesInvalidateCounts()
+    {
+        createWidgets(4, 1);
+        assertEquals(4, all().countMatches());
+        assertEquals(4, all().countMatches(10));
+        createWidgets(2, 1);
+        assertEquals(6, all().countMatches());
+        assertEquals(6, all().countMatches(10));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.cache = new CountCache(100, Duration.minutes(1));
+        this.widgets.setCountCache(this.cache);
+    }
+
+    private IQuery<Widget> all()
+    {
+        return this.widgets.query(new Clause[0]);
+    }
+
+    private IQuery<Widget> ranked(final int rank)
+    {
+        return this.widgets.query(new Match<Widget>(new Widget(null, rank)));
+    }
+}
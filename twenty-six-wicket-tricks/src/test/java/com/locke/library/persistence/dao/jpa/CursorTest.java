@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import org.hibernate.Session;
+import org.hibernate.ejb.HibernateEntityManager;
+import org.hibernate.engine.SessionImplementor;
+
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+
+/**
+ * Tests that JPA cursors keep the persistence context bounded while scrolling
+ * and release their results when closed
+ * 
+ * @author Jonathan Locke
+ */
+public class CursorTest extends JpaTestSupport
+{
+    private static final int FETCH_SIZE = 10;
+    private static final int WIDGETS = 50;
+
+    private Long sharedId;
+
+    public void testCloseReleasesResults()
+    {
+        final ICursor<Widget> cursor = this.widgets.query(new Ascending("id")).cursor(FETCH_SIZE);
+        for (int i = 0; i < 3; i++)
+        {
+            cursor.next();
+        }
+        assertTrue(batcherHasOpenResources());
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        assertFalse(batcherHasOpenResources());
+        assertEquals(0, session().getStatistics().getEntityCount());
+    }
+
+    public void testPersistenceContextStaysBounded()
+    {
+        // A maker loaded before the cursor opens must stay managed
+        final Maker shared = entityManager().find(Maker.class, this.sharedId);
+        int count = 0;
+        int largest = 0;
+        final ICursor<Widget> cursor = this.widgets.query(new Ascending("id")).cursor(FETCH_SIZE);
+        try
+        {
+            for (final Widget widget : cursor)
+            {
+                assertNotNull(widget.getMaker().getName());
+                largest = Math.max(largest, session().getStatistics().getEntityCount());
+                count++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        assertEquals(WIDGETS, count);
+
+        // The shared maker, the current widget and its own maker
+        assertTrue("Persistence context grew to " + largest, largest <= 3);
+        assertTrue(entityManager().contains(shared));
+        assertEquals(1, session().getStatistics().getEntityCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        // Every other widget has the shared maker and the rest their own
+        begin();
+        final Maker shared = new Maker("shared");
+        this.makers.create(shared);
+        for (int i = 0; i < WIDGETS; i++)
+        {
+            final Widget widget = new Widget("widget" + i, i);
+            if (i % 2 == 0)
+            {
+                widget.setMaker(shared);
+            }
+            else
+            {
+                final Maker maker = new Maker("maker" + i);
+                this.makers.create(maker);
+                widget.setMaker(maker);
+            }
+            this.widgets.create(widget);
+        }
+        commit();
+        this.sharedId = shared.getPrimaryKey();
+    }
+
+    /**
+     * @return True if the session has open statements or result sets
+     */
+    private boolean batcherHasOpenResources()
+    {
+        return ((SessionImplementor)session()).getBatcher().hasOpenResources();
+    }
+
+    /**
+     * @return The Hibernate session of the test entity manager
+     */
+    private Session session()
+    {
+        return ((HibernateEntityManager)entityManager()).getSession();
+    }
+}
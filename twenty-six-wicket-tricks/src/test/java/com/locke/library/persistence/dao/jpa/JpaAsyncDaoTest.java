@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.utilities.concurrent.BoundedExecutor;
+
+/**
+ * Tests the asynchronous DAO facade
+ * 
+ * @author Jonathan Locke
+ */
+public class JpaAsyncDaoTest extends JpaTestSupport
+{
+    private BoundedExecutor executor;
+    private JpaAsyncDao<Widget, Long> async;
+
+    public void testCallerRunsRestoresBinding() throws Exception
+    {
+        final Long id = createWidgets(1, 1).get(0).getPrimaryKey();
+
+        // Occupy the only thread and the only queue slot so the next task
+        // runs on this thread
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> blocker = new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                release.await();
+                return null;
+            }
+        };
+        final Future<Object> running = this.executor.submit(blocker);
+        final Future<Object> queued = this.executor.submit(blocker);
+
+        final EntityManager outer = this.entityManagerFactory.createEntityManager();
+        final EntityManager previous = this.widgets.bindEntityManager(outer);
+        try
+        {
+            final Future<Widget> read = this.async.read(id);
+            assertEquals(1, this.executor.getCallerRuns());
+            assertEquals(id, read.get().getPrimaryKey());
+            assertSame(outer, this.widgets.entityManager());
+        }
+        finally
+        {
+            this.widgets.restoreEntityManager(previous);
+            outer.close();
+            release.countDown();
+        }
+        running.get();
+        queued.get();
+        assertNotSame(outer, this.widgets.entityManager());
+    }
+
+    public void testPagesUseResultCache() throws Exception
+    {
+        final ResultCache<Long> cache = new ResultCache<Long>(100, 100, Duration.minutes(1));
+        this.widgets.setResultCache(cache);
+        createWidgets(30, 30);
+        final List<Widget> page = this.async.page(5, 10, new Ascending("id")).get();
+        assertEquals(0, cache.getHits());
+        assertEquals(ids(page), ids(this.async.page(5, 10, new Ascending("id")).get()));
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testQueries() throws Exception
+    {
+        createWidgets(30, 3);
+        assertEquals(10, this.async.countMatches(new Match<Widget>(new Widget(null, 1))).get()
+                .intValue());
+        final List<Widget> page = this.async.page(5, 10, new Clause[0]).get();
+        assertEquals(10, page.size());
+        assertNotNull(this.async.firstMatch(new Clause[0]).get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.executor = new BoundedExecutor("test", 1, 1);
+        this.async = new JpaAsyncDao<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                   this.executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        this.executor.shutdown(1, TimeUnit.SECONDS);
+        super.tearDown();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.RequestCycle;
+import org.hibernate.ejb.Ejb3Configuration;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * Base class for tests against a fresh in-memory HSQLDB database holding
+ * {@link Widget} and {@link Maker} tables
+ * 
+ * @author Jonathan Locke
+ */
+public abstract class JpaTestSupport extends TestCase
+{
+    /**
+     * Number of databases created, so that each test gets its own
+     */
+    private static int databases;
+
+    /**
+     * @param database
+     *            Name of the in-memory database
+     * @return Factory for entity managers on a new database with the test
+     *         schema
+     */
+    public static EntityManagerFactory createEntityManagerFactory(final String database)
+    {
+        final Ejb3Configuration configuration = new Ejb3Configuration();
+        configuration.addAnnotatedClass(Maker.class);
+        configuration.addAnnotatedClass(Widget.class);
+        configuration.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        configuration.setProperty("hibernate.connection.driver_class", "org.hsqldb.jdbcDriver");
+        configuration.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:" + database);
+        configuration.setProperty("hibernate.connection.username", "sa");
+        configuration.setProperty("hibernate.connection.password", "");
+        configuration.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        configuration.setProperty("hibernate.generate_statistics", "true");
+        configuration.setProperty("hibernate.jdbc.batch_size",
+                                  Integer.toString(AbstractJpaDao.DEFAULT_BATCH_SIZE));
+        return configuration.buildEntityManagerFactory();
+    }
+
+    /**
+     * @param objects
+     *            Persistent objects
+     * @return Their primary keys in order
+     */
+    public static List<Long> ids(final Iterable<? extends IPersistent<Long>> objects)
+    {
+        final List<Long> ids = new ArrayList<Long>();
+        for (final IPersistent<Long> object : objects)
+        {
+            ids.add(object.getPrimaryKey());
+        }
+        return ids;
+    }
+
+    /**
+     * @param factory
+     *            Entity manager factory
+     * @return Number of queries executed by entity managers from the factory
+     */
+    public static long queries(final EntityManagerFactory factory)
+    {
+        return ((HibernateEntityManagerFactory)factory).getSessionFactory().getStatistics()
+                .getQueryExecutionCount();
+    }
+
+    protected EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    protected TestDao<Maker, Long> makers;
+    protected TestDao<Widget, Long> widgets;
+
+    /**
+     * Begins a transaction on the test entity manager
+     */
+    protected void begin()
+    {
+        entityManager().getTransaction().begin();
+    }
+
+    /**
+     * Commits the transaction on the test entity manager and clears it, so
+     * that later reads come from the database
+     */
+    protected void commit()
+    {
+        entityManager().getTransaction().commit();
+        entityManager().clear();
+    }
+
+    /**
+     * Creates widgets named "widget" and their index, with ranks cycling
+     * through the given number of values, in one transaction
+     * 
+     * @param count
+     *            Number of widgets
+     * @param ranks
+     *            Number of distinct ranks
+     * @return The widgets
+     */
+    protected List<Widget> createWidgets(final int count, final int ranks)
+    {
+        final List<Widget> created = new ArrayList<Widget>();
+        begin();
+        for (int i = 0; i < count; i++)
+        {
+            final Widget widget = new Widget("widget" + i, i % ranks);
+            this.widgets.create(widget);
+            created.add(widget);
+        }
+        commit();
+        return created;
+    }
+
+    /**
+     * @return The entity manager for this thread, replaced with a new one if
+     *         it has been closed, as an open-session-in-view filter would
+     */
+    protected EntityManager entityManager()
+    {
+        if (this.entityManager == null || !this.entityManager.isOpen())
+        {
+            this.entityManager = this.entityManagerFactory.createEntityManager();
+        }
+        return this.entityManager;
+    }
+
+    /**
+     * @return Number of queries executed against the test database
+     */
+    protected long queries()
+    {
+        return queries(this.entityManagerFactory);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        assertNull("Request cycle left over from an earlier test", RequestCycle.get());
+        this.entityManagerFactory = createEntityManagerFactory(getClass().getSimpleName()
+                                                               + ++databases);
+        this.makers = new TestDao<Maker, Long>(Maker.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return JpaTestSupport.this.entityManager();
+            }
+        };
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return JpaTestSupport.this.entityManager();
+            }
+        };
+        AbstractJpaDao.unpinPrimary();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (this.entityManager != null && this.entityManager.isOpen())
+        {
+            if (this.entityManager.getTransaction().isActive())
+            {
+                this.entityManager.getTransaction().rollback();
+            }
+            this.entityManager.close();
+        }
+        this.entityManagerFactory.close();
+        AbstractJpaDao.unpinPrimary();
+        super.tearDown();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+
+/**
+ * Compares offset and keyset pagination over an HSQLDB table of widgets with
+ * many ties on the sort key. The number of rows is set by the system property
+ * "rows" (two million by default) and the page size by "pageSize". HSQLDB
+ * 1.8 sorts every qualifying row before applying an offset, so offset pages
+ * cost the same at any depth while keyset pages get cheaper as the seek
+ * predicate excludes more rows. A full run at the default size takes a long
+ * time. Run with the test classpath, for example:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.locke.library.persistence.dao.jpa.KeysetPagingBenchmark
+ * </pre>
+ * 
+ * @author Jonathan Locke
+ */
+public class KeysetPagingBenchmark
+{
+    /**
+     * Number of depths at which offset pages are sampled
+     */
+    private static final int SAMPLES = 10;
+
+    @SuppressWarnings("unchecked")
+    public static void main(final String[] arguments)
+    {
+        final int rows = Integer.getInteger("rows", 2000000);
+        final int pageSize = Integer.getInteger("pageSize", 1000);
+        final EntityManagerFactory factory = JpaTestSupport.createEntityManagerFactory("keyset");
+        final EntityManager entityManager = factory.createEntityManager();
+        final TestDao<Widget, Long> widgets = new TestDao<Widget, Long>(Widget.class,
+                                                                        entityManager);
+        try
+        {
+            populate(entityManager, widgets, rows);
+            final int pages = (rows + pageSize - 1) / pageSize;
+
+            // Walk the whole table with keyset paging, timing each page
+            final long[] keysetNanos = new long[pages];
+            int index = 0;
+            long start = System.nanoTime();
+            for (final Widget widget : widgets.query(new Clause[0])
+                    .pageBoundary(PageBoundary.CLEAR).page(pageSize, new Ascending("rank")))
+            {
+                if (++index % pageSize == 0 || index == rows)
+                {
+                    final long now = System.nanoTime();
+                    keysetNanos[(index - 1) / pageSize] = now - start;
+                    start = now;
+                }
+                assert widget != null;
+            }
+
+            // Sample offset pages at evenly spaced depths
+            System.out.println("rows=" + rows + " pageSize=" + pageSize);
+            System.out.println("depth\toffset ms/page\tkeyset ms/page");
+            long offsetTotal = 0;
+            for (int sample = 0; sample < SAMPLES; sample++)
+            {
+                final int page = (int)((long)sample * (pages - 1) / (SAMPLES - 1));
+                entityManager.clear();
+                final JpaQuery<Widget, Long> query =
+                        (JpaQuery<Widget, Long>)widgets.query(new Ascending("rank"));
+                final long offsetStart = System.nanoTime();
+                final int count =
+                        query.fetchPage(query.bind(), page * pageSize, pageSize, 0).size();
+                final long offsetNanos = System.nanoTime() - offsetStart;
+                offsetTotal += offsetNanos;
+                if (count == 0)
+                {
+                    throw new IllegalStateException("Empty page at " + page);
+                }
+                System.out.println(page * pageSize + "\t" + millis(offsetNanos) + "\t"
+                                   + millis(keysetNanos[page]));
+            }
+            long keysetTotal = 0;
+            for (final long nanos : keysetNanos)
+            {
+                keysetTotal += nanos;
+            }
+            System.out.println("full walk (offset estimated from samples): offset "
+                               + millis(offsetTotal * pages / SAMPLES) + " ms, keyset "
+                               + millis(keysetTotal) + " ms");
+        }
+        finally
+        {
+            entityManager.close();
+            factory.close();
+        }
+    }
+
+    /**
+     * @param nanos
+     *            Nanoseconds
+     * @return Milliseconds with one decimal place
+     */
+    private static String millis(final long nanos)
+    {
+        return Double.toString(Math.round(nanos / 100000.0) / 10.0);
+    }
+
+    /**
+     * Creates the given number of widgets, with a hundred widgets for each rank
+     */
+    private static void populate(final EntityManager entityManager,
+                                 final TestDao<Widget, Long> widgets, final int rows)
+    {
+        final int chunk = 10000;
+        for (int first = 0; first < rows; first += chunk)
+        {
+            final List<Widget> batch = new ArrayList<Widget>();
+            for (int i = first; i < Math.min(rows, first + chunk); i++)
+            {
+                batch.add(new Widget("widget" + i, (i * 7919) % Math.max(1, rows / 100)));
+            }
+            entityManager.getTransaction().begin();
+            widgets.createAll(batch);
+            entityManager.getTransaction().commit();
+            entityManager.clear();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.Descending;
+import com.locke.library.persistence.dao.query.clauses.Range;
+
+/**
+ * Tests keyset pagination against offset pagination
+ * 
+ * @author Jonathan Locke
+ */
+public class KeysetPagingTest extends JpaTestSupport
+{
+    public void testAscendingMatchesSortedOrder()
+    {
+        final List<Widget> created = createWidgets(95, 7);
+        final List<Long> paged = new ArrayList<Long>();
+        for (final Widget widget : this.widgets.query(new Clause[0]).page(10,
+                                                                          new Ascending("rank")))
+        {
+            paged.add(widget.getPrimaryKey());
+        }
+        assertEquals(ids(sorted(created, false)), paged);
+    }
+
+    public void testDescendingMatchesSortedOrder()
+    {
+        final List<Widget> created = createWidgets(95, 7);
+        final List<Long> paged = new ArrayList<Long>();
+        for (final Widget widget : this.widgets.query(new Clause[0]).page(10,
+                                                                          new Descending("rank")))
+        {
+            paged.add(widget.getPrimaryKey());
+        }
+        assertEquals(ids(sorted(created, true)), paged);
+    }
+
+    public void testExactMultipleOfPageSize()
+    {
+        createWidgets(40, 3);
+        int count = 0;
+        for (final Widget widget : this.widgets.query(new Clause[0]).page(10,
+                                                                          new Ascending("rank")))
+        {
+            assertNotNull(widget);
+            count++;
+        }
+        assertEquals(40, count);
+    }
+
+    public void testRejectsSortAndRangeClauses()
+    {
+        createWidgets(5, 2);
+        try
+        {
+            this.widgets.query(new Ascending("name")).page(10, new Ascending("rank"));
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+        try
+        {
+            this.widgets.query(new Range(0, 5)).page(10, new Ascending("rank"));
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+    }
+
+    public void testRejectsNullKeys()
+    {
+        begin();
+        this.widgets.create(new Widget("a", null));
+        commit();
+        try
+        {
+            for (final Widget widget : this.widgets.query(new Clause[0])
+                    .page(10, new Ascending("rank")))
+            {
+                assertNotNull(widget);
+            }
+            fail();
+        }
+        catch (final IllegalStateException e)
+        {
+        }
+    }
+
+    /**
+     * @param widgets
+     *            Widgets
+     * @param descending
+     *            True for descending order
+     * @return The widgets in rank order, breaking ties on id
+     */
+    private List<Widget> sorted(final List<Widget> widgets, final boolean descending)
+    {
+        final List<Widget> sorted = new ArrayList<Widget>(widgets);
+        Collections.sort(sorted, new Comparator<Widget>()
+        {
+            public int compare(final Widget a, final Widget b)
+            {
+                int difference = a.getRank().compareTo(b.getRank());
+                if (difference == 0)
+                {
+                    difference = a.getId().compareTo(b.getId());
+                }
+                return descending ? -difference : difference;
+            }
+        });
+        return sorted;
+    }
+}
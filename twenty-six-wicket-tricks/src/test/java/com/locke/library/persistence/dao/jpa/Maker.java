@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.OneToMany;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * Persistent object referred to by {@link Widget}, for tests
+ * 
+ * @author Jonathan Locke
+ */
+@Entity
+public class Maker implements IPersistent<Long>, Serializable
+{
+    private static final long serialVersionUID = 2215813379318240161L;
+
+    private Long id;
+    private String name;
+    private int version;
+    private Set<Widget> widgets = new HashSet<Widget>();
+
+    public Maker()
+    {
+    }
+
+    public Maker(final String name)
+    {
+        this.name = name;
+    }
+
+    @Id
+    @GeneratedValue
+    public Long getId()
+    {
+        return this.id;
+    }
+
+    @Queryable
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transient
+    public Long getPrimaryKey()
+    {
+        return this.id;
+    }
+
+    @Version
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * @return Widgets made by this maker, loaded lazily
+     */
+    @OneToMany(mappedBy = "maker")
+    public Set<Widget> getWidgets()
+    {
+        return this.widgets;
+    }
+
+    public void setId(final Long id)
+    {
+        this.id = id;
+    }
+
+    public void setName(final String name)
+    {
+        this.name = name;
+    }
+
+    public void setVersion(final int version)
+    {
+        this.version = version;
+    }
+
+    public void setWidgets(final Set<Widget> widgets)
+    {
+        this.widgets = widgets;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[Maker " + this.id + " " + this.name + "]";
+    }
+}
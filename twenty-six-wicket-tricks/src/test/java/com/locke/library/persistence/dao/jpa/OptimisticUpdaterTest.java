@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.IOptimisticUpdate;
+import com.locke.library.persistence.dao.IDao.LockType;
+
+/**
+ * Tests optimistic updates with retry
+ * 
+ * @author Jonathan Locke
+ */
+public class OptimisticUpdaterTest extends JpaTestSupport
+{
+    private Long id;
+    private OptimisticUpdater<Widget, Long> updater;
+
+    public void testGivesUpAfterMaximumAttempts()
+    {
+        try
+        {
+            this.updater.update(this.id, new IOptimisticUpdate<Widget>()
+            {
+                public void update(final Widget widget)
+                {
+                    incrementElsewhere();
+                    widget.setViews(widget.getViews() + 1);
+                }
+            });
+            fail();
+        }
+        catch (final IllegalStateException e)
+        {
+        }
+        assertEquals(3, this.updater.getAttempts());
+        assertEquals(1, this.updater.getFailures());
+        assertEquals(3, views());
+    }
+
+    public void testLockTypeWriteIncrementsVersion()
+    {
+        final int version = this.widgets.read(this.id).getVersion();
+        entityManager().clear();
+        this.updater.setLockType(LockType.WRITE);
+        this.updater.update(this.id, new IOptimisticUpdate<Widget>()
+        {
+            public void update(final Widget widget)
+            {
+            }
+        });
+        assertEquals(version + 1, this.widgets.read(this.id).getVersion());
+    }
+
+    public void testRestoresBoundEntityManager()
+    {
+        final EntityManager bound = this.entityManagerFactory.createEntityManager();
+        final EntityManager previous = this.widgets.bindEntityManager(bound);
+        try
+        {
+            increment();
+            assertSame(bound, this.widgets.entityManager());
+        }
+        finally
+        {
+            this.widgets.restoreEntityManager(previous);
+            bound.close();
+        }
+        assertNotSame(bound, this.widgets.entityManager());
+    }
+
+    public void testRetriesConflict()
+    {
+        final int[] runs = new int[1];
+        final Widget updated = this.updater.update(this.id, new IOptimisticUpdate<Widget>()
+        {
+            public void update(final Widget widget)
+            {
+                if (runs[0]++ == 0)
+                {
+                    incrementElsewhere();
+                }
+                widget.setViews(widget.getViews() + 1);
+            }
+        });
+        assertEquals(2, runs[0]);
+        assertEquals(2, updated.getViews());
+        assertEquals(1, this.updater.getConflicts());
+        assertEquals(1, this.updater.getRetries());
+        assertEquals(2, views());
+    }
+
+    public void testUpdatesThroughDaoBypassWriteBehindBuffer()
+    {
+        final WriteBehindBuffer<Widget, Long> buffer =
+                new WriteBehindBuffer<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                    Duration.minutes(1), 1000);
+        this.widgets.setWriteBehindBuffer(buffer);
+        try
+        {
+            final int[] runs = new int[1];
+            this.updater.update(this.id, new IOptimisticUpdate<Widget>()
+            {
+                public void update(final Widget widget)
+                {
+                    if (runs[0]++ == 0)
+                    {
+                        incrementElsewhere();
+                    }
+                    widget.setViews(widget.getViews() + 1);
+                    OptimisticUpdaterTest.this.widgets.update(widget);
+                }
+            });
+            assertEquals(0, buffer.getUpdates());
+            assertEquals(1, this.updater.getConflicts());
+            assertEquals(2, views());
+        }
+        finally
+        {
+            buffer.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.id = createWidgets(1, 1).get(0).getPrimaryKey();
+        this.updater = new OptimisticUpdater<Widget, Long>(this.widgets,
+                                                           this.entityManagerFactory, 3,
+                                                           Duration.milliseconds(1),
+                                                           Duration.milliseconds(2));
+        AbstractJpaDao.unpinPrimary();
+    }
+
+    /**
+     * Increments the views of the test widget with the updater
+     */
+    private void increment()
+    {
+        this.updater.update(this.id, new IOptimisticUpdate<Widget>()
+        {
+            public void update(final Widget widget)
+            {
+                widget.setViews(widget.getViews() + 1);
+            }
+        });
+    }
+
+    /**
+     * Increments the views of the test widget in another entity manager and
+     * transaction, as a competing writer would
+     */
+    private void incrementElsewhere()
+    {
+        final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try
+        {
+            entityManager.getTransaction().begin();
+            final Widget widget = entityManager.find(Widget.class, this.id);
+            widget.setViews(widget.getViews() + 1);
+            entityManager.getTransaction().commit();
+        }
+        finally
+        {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @return Views of the test widget in the database
+     */
+    private int views()
+    {
+        entityManager().clear();
+        return this.widgets.read(this.id).getViews();
+    }
+}
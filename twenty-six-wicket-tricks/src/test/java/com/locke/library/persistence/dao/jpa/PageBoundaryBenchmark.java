@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+
+/**
+ * Compares the page boundary behaviors by walking an HSQLDB table of widgets
+ * a page at a time with each of them. The number of rows is set by the system
+ * property "rows" (one hundred thousand by default), the page size by
+ * "pageSize" and the number of timed walks per behavior by "rounds". Closing
+ * the entity manager at each boundary also pays for a new entity manager and
+ * connection per page, which costs more with a real connection pool and
+ * database than with HSQLDB in memory. Run with the test classpath, for
+ * example:
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.locke.library.persistence.dao.jpa.PageBoundaryBenchmark
+ * </pre>
+ * 
+ * @author Jonathan Locke
+ */
+public class PageBoundaryBenchmark
+{
+    public static void main(final String[] arguments)
+    {
+        final int rows = Integer.getInteger("rows", 100000);
+        final int pageSize = Integer.getInteger("pageSize", 100);
+        final int rounds = Integer.getInteger("rounds", 5);
+        final EntityManagerFactory factory =
+                JpaTestSupport.createEntityManagerFactory("boundary");
+        final EntityManager[] entityManager = { factory.createEntityManager() };
+        final TestDao<Widget, Long> widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                // Replace a closed entity manager, as open-session-in-view would
+                if (!entityManager[0].isOpen())
+                {
+                    entityManager[0] = factory.createEntityManager();
+                }
+                return entityManager[0];
+            }
+        };
+        try
+        {
+            populate(widgets, rows);
+            System.out.println("rows=" + rows + " pageSize=" + pageSize + " rounds=" + rounds);
+            System.out.println("boundary\tms/walk");
+
+            // Warm up each behavior before timing any of them
+            for (final PageBoundary boundary : PageBoundary.values())
+            {
+                walk(widgets, boundary, pageSize, rows);
+            }
+            for (final PageBoundary boundary : PageBoundary.values())
+            {
+                final long start = System.nanoTime();
+                for (int round = 0; round < rounds; round++)
+                {
+                    walk(widgets, boundary, pageSize, rows);
+                }
+                System.out.println(boundary + "\t"
+                                   + (System.nanoTime() - start) / rounds / 1000000);
+            }
+        }
+        finally
+        {
+            widgets.getEntityManager().close();
+            factory.close();
+        }
+    }
+
+    /**
+     * Creates the given number of widgets
+     */
+    private static void populate(final TestDao<Widget, Long> widgets, final int rows)
+    {
+        final int chunk = 10000;
+        for (int first = 0; first < rows; first += chunk)
+        {
+            final List<Widget> batch = new ArrayList<Widget>();
+            for (int i = first; i < Math.min(rows, first + chunk); i++)
+            {
+                batch.add(new Widget("widget" + i, i));
+            }
+            final EntityManager entityManager = widgets.getEntityManager();
+            entityManager.getTransaction().begin();
+            widgets.createAll(batch);
+            entityManager.getTransaction().commit();
+            entityManager.clear();
+        }
+    }
+
+    /**
+     * Reads every widget a page at a time
+     */
+    private static void walk(final TestDao<Widget, Long> widgets, final PageBoundary boundary,
+                             final int pageSize, final int rows)
+    {
+        int count = 0;
+        for (final Widget widget : widgets.query(new Ascending("id")).pageBoundary(boundary)
+                .page(pageSize))
+        {
+            count += widget.getViews() >= 0 ? 1 : 0;
+        }
+        if (count != rows)
+        {
+            throw new IllegalStateException("Walked " + count + " of " + rows + " widgets");
+        }
+        widgets.getEntityManager().clear();
+    }
+}
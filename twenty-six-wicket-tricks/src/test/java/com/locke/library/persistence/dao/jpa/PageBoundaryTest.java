@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+
+/**
+ * Tests what happens to the persistence context between the pages of a paged
+ * query for each {@link PageBoundary}
+ * 
+ * @author Jonathan Locke
+ */
+public class PageBoundaryTest extends JpaTestSupport
+{
+    private static final int PAGE_SIZE = 10;
+
+    private List<Widget> created;
+    private Maker maker;
+
+    public void testClear()
+    {
+        final Map<EntityManager, Boolean> entityManagers = iterate(PageBoundary.CLEAR);
+        assertEquals(1, entityManagers.size());
+        assertTrue(entityManager().isOpen());
+        assertFalse(entityManager().contains(this.maker));
+    }
+
+    public void testClose()
+    {
+        final Map<EntityManager, Boolean> entityManagers = iterate(PageBoundary.CLOSE);
+        assertEquals(3, entityManagers.size());
+        assertFalse(entityManager().contains(this.maker));
+    }
+
+    public void testEvict()
+    {
+        final Map<EntityManager, Boolean> entityManagers = iterate(PageBoundary.EVICT);
+        assertEquals(1, entityManagers.size());
+        assertTrue(entityManager().contains(this.maker));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.created = createWidgets(25, 25);
+        final Maker acme = new Maker("acme");
+        begin();
+        this.makers.create(acme);
+        commit();
+        this.maker = this.makers.read(acme.getPrimaryKey());
+    }
+
+    /**
+     * Pages through all widgets, checking that each page starts with only the
+     * objects of the current page left from the query
+     * 
+     * @param boundary
+     *            The page boundary behavior
+     * @return The entity managers used by the iteration
+     */
+    private Map<EntityManager, Boolean> iterate(final PageBoundary boundary)
+    {
+        final Map<EntityManager, Boolean> entityManagers =
+                new IdentityHashMap<EntityManager, Boolean>();
+        final List<Widget> iterated = new ArrayList<Widget>();
+        for (final Widget widget : this.widgets.query(new Ascending("id")).pageBoundary(boundary)
+                .page(PAGE_SIZE))
+        {
+            final EntityManager entityManager = entityManager();
+            entityManagers.put(entityManager, Boolean.TRUE);
+            assertTrue(entityManager.contains(widget));
+            if (iterated.size() % PAGE_SIZE == 0 && !iterated.isEmpty())
+            {
+                // Objects on earlier pages have been released
+                for (final Widget previous : iterated)
+                {
+                    assertFalse(entityManager.contains(previous));
+                }
+            }
+            iterated.add(widget);
+        }
+        assertEquals(ids(this.created), ids(iterated));
+        return entityManagers;
+    }
+}
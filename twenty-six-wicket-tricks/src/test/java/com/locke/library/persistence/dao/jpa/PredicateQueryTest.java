@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.Filter;
+import com.locke.library.persistence.dao.query.clauses.Set;
+import com.locke.library.persistence.dao.query.predicates.Predicate;
+
+/**
+ * Tests that predicates select the same widgets from the database as they do
+ * when evaluated in memory, including widgets with null properties and null
+ * associations
+ * 
+ * @author Jonathan Locke
+ */
+public class PredicateQueryTest extends JpaTestSupport
+{
+    /**
+     * All widgets in id order, read back from the database
+     */
+    private List<Widget> all;
+
+    public void testBulkStatementsCannotJoin()
+    {
+        try
+        {
+            this.widgets.query(new Filter(Predicate.isNull("maker.name")))
+                    .update(new Set("rank", 0));
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+    }
+
+    public void testCombinations()
+    {
+        check(Predicate.and(Predicate.like("name", "a%"), Predicate.eq("rank", 0)), 2);
+        check(Predicate.or(Predicate.isNull("name"), Predicate.eq("rank", 2)), 3);
+        check(Predicate.not(Predicate.or(Predicate.eq("rank", 0), Predicate.eq("rank", 1))), 2);
+        check(Predicate.or(Predicate.isNull("maker"), Predicate.eq("maker.name", "acme")), 4);
+    }
+
+    public void testComparisons()
+    {
+        check(Predicate.eq("name", "alpha"), 1);
+        check(Predicate.not(Predicate.eq("name", "alpha")), 4);
+        check(Predicate.between("rank", 1, 2), 4);
+        check(Predicate.in("rank", Arrays.asList(0, 2)), 4);
+        check(Predicate.not(Predicate.in("rank", Arrays.asList(0, 2))), 2);
+    }
+
+    public void testLike()
+    {
+        check(Predicate.like("name", "alpha%"), 2);
+        check(Predicate.like("name", "a_1"), 1);
+        check(Predicate.like("name", "%a"), 4);
+        check(Predicate.not(Predicate.like("name", "alpha%")), 3);
+    }
+
+    public void testNestedPaths()
+    {
+        // Widgets without a maker have a null maker name, as in memory
+        check(Predicate.isNull("maker"), 2);
+        check(Predicate.isNull("maker.name"), 3);
+        check(Predicate.not(Predicate.isNull("maker.name")), 3);
+        check(Predicate.eq("maker.name", "acme"), 2);
+        check(Predicate.not(Predicate.eq("maker.name", "acme")), 1);
+        check(Predicate.like("maker.name", "ac%"), 3);
+    }
+
+    public void testNulls()
+    {
+        check(Predicate.isNull("name"), 1);
+        check(Predicate.not(Predicate.isNull("name")), 5);
+        check(Predicate.isNull("rank"), 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        final Maker acme = new Maker("acme");
+        final Maker acorn = new Maker("acorn");
+        final Maker anonymous = new Maker(null);
+        begin();
+        entityManager().persist(acme);
+        entityManager().persist(acorn);
+        entityManager().persist(anonymous);
+        create("alpha", 0, acme);
+        create(null, 1, acme);
+        create("beta", 2, null);
+        create("a_1", 2, acorn);
+        create("gamma", 1, anonymous);
+        create("alphabeta", 0, null);
+        commit();
+        this.all = new ArrayList<Widget>();
+        for (final Widget widget : this.widgets.query(new Ascending("id")).matches())
+        {
+            this.all.add(widget);
+        }
+        assertEquals(6, this.all.size());
+    }
+
+    /**
+     * Checks that a predicate selects the same widgets in the database as in
+     * memory
+     * 
+     * @param predicate
+     *            The predicate
+     * @param expected
+     *            Number of widgets the predicate should select
+     */
+    private void check(final Predicate predicate, final int expected)
+    {
+        final List<Widget> evaluated = new ArrayList<Widget>();
+        for (final Widget widget : this.all)
+        {
+            if (predicate.evaluate(widget))
+            {
+                evaluated.add(widget);
+            }
+        }
+        assertEquals(predicate.toString(), expected, evaluated.size());
+        final List<Widget> queried = new ArrayList<Widget>();
+        for (final Widget widget : this.widgets.query(new Filter(predicate), new Ascending("id"))
+                .matches())
+        {
+            queried.add(widget);
+        }
+        assertEquals(predicate.toString(), ids(evaluated), ids(queried));
+        assertEquals(predicate.toString(), expected, this.widgets.query(new Filter(predicate))
+                .countMatches());
+    }
+
+    /**
+     * Persists a widget
+     * 
+     * @param name
+     *            Name of widget
+     * @param rank
+     *            Rank of widget
+     * @param maker
+     *            Maker of widget or null for none
+     */
+    private void create(final String name, final Integer rank, final Maker maker)
+    {
+        final Widget widget = new Widget(name, rank);
+        widget.setMaker(maker);
+        entityManager().persist(widget);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.utilities.concurrent.BoundedExecutor;
+
+/**
+ * Tests background page prefetching
+ * 
+ * @author Jonathan Locke
+ */
+public class PrefetchTest extends JpaTestSupport
+{
+    private JpaAsyncDao<Widget, Long> async;
+    private BoundedExecutor executor;
+    private EntityManager replica;
+    private EntityManagerFactory replicaFactory;
+
+    public void testPagesInOrder()
+    {
+        final List<Widget> created = createWidgets(95, 95);
+        assertEquals(ids(created), prefetch(10, 2));
+        assertEquals(ids(created), prefetch(200, 1));
+    }
+
+    public void testPagesUseResultCache()
+    {
+        final ResultCache<Long> cache = new ResultCache<Long>(100, 100, Duration.minutes(1));
+        this.widgets.setResultCache(cache);
+        createWidgets(25, 25);
+        AbstractJpaDao.unpinPrimary();
+        final List<Long> ids = prefetch(10, 1);
+        final long hits = cache.getHits();
+        assertEquals(ids, prefetch(10, 1));
+
+        // Each of the three pages came from the cache
+        assertTrue(cache.getHits() >= hits + 3);
+    }
+
+    public void testPagesUseReplicaUnlessPinned()
+    {
+        final List<Widget> primary = createWidgets(5, 5);
+        final EntityManager replicaManager = this.replicaFactory.createEntityManager();
+        replicaManager.getTransaction().begin();
+        for (int i = 0; i < 3; i++)
+        {
+            replicaManager.persist(new Widget("replica" + i, i));
+        }
+        replicaManager.getTransaction().commit();
+        replicaManager.close();
+        this.replica = this.replicaFactory.createEntityManager();
+
+        AbstractJpaDao.pinPrimary();
+        assertEquals(ids(primary), prefetch(2, 1));
+        AbstractJpaDao.unpinPrimary();
+        assertEquals(3, prefetch(2, 1).size());
+    }
+
+    public void testRejectsBadArguments()
+    {
+        try
+        {
+            this.async.prefetch(0, 1, new Clause[0]);
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+        try
+        {
+            this.async.prefetch(10, 0, new Clause[0]);
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+        try
+        {
+            this.widgets.query(new Clause[0]).page(0);
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.replicaFactory = createEntityManagerFactory("replica" + getName());
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return PrefetchTest.this.entityManager();
+            }
+
+            @Override
+            protected EntityManager getReplicaEntityManager()
+            {
+                return PrefetchTest.this.replica;
+            }
+        };
+
+        // One worker, so the replica entity manager is never shared
+        this.executor = new BoundedExecutor("prefetch", 1, 10);
+        this.async = new JpaAsyncDao<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                   this.executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        this.executor.shutdown(1, TimeUnit.SECONDS);
+        if (this.replica != null)
+        {
+            this.replica.close();
+        }
+        this.replicaFactory.close();
+        super.tearDown();
+    }
+
+    /**
+     * @return Ids of all widgets in id order, read with prefetching
+     */
+    private List<Long> prefetch(final int pageSize, final int depth)
+    {
+        final List<Long> ids = new ArrayList<Long>();
+        final ICursor<Widget> cursor = this.async.prefetch(pageSize, depth, new Ascending("id"));
+        try
+        {
+            for (final Widget widget : cursor)
+            {
+                ids.add(widget.getPrimaryKey());
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return ids;
+    }
+}
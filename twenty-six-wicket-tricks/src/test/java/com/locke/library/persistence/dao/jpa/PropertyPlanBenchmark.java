@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.lang.reflect.Method;
+
+import com.locke.library.persistence.dao.jpa.AbstractJpaDao.PropertyProcessingMode;
+import com.locke.library.utilities.strings.MethodName;
+
+/**
+ * Times reading the ensurable properties of an object by scanning its methods
+ * for annotations on every call, as processProperties used to, and through a
+ * cached {@link PropertyPlan}. Each measurement is repeated after a warm-up
+ * so the JIT has compiled both paths. The number of calls per measurement is
+ * set by the system property "calls" (one million by default).
+ * 
+ * @author Jonathan Locke
+ */
+public class PropertyPlanBenchmark
+{
+    /**
+     * Defeats dead code elimination
+     */
+    private static int sink;
+
+    public static void main(final String[] arguments) throws Exception
+    {
+        final int calls = Integer.getInteger("calls", 1000000);
+        final Widget widget = new Widget("widget", 1);
+        widget.setMaker(new Maker("acme"));
+        for (int round = 0; round < 5; round++)
+        {
+            final long scanned = scanned(widget, calls);
+            final long planned = planned(widget, calls);
+            System.out.println("round " + round + ": scan " + scanned / calls + " ns/call, plan "
+                               + planned / calls + " ns/call");
+        }
+        System.out.println(sink == 0 ? "" : "done");
+    }
+
+    /**
+     * @return Nanoseconds to read the properties with a cached plan
+     */
+    private static long planned(final Widget widget, final int calls) throws Exception
+    {
+        final long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+        {
+            for (final PropertyPlan.Property property : PropertyPlan.forClass(widget.getClass())
+                    .properties(PropertyProcessingMode.ENSURE))
+            {
+                sink += property.read(widget).hashCode();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return Nanoseconds to read the properties by scanning for annotations
+     *         and looking up setters on every call
+     */
+    private static long scanned(final Widget widget, final int calls) throws Exception
+    {
+        final long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+        {
+            for (final Method method : widget.getClass().getMethods())
+            {
+                if (method.getAnnotation(Ensurable.class) != null)
+                {
+                    final MethodName methodName = new MethodName(method);
+                    if (methodName.isGetter())
+                    {
+                        final Method writeMethod =
+                                widget.getClass().getMethod(methodName.prefixed("set"),
+                                                            method.getReturnType());
+                        sink += writeMethod.hashCode()
+                                + method.invoke(widget, (Object[])null).hashCode();
+                    }
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.locke.library.persistence.dao.jpa.AbstractJpaDao.PropertyProcessingMode;
+
+/**
+ * Tests per-class attach and ensure property plans
+ * 
+ * @author Jonathan Locke
+ */
+public class PropertyPlanTest extends TestCase
+{
+    public static class NotAGetter
+    {
+        @Ensurable
+        public void ensure()
+        {
+        }
+    }
+
+    public void testPlanIsComputedOncePerClass()
+    {
+        assertSame(PropertyPlan.forClass(Widget.class), PropertyPlan.forClass(Widget.class));
+        assertNotSame(PropertyPlan.forClass(Widget.class), PropertyPlan.forClass(Maker.class));
+    }
+
+    public void testPropertiesByMode() throws Exception
+    {
+        final PropertyPlan plan = PropertyPlan.forClass(Widget.class);
+        final List<PropertyPlan.Property> attachable =
+                plan.properties(PropertyProcessingMode.ATTACH);
+        final List<PropertyPlan.Property> ensurable =
+                plan.properties(PropertyProcessingMode.ENSURE);
+        assertEquals(1, attachable.size());
+        assertEquals(1, ensurable.size());
+        assertTrue(PropertyPlan.forClass(Maker.class).properties(PropertyProcessingMode.ENSURE)
+                .isEmpty());
+
+        final Widget widget = new Widget("widget", 1);
+        final Maker maker = new Maker("acme");
+        ensurable.get(0).write(widget, maker);
+        assertSame(maker, widget.getMaker());
+        assertSame(maker, attachable.get(0).read(widget));
+    }
+
+    public void testRejectsAnnotatedNonGetter()
+    {
+        try
+        {
+            PropertyPlan.forClass(NotAGetter.class);
+            fail();
+        }
+        catch (final IllegalStateException e)
+        {
+        }
+    }
+}
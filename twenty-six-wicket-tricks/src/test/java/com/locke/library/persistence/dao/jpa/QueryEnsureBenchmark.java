@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Shows how the number of queries needed to ensure a batch of widgets scales
+ * with the size of the batch when ensuring one at a time with queryEnsure and
+ * all at once with queryEnsureAll. Half of each batch already exists and the
+ * widgets refer to one maker for every ten widgets. The largest batch is set
+ * by the system property "rows" (10,000 by default).
+ * 
+ * @author Jonathan Locke
+ */
+public class QueryEnsureBenchmark
+{
+    public static void main(final String[] arguments)
+    {
+        final int rows = Integer.getInteger("rows", 10000);
+        System.out.println("batch\tone-by-one queries\tms\tset-based queries\tms");
+        for (int size = 10; size <= rows; size *= 10)
+        {
+            final long[] single = run(size, false);
+            final long[] all = run(size, true);
+            System.out.println(size + "\t" + single[0] + "\t" + single[1] + "\t" + all[0]
+                               + "\t" + all[1]);
+        }
+    }
+
+    /**
+     * Ensures a batch of widgets in a new database
+     * 
+     * @param size
+     *            Number of widgets
+     * @param setBased
+     *            True to use queryEnsureAll
+     * @return Number of queries and elapsed milliseconds
+     */
+    private static long[] run(final int size, final boolean setBased)
+    {
+        final EntityManagerFactory factory =
+                JpaTestSupport.createEntityManagerFactory("ensure" + size + setBased);
+        final EntityManager entityManager = factory.createEntityManager();
+        final TestDao<Widget, Long> widgets = new TestDao<Widget, Long>(Widget.class,
+                                                                        entityManager);
+        new TestDao<Maker, Long>(Maker.class, entityManager);
+        try
+        {
+            // Create the half of the batch that already exists
+            entityManager.getTransaction().begin();
+            widgets.queryEnsureAll(batch(0, size / 2, size));
+            entityManager.getTransaction().commit();
+            entityManager.clear();
+
+            final List<Widget> batch = batch(0, size, size);
+            final long queries = JpaTestSupport.queries(factory);
+            final long start = System.nanoTime();
+            entityManager.getTransaction().begin();
+            if (setBased)
+            {
+                widgets.queryEnsureAll(batch);
+            }
+            else
+            {
+                for (final Widget widget : batch)
+                {
+                    widgets.queryEnsure(widget);
+                }
+            }
+            entityManager.getTransaction().commit();
+            return new long[] { JpaTestSupport.queries(factory) - queries,
+                    (System.nanoTime() - start) / 1000000 };
+        }
+        finally
+        {
+            entityManager.close();
+            factory.close();
+        }
+    }
+
+    /**
+     * @return New widgets numbered from first up to but not including last,
+     *         with one maker for every ten widgets in a batch of the given size
+     */
+    private static List<Widget> batch(final int first, final int last, final int size)
+    {
+        final List<Widget> batch = new ArrayList<Widget>();
+        for (int i = first; i < last; i++)
+        {
+            final Widget widget = new Widget("widget" + i, i);
+            widget.setMaker(new Maker("maker" + i % Math.max(1, size / 10)));
+            batch.add(widget);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.locke.library.persistence.dao.query.Clause;
+
+/**
+ * Tests set-based queryEnsureAll and queryAttachAll
+ * 
+ * @author Jonathan Locke
+ */
+public class QueryEnsureTest extends JpaTestSupport
+{
+    public void testEnsureAllCreatesEachMissingObjectOnce()
+    {
+        begin();
+        final Widget existing = new Widget("existing", 1);
+        existing.setMaker(this.makers.queryEnsure(new Maker("acme")));
+        this.widgets.create(existing);
+        commit();
+
+        final List<Widget> feed = new ArrayList<Widget>();
+        for (int i = 0; i < 30; i++)
+        {
+            feed.add(widget(i % 3 == 0 ? "existing" : "new" + i % 5, 1, "acme"));
+            feed.add(widget("other" + i % 4, 2, "maker" + i % 2));
+        }
+        begin();
+        final List<Widget> ensured = this.widgets.queryEnsureAll(feed);
+        commit();
+
+        assertEquals(feed.size(), ensured.size());
+        for (int i = 0; i < feed.size(); i++)
+        {
+            assertEquals(feed.get(i).getName(), ensured.get(i).getName());
+            assertNotNull(ensured.get(i).getPrimaryKey());
+            assertNotNull(ensured.get(i).getMaker().getPrimaryKey());
+        }
+        assertEquals(existing.getPrimaryKey(), ensured.get(0).getPrimaryKey());
+        assertSame(ensured.get(2), ensured.get(22));
+
+        // existing + new0..new4 + other0..other3
+        assertEquals(10, this.widgets.query(new Clause[0]).countMatches());
+        // acme, maker0, maker1
+        assertEquals(3, this.makers.query(new Clause[0]).countMatches());
+    }
+
+    public void testEnsureAllQueriesGrowOnlyWithChunks()
+    {
+        // One query for the widgets in each chunk of bound values, with three
+        // values per widget, and one for the ten makers they refer to
+        final int chunk = this.widgets.getMaximumInListSize() / 3;
+        assertEquals(2, ensureQueries(10));
+        assertEquals((200 + chunk - 1) / chunk + 1, ensureQueries(200));
+
+        final long before = queries();
+        begin();
+        for (int i = 0; i < 50; i++)
+        {
+            this.widgets.queryEnsure(widget("single" + i, i, "single" + i % 5));
+        }
+        commit();
+        assertTrue(queries() - before >= 100);
+    }
+
+    public void testAttachAllAttachesExistingReferences()
+    {
+        begin();
+        this.makers.create(new Maker("acme"));
+        this.makers.create(new Maker("zenith"));
+        commit();
+        final List<Widget> batch = new ArrayList<Widget>();
+        for (int i = 0; i < 20; i++)
+        {
+            batch.add(widget("widget" + i, i, i % 2 == 0 ? "acme" : "zenith"));
+        }
+        final long before = queries();
+        this.widgets.queryAttachAll(batch);
+        assertEquals(1, queries() - before);
+        for (final Widget widget : batch)
+        {
+            assertNotNull(widget.getMaker().getPrimaryKey());
+        }
+        assertSame(batch.get(0).getMaker(), batch.get(2).getMaker());
+    }
+
+    /**
+     * Ensures the given number of new widgets with ten makers
+     * 
+     * @param count
+     *            Number of widgets
+     * @return Number of queries needed
+     */
+    private long ensureQueries(final int count)
+    {
+        final List<Widget> batch = new ArrayList<Widget>();
+        for (int i = 0; i < count; i++)
+        {
+            batch.add(widget("batch" + count + "-" + i, i, "maker" + i % 10));
+        }
+        final long before = queries();
+        begin();
+        this.widgets.queryEnsureAll(batch);
+        commit();
+        return queries() - before;
+    }
+
+    /**
+     * @return A new widget with a new maker of the given name
+     */
+    private Widget widget(final String name, final int rank, final String maker)
+    {
+        final Widget widget = new Widget(name, rank);
+        widget.setMaker(new Maker(maker));
+        return widget;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+
+/**
+ * Tests query statistics and their latency histograms
+ * 
+ * @author Jonathan Locke
+ */
+public class QueryStatisticsTest extends TestCase
+{
+    private static final CompiledQuery BY_NAME =
+            new CompiledQuery("select target from Widget target where target.name = :p0");
+    private static final CompiledQuery BY_RANK =
+            new CompiledQuery("select target from Widget target where target.rank = :p0");
+
+    public void testHistogramPercentiles()
+    {
+        final QueryShapeStatistics shape = new QueryShapeStatistics(BY_NAME.getEjbql());
+        assertEquals(0, shape.getPercentileNanoseconds(50));
+        assertEquals(0, shape.getMeanNanoseconds());
+
+        // 99 fast executions in the bucket up to 127ns and one slow one
+        for (int i = 0; i < 99; i++)
+        {
+            shape.record(100, 1, false);
+        }
+        shape.record(1000000, 10, true);
+        assertEquals(100, shape.getExecutions());
+        assertEquals(109, shape.getRows());
+        assertEquals(1, shape.getPages());
+        assertEquals(1000000, shape.getMaximumNanoseconds());
+        assertEquals((99 * 100 + 1000000) / 100, shape.getMeanNanoseconds());
+        assertEquals(127, shape.getPercentileNanoseconds(50));
+        assertEquals(127, shape.getPercentileNanoseconds(99));
+
+        // The slow execution's bucket reaches 2^20 - 1, beyond the maximum
+        assertEquals(1000000, shape.getPercentileNanoseconds(100));
+        try
+        {
+            shape.getPercentileNanoseconds(101);
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+    }
+
+    public void testReset()
+    {
+        final QueryStatistics statistics = new QueryStatistics(10, 0);
+        statistics.record(BY_NAME, null, 1000000, 1, false);
+        assertEquals(1, statistics.getSlowQueries());
+        statistics.reset();
+        assertEquals(0, statistics.getExecutions());
+        assertEquals(0, statistics.getSlowQueries());
+        assertNull(statistics.getShape(BY_NAME));
+        assertEquals(0, statistics.getShapes().length);
+    }
+
+    public void testShapeCounts()
+    {
+        final QueryStatistics statistics = new QueryStatistics(1, 1000);
+        statistics.record(BY_NAME, null, 100, 1, false);
+        statistics.record(new CompiledQuery(BY_NAME.getEjbql()), null, 100, 3, true);
+
+        // Only one shape is kept, but executions of others still count
+        statistics.record(BY_RANK, null, 100, 1, false);
+        assertEquals(3, statistics.getExecutions());
+        final QueryShapeStatistics shape = statistics.getShape(BY_NAME);
+        assertEquals(2, shape.getExecutions());
+        assertEquals(4, shape.getRows());
+        assertEquals(1, shape.getPages());
+        assertNull(statistics.getShape(BY_RANK));
+        assertEquals(1, statistics.getShapes().length);
+    }
+
+    public void testSlowQueryThreshold()
+    {
+        final List<ClauseList> slow = new ArrayList<ClauseList>();
+        final QueryStatistics statistics = new QueryStatistics(10, 1)
+        {
+            @Override
+            protected void onSlowQuery(final CompiledQuery query, final ClauseList clauses,
+                                       final long nanoseconds, final int rows)
+            {
+                slow.add(clauses);
+            }
+        };
+        final ClauseList clauses = new ClauseList(new Ascending("name"));
+        statistics.record(BY_NAME, clauses, 1000000, 1, false);
+        assertEquals(0, statistics.getSlowQueries());
+        statistics.record(BY_NAME, clauses, 1000001, 1, false);
+        assertEquals(1, statistics.getSlowQueries());
+        assertEquals(1, slow.size());
+        assertSame(clauses, slow.get(0));
+
+        statistics.setSlowQueryThresholdMillis(2);
+        assertEquals(2, statistics.getSlowQueryThresholdMillis());
+        statistics.record(BY_NAME, clauses, 1500000, 1, false);
+        assertEquals(1, statistics.getSlowQueries());
+        assertEquals(3, statistics.getShape(BY_NAME).getExecutions());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.Clause;
+
+/**
+ * Tests that objects loaded by read-only queries are not written when they
+ * are changed and their entity manager is flushed
+ * 
+ * @author Jonathan Locke
+ */
+public class ReadOnlyQueryTest extends JpaTestSupport
+{
+    public void testDaoDefault()
+    {
+        this.widgets.setReadOnlyQueries(true);
+        assertEquals("widget0", rename(this.widgets.query(new Clause[0])));
+    }
+
+    public void testQueryOverridesDaoDefault()
+    {
+        this.widgets.setReadOnlyQueries(true);
+        assertEquals("renamed", rename(this.widgets.query(new Clause[0]).readOnly(false)));
+    }
+
+    public void testReadOnlyQuery()
+    {
+        assertEquals("widget0", rename(this.widgets.query(new Clause[0]).readOnly(true)));
+    }
+
+    public void testWritableQuery()
+    {
+        assertEquals("renamed", rename(this.widgets.query(new Clause[0])));
+    }
+
+    /**
+     * Loads the only widget with the given query in a transaction, renames it
+     * and commits
+     * 
+     * @param query
+     *            The query
+     * @return Name of the widget in the database afterwards
+     */
+    private String rename(final IQuery<Widget> query)
+    {
+        final Long id = createWidgets(1, 1).get(0).getPrimaryKey();
+        begin();
+        final Widget widget = query.firstMatch();
+        assertEquals(id, widget.getPrimaryKey());
+        assertTrue(entityManager().contains(widget));
+        widget.setName("renamed");
+        entityManager().flush();
+        commit();
+        return this.widgets.read(id).getName();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.wicket.util.tester.WicketTester;
+
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.utilities.concurrent.BoundedExecutor;
+
+/**
+ * Tests routing of reads to replicas using one HSQLDB database as the primary
+ * and two others as its replicas. Nothing replicates between them, so each
+ * database holds a different number of widgets and counts show which one a
+ * read went to.
+ * 
+ * @author Jonathan Locke
+ */
+public class ReplicaRoutingTest extends JpaTestSupport
+{
+    private ReplicaPool pool;
+    private final List<EntityManager> replicas = new ArrayList<EntityManager>();
+    private final List<EntityManagerFactory> replicaFactories =
+            new ArrayList<EntityManagerFactory>();
+
+    /**
+     * Threads that asked the pool for a replica
+     */
+    private final List<Thread> replicaThreads = new CopyOnWriteArrayList<Thread>();
+
+    private WicketTester tester;
+
+    public void testAsyncReadsUseCallersReplica() throws Exception
+    {
+        // Worker threads are outside the request, so they would read from the
+        // primary or another replica if they chose their own
+        startRequest();
+        final int expected = count();
+        final BoundedExecutor executor = new BoundedExecutor("replica", 1, 10);
+        try
+        {
+            final JpaAsyncDao<Widget, Long> async =
+                    new JpaAsyncDao<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                  executor);
+            assertEquals(expected, async.countMatches(new Clause[0]).get().intValue());
+            assertEquals(expected, async.page(0, 10, new Clause[0]).get().size());
+        }
+        finally
+        {
+            executor.shutdown(1, TimeUnit.SECONDS);
+        }
+    }
+
+    public void testClosePageBoundaryKeepsReplicaOpen()
+    {
+        final EntityManager replica = this.pool.get();
+        int count = 0;
+        for (final Widget widget : this.widgets.query(new Ascending("id"))
+                .pageBoundary(PageBoundary.CLOSE).page(1))
+        {
+            assertTrue(replica.contains(widget));
+            count++;
+        }
+        assertEquals(1, count);
+        assertTrue(replica.isOpen());
+    }
+
+    public void testPinEndsWithRequest()
+    {
+        startRequest();
+        assertEquals(1, count());
+        begin();
+        this.widgets.create(new Widget("primary", 0));
+        commit();
+        assertTrue(AbstractJpaDao.isPrimaryPinned());
+        assertEquals(4, count());
+
+        // The next request reads from a replica again without unpinning
+        startRequest();
+        assertFalse(AbstractJpaDao.isPrimaryPinned());
+        assertEquals(2, count());
+    }
+
+    public void testPrefetchUsesCallersReplica() throws Exception
+    {
+        startRequest();
+        final int expected = count();
+        final BoundedExecutor executor = new BoundedExecutor("replica", 1, 10);
+        try
+        {
+            final JpaAsyncDao<Widget, Long> async =
+                    new JpaAsyncDao<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                  executor);
+            int count = 0;
+            final ICursor<Widget> cursor = async.prefetch(1, 2, new Ascending("id"));
+            try
+            {
+                for (final Widget widget : cursor)
+                {
+                    assertTrue(widget.getName().startsWith("replica"));
+                    count++;
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            assertEquals(expected, count);
+        }
+        finally
+        {
+            executor.shutdown(1, TimeUnit.SECONDS);
+        }
+
+        // No worker thread was assigned a replica, which it would keep forever
+        for (final Thread thread : this.replicaThreads)
+        {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+
+    public void testReadsUseReplicaUntilWrite()
+    {
+        assertEquals(1, count());
+        assertEquals(1, this.widgets.query(new Clause[0]).countMatches(10));
+        final Widget replicated = this.widgets.query(new Ascending("id")).firstMatch();
+        assertEquals("replica0", replicated.getName());
+        assertSame(replicated, this.widgets.read(replicated.getPrimaryKey()));
+
+        begin();
+        this.widgets.create(new Widget("primary", 0));
+        commit();
+        assertEquals(4, count());
+        assertEquals("widget0", this.widgets.query(new Ascending("id")).firstMatch().getName());
+
+        AbstractJpaDao.unpinPrimary();
+        this.pool.release();
+        assertEquals(2, count());
+    }
+
+    public void testReplicaAssignedPerRequest()
+    {
+        startRequest();
+        final EntityManager first = this.pool.get();
+        assertSame(first, this.pool.get());
+        startRequest();
+        final EntityManager second = this.pool.get();
+        assertNotSame(first, second);
+        assertSame(second, this.pool.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        createWidgets(3, 3);
+        for (int i = 0; i < 2; i++)
+        {
+            final EntityManagerFactory factory =
+                    createEntityManagerFactory("replica" + i + getName());
+            final EntityManager replica = factory.createEntityManager();
+            replica.getTransaction().begin();
+            for (int j = 0; j <= i; j++)
+            {
+                replica.persist(new Widget("replica" + j, j));
+            }
+            replica.getTransaction().commit();
+            replica.clear();
+            this.replicaFactories.add(factory);
+            this.replicas.add(replica);
+        }
+        this.pool = new ReplicaPool(this.replicas);
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return ReplicaRoutingTest.this.entityManager();
+            }
+
+            @Override
+            protected EntityManager getReplicaEntityManager()
+            {
+                ReplicaRoutingTest.this.replicaThreads.add(Thread.currentThread());
+                return ReplicaRoutingTest.this.pool.get();
+            }
+        };
+        AbstractJpaDao.unpinPrimary();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (this.tester != null)
+        {
+            this.tester.destroy();
+        }
+        this.pool.release();
+        for (final EntityManager replica : this.replicas)
+        {
+            replica.close();
+        }
+        for (final EntityManagerFactory factory : this.replicaFactories)
+        {
+            factory.close();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * @return Number of widgets in the database reads currently go to
+     */
+    private int count()
+    {
+        return this.widgets.query(new Clause[0]).countMatches();
+    }
+
+    /**
+     * Starts a new request cycle, as the next request on this thread would
+     */
+    private void startRequest()
+    {
+        if (this.tester == null)
+        {
+            this.tester = new WicketTester();
+        }
+        this.tester.setupRequestAndResponse();
+        this.tester.createRequestCycle();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.util.time.Duration;
+
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.query.clauses.Fetch;
+import com.locke.library.persistence.dao.query.clauses.Match;
+
+/**
+ * Tests that pages served from a {@link ResultCache} hold the same managed
+ * objects the query would have returned
+ * 
+ * @author Jonathan Locke
+ */
+public class ResultCacheTest extends JpaTestSupport
+{
+    private ResultCache<Long> cache;
+
+    public void testFetchQueriesNotCached()
+    {
+        final long hits = this.cache.getHits();
+        final List<Long> ids = ids(query(new Fetch("maker")).matches());
+        entityManager().clear();
+        for (final Widget widget : query(new Fetch("maker")).matches())
+        {
+            assertTrue(entityManager().contains(widget));
+            assertTrue(entityManager().contains(widget.getMaker()));
+        }
+        assertEquals(ids, ids(query(new Fetch("maker")).matches()));
+        assertEquals(hits, this.cache.getHits());
+    }
+
+    public void testHitsAreManaged()
+    {
+        // Cache the page and put its objects in the entity cache
+        final List<Long> ids = ids(query().matches());
+        assertFalse(ids.isEmpty());
+        for (final Long id : ids)
+        {
+            this.widgets.read(id);
+        }
+        entityManager().clear();
+
+        // The page is served from the result cache but not the entity cache
+        final long hits = this.cache.getHits();
+        final List<Widget> page = list(query().matches());
+        assertEquals(hits + 1, this.cache.getHits());
+        assertEquals(ids, ids(page));
+        for (final Widget widget : page)
+        {
+            assertTrue(entityManager().contains(widget));
+        }
+
+        // Objects already managed are reused
+        final Widget managed = page.get(0);
+        assertSame(managed, query().firstMatch());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        final List<Widget> created = createWidgets(12, 3);
+        begin();
+        final Maker maker = new Maker("acme");
+        this.makers.create(maker);
+        for (final Widget widget : created)
+        {
+            this.widgets.read(widget.getPrimaryKey()).setMaker(maker);
+        }
+        commit();
+        this.cache = new ResultCache<Long>(100, 100, Duration.minutes(1));
+        this.widgets.setEntityCache(new EntityCache<Widget, Long>(100, Duration.minutes(1)));
+        this.widgets.setResultCache(this.cache);
+    }
+
+    private List<Widget> list(final Iterable<Widget> widgets)
+    {
+        final List<Widget> list = new ArrayList<Widget>();
+        for (final Widget widget : widgets)
+        {
+            list.add(widget);
+        }
+        return list;
+    }
+
+    /**
+     * @return Query for widgets of rank one
+     */
+    private IQuery<Widget> query()
+    {
+        return this.widgets.query(new Match<Widget>(new Widget(null, 1)));
+    }
+
+    /**
+     * @return Query for widgets of rank one that fetches the given association
+     */
+    private IQuery<Widget> query(final Fetch fetch)
+    {
+        return this.widgets.query(fetch, new Match<Widget>(new Widget(null, 1)));
+    }
+}
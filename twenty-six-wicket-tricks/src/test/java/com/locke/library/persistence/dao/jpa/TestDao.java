@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+
+import javax.persistence.EntityManager;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * DAO for tests which uses an entity manager it is given
+ * 
+ * @author Jonathan Locke
+ * @param <T>
+ * @param <PK>
+ */
+public class TestDao<T extends IPersistent<PK>, PK extends Serializable> extends
+    AbstractJpaDao<T, PK>
+{
+    private EntityManager entityManager;
+
+    /**
+     * @param type
+     *            Type of object managed by this DAO
+     * @param entityManager
+     *            Entity manager to use
+     */
+    public TestDao(final Class<T> type, final EntityManager entityManager)
+    {
+        super(type);
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * @param entityManager
+     *            Entity manager to use
+     */
+    public void setEntityManager(final EntityManager entityManager)
+    {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected EntityManager getEntityManager()
+    {
+        return this.entityManager;
+    }
+}
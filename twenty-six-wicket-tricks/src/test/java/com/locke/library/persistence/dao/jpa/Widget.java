@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.Index;
+
+import com.locke.library.persistence.IPersistent;
+
+/**
+ * Persistent object for tests, with queryable properties and a version for
+ * optimistic locking
+ * 
+ * @author Jonathan Locke
+ */
+@Entity
+public class Widget implements IPersistent<Long>, Serializable
+{
+    private static final long serialVersionUID = -8032406851829383613L;
+
+    private Long id;
+    private Maker maker;
+    private String name;
+    private Integer rank;
+    private int version;
+    private int views;
+
+    public Widget()
+    {
+    }
+
+    public Widget(final String name, final Integer rank)
+    {
+        this.name = name;
+        this.rank = rank;
+    }
+
+    @Id
+    @GeneratedValue
+    public Long getId()
+    {
+        return this.id;
+    }
+
+    @ManyToOne
+    @Attachable
+    @Ensurable
+    @Queryable
+    public Maker getMaker()
+    {
+        return this.maker;
+    }
+
+    @Queryable
+    @Index(name = "widget_name")
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transient
+    public Long getPrimaryKey()
+    {
+        return this.id;
+    }
+
+    @Queryable
+    @Index(name = "widget_rank")
+    public Integer getRank()
+    {
+        return this.rank;
+    }
+
+    @Version
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    public int getViews()
+    {
+        return this.views;
+    }
+
+    public void setId(final Long id)
+    {
+        this.id = id;
+    }
+
+    public void setMaker(final Maker maker)
+    {
+        this.maker = maker;
+    }
+
+    public void setName(final String name)
+    {
+        this.name = name;
+    }
+
+    public void setRank(final Integer rank)
+    {
+        this.rank = rank;
+    }
+
+    public void setVersion(final int version)
+    {
+        this.version = version;
+    }
+
+    public void setViews(final int views)
+    {
+        this.views = views;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "[Widget " + this.id + " " + this.name + " " + this.rank + "]";
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.jpa;
+
+import java.util.Collections;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Tests that updates written behind are visible to reads before they are
+ * written and are never lost when writes fail
+ * 
+ * @author Jonathan Locke
+ */
+public class WriteBehindBufferTest extends JpaTestSupport
+{
+    private WriteBehindBuffer<Widget, Long> buffer;
+    private volatile boolean databaseDown;
+    private Long id;
+
+    public void testBufferedCopiesAreNotShared()
+    {
+        final Widget widget = detached();
+        widget.setName("buffered");
+        this.widgets.update(widget);
+        widget.setName("changed without update");
+        final Widget read = this.widgets.read(this.id);
+        read.setName("changed by reader");
+        assertEquals("buffered", this.widgets.read(this.id).getName());
+        this.buffer.flush();
+        assertEquals("buffered", stored());
+    }
+
+    public void testCloseKeepsUpdatesThatCannotBeWritten()
+    {
+        rename("closing");
+        this.databaseDown = true;
+        try
+        {
+            this.buffer.close();
+            fail("Close must report updates it could not write");
+        }
+        catch (final IllegalStateException e)
+        {
+        }
+        assertEquals(1, this.buffer.getDepth());
+        assertEquals("closing", this.widgets.read(this.id).getName());
+        this.databaseDown = false;
+        this.buffer.flush();
+        assertEquals("closing", stored());
+        assertEquals(0, this.buffer.getDepth());
+
+        // Updates after closing are written by the caller
+        begin();
+        rename("closed");
+        commit();
+        assertEquals(0, this.buffer.getDepth());
+        assertEquals("closed", stored());
+    }
+
+    public void testDeletedObjectsAreDropped()
+    {
+        rename("deleted");
+        begin();
+        entityManager().remove(entityManager().find(Widget.class, this.id));
+        commit();
+        for (int i = 0; i < WriteBehindBuffer.MAXIMUM_STALE_ATTEMPTS; i++)
+        {
+            assertEquals(1, this.buffer.getDepth());
+            this.buffer.flush();
+        }
+        assertEquals(0, this.buffer.getDepth());
+        assertEquals(0, this.buffer.getFailing());
+        assertEquals(1, this.buffer.getDropped());
+    }
+
+    public void testFailedUpdatesAreRetried()
+    {
+        rename("retried");
+        this.databaseDown = true;
+        this.buffer.flush();
+        this.buffer.flush();
+        assertEquals(1, this.buffer.getDepth());
+        assertEquals(1, this.buffer.getFailing());
+        assertTrue(this.buffer.getFailures() >= 2);
+        assertEquals("old", stored());
+        assertEquals("retried", this.widgets.read(this.id).getName());
+        this.databaseDown = false;
+        this.buffer.flush();
+        assertEquals(0, this.buffer.getDepth());
+        assertEquals(0, this.buffer.getFailing());
+        assertEquals("retried", stored());
+    }
+
+    public void testStaleVersionsAreOverwritten()
+    {
+        // A copy read before another write still wins when written last
+        final Widget stale = detached();
+        begin();
+        this.widgets.read(this.id).setName("written first");
+        commit();
+        stale.setName("written last");
+        this.widgets.update(stale);
+        this.buffer.flush();
+        assertEquals(0, this.buffer.getFailing());
+        assertEquals("written last", stored());
+    }
+
+    public void testFailedUpdatesDoNotReplaceNewerOnes()
+    {
+        this.databaseDown = true;
+        rename("first");
+        this.buffer.flush();
+        rename("second");
+        this.databaseDown = false;
+        this.buffer.flush();
+        assertEquals("second", stored());
+    }
+
+    public void testManagedObjectsAreWrittenInTransaction()
+    {
+        // Read, change and update in an ordinary transaction
+        begin();
+        final Widget widget = this.widgets.read(this.id);
+        widget.setName("managed");
+        this.widgets.update(widget);
+        commit();
+        assertEquals(0, this.buffer.getDepth());
+        assertEquals("managed", stored());
+
+        // Later updates write over the new version
+        rename("detached");
+        this.buffer.flush();
+        assertEquals(0, this.buffer.getFailing());
+        assertEquals("detached", stored());
+        begin();
+        final Widget again = this.widgets.read(this.id);
+        again.setName("managed again");
+        this.widgets.update(again);
+        commit();
+        this.buffer.flush();
+        assertEquals(0, this.buffer.getFailing());
+        assertEquals(0, this.buffer.getFailures());
+        assertEquals("managed again", stored());
+    }
+
+    public void testReadsSeeBufferedUpdates()
+    {
+        final EntityCache<Widget, Long> cache =
+                new EntityCache<Widget, Long>(100, Duration.minutes(1));
+        this.widgets.setEntityCache(cache);
+        this.widgets.read(this.id);
+        assertNotNull(cache.get(this.id));
+        rename("new");
+        assertNull(cache.get(this.id));
+        assertEquals("new", this.widgets.read(this.id).getName());
+        assertEquals("new", this.widgets.read(Collections.singleton(this.id))
+                .get(this.id).getName());
+        assertEquals("old", stored());
+        this.buffer.flush();
+        assertEquals("new", stored());
+        entityManager().clear();
+        assertEquals("new", this.widgets.read(this.id).getName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            protected int getBatchSize()
+            {
+                if (WriteBehindBufferTest.this.databaseDown)
+                {
+                    throw new IllegalStateException("Database unavailable");
+                }
+                return super.getBatchSize();
+            }
+
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return WriteBehindBufferTest.this.entityManager();
+            }
+        };
+        this.id = createWidgets(1, 1).get(0).getPrimaryKey();
+        begin();
+        this.widgets.read(this.id).setName("old");
+        commit();
+        this.buffer =
+                new WriteBehindBuffer<Widget, Long>(this.widgets, this.entityManagerFactory,
+                                                    Duration.minutes(1), 1000);
+        this.widgets.setWriteBehindBuffer(this.buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        this.databaseDown = false;
+        this.buffer.close();
+        super.tearDown();
+    }
+
+    /**
+     * Updates the widget's name through the DAO using a detached copy, as a
+     * caller holding the widget across requests would
+     */
+    private void rename(final String name)
+    {
+        final Widget widget = detached();
+        widget.setName(name);
+        this.widgets.update(widget);
+    }
+
+    /**
+     * @return A copy of the widget read by an entity manager that has since
+     *         been closed
+     */
+    private Widget detached()
+    {
+        final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try
+        {
+            return entityManager.find(Widget.class, this.id);
+        }
+        finally
+        {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @return The widget's name as stored in the database
+     */
+    private String stored()
+    {
+        final EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try
+        {
+            return entityManager.find(Widget.class, this.id).getName();
+        }
+        finally
+        {
+            entityManager.close();
+        }
+    }
+}
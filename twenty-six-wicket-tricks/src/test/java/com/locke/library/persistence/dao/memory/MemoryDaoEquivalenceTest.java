@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.util.lang.Objects;
+
+import com.locke.library.persistence.dao.ICursor;
+import com.locke.library.persistence.dao.IQuery;
+import com.locke.library.persistence.dao.PageBoundary;
+import com.locke.library.persistence.dao.jpa.JpaTestSupport;
+import com.locke.library.persistence.dao.jpa.Maker;
+import com.locke.library.persistence.dao.jpa.Widget;
+import com.locke.library.persistence.dao.query.Clause;
+import com.locke.library.persistence.dao.query.clauses.Ascending;
+import com.locke.library.persistence.dao.query.clauses.Count;
+import com.locke.library.persistence.dao.query.clauses.Descending;
+import com.locke.library.persistence.dao.query.clauses.Filter;
+import com.locke.library.persistence.dao.query.clauses.Match;
+import com.locke.library.persistence.dao.query.clauses.MatchAny;
+import com.locke.library.persistence.dao.query.clauses.Project;
+import com.locke.library.persistence.dao.query.clauses.Set;
+import com.locke.library.persistence.dao.query.clauses.SortOrder;
+import com.locke.library.persistence.dao.query.predicates.Predicate;
+
+/**
+ * Tests that a {@link MemoryDao} answers queries as a JPA DAO over HSQLDB
+ * does, given the same objects
+ * 
+ * @author Jonathan Locke
+ */
+public class MemoryDaoEquivalenceTest extends JpaTestSupport
+{
+    private static final int WIDGETS = 30;
+
+    private MemoryDao<Maker, Long> memoryMakers;
+    private MemoryDao<Widget, Long> memoryWidgets;
+
+    public void testAttach()
+    {
+        final Widget jpa = new Widget("new", 9);
+        jpa.setMaker(new Maker("zenith"));
+        final Widget memory = (Widget)Objects.cloneObject(jpa);
+        this.widgets.queryAttach(jpa);
+        this.memoryWidgets.queryAttach(memory);
+        assertNotNull(jpa.getMaker().getPrimaryKey());
+        assertEquals(jpa.getMaker().getPrimaryKey(), memory.getMaker().getPrimaryKey());
+        assertSame(this.memoryMakers.read(jpa.getMaker().getPrimaryKey()), memory.getMaker());
+    }
+
+    public void testBulkWrites()
+    {
+        begin();
+        final Clause match = new Match<Widget>(new Widget(null, 2));
+        assertEquals(this.widgets.query(match).update(new Set("name", "two")),
+                     this.memoryWidgets.query(match).update(new Set("name", "two")));
+        final Clause filter = new Filter(Predicate.eq("rank", 3));
+        this.widgets.query(filter).delete();
+        this.memoryWidgets.query(filter).delete();
+        commit();
+        assertEquivalent(new Ascending("id"));
+        assertEquals(0, this.memoryWidgets.query(filter).countMatches());
+    }
+
+    public void testCount()
+    {
+        final Clause match = new Match<Widget>(new Widget(null, 1));
+        assertEquals(this.widgets.query(match).countMatches(), this.memoryWidgets
+                .query(new Count(), match).countMatches());
+        try
+        {
+            this.memoryWidgets.query(new Count(), match).firstMatch();
+            fail("Count queries do not select objects");
+        }
+        catch (final IllegalStateException e)
+        {
+        }
+    }
+
+    public void testEnsure()
+    {
+        begin();
+        final Widget jpa = this.widgets.queryEnsure(widget("ensured", 5, new Maker("nova")));
+        final Widget memory =
+                this.memoryWidgets.queryEnsure(widget("ensured", 5, new Maker("nova")));
+        commit();
+        assertEquals("nova", memory.getMaker().getName());
+        assertSame(memory.getMaker(), this.memoryMakers.query(new Match<Maker>(new Maker("nova")))
+                .firstMatch());
+        assertNotNull(jpa.getMaker().getPrimaryKey());
+    }
+
+    public void testFilters()
+    {
+        assertEquivalent(new Filter(Predicate.between("rank", 1, 2)), new Ascending("name", "id"));
+        assertEquivalent(new Filter(Predicate.like("name", "widget1%")), new Descending("id"));
+        assertEquivalent(new Filter(Predicate.or(Predicate.eq("rank", 0), Predicate
+                .isNull("maker"))), new Ascending("id"));
+        assertEquivalent(new Filter(Predicate.and(Predicate.in("name", Arrays
+                .asList("widget1", "widget2", "widget3", "widget4")), Predicate.not(Predicate
+                .eq("rank", 3)))), new Ascending("id"));
+    }
+
+    public void testKeysetPages()
+    {
+        final SortOrder[] keys = { new Ascending("rank"), new Descending("rank") };
+        for (final SortOrder key : keys)
+        {
+            final List<Long> jpa = ids(this.widgets.query(new Clause[0]).page(7, key));
+            final List<Long> memory = ids(this.memoryWidgets.query(new Clause[0]).page(7, key));
+            assertEquals(WIDGETS, jpa.size());
+            assertEquals(jpa, memory);
+        }
+    }
+
+    public void testMatches()
+    {
+        assertEquivalent();
+        assertEquivalent(new Match<Widget>(new Widget(null, 1)));
+        assertEquivalent(new Match<Widget>(new Widget("widget3", null)), new Ascending("id"));
+        assertEquivalent(new MatchAny<Widget>(Arrays.asList(new Widget(null, 1),
+                                                            new Widget("widget2", null))),
+                         new Ascending("rank", "id"));
+        final Widget byMaker = new Widget();
+        byMaker.setMaker(new Maker("acme"));
+        assertEquivalent(new Match<Widget>(byMaker), new Descending("id"));
+    }
+
+    public void testPagesSeeWrites()
+    {
+        final List<Long> jpa = new ArrayList<Long>();
+        final List<Long> memory = new ArrayList<Long>();
+        final Iterator<Widget> jpaPages =
+                this.widgets.query(new Ascending("id")).pageBoundary(PageBoundary.CLEAR).page(4)
+                        .iterator();
+        final Iterator<Widget> memoryPages =
+                this.memoryWidgets.query(new Ascending("id")).page(4).iterator();
+        for (int i = 0; i < 4; i++)
+        {
+            jpa.add(jpaPages.next().getPrimaryKey());
+            memory.add(memoryPages.next().getPrimaryKey());
+        }
+
+        // Delete objects on the first page before reading the second
+        final Clause first = new Filter(Predicate.in("id", jpa.subList(0, 2)));
+        begin();
+        this.widgets.query(first).delete();
+        commit();
+        this.memoryWidgets.query(first).delete();
+        while (jpaPages.hasNext())
+        {
+            jpa.add(jpaPages.next().getPrimaryKey());
+        }
+        while (memoryPages.hasNext())
+        {
+            memory.add(memoryPages.next().getPrimaryKey());
+        }
+        assertEquals(WIDGETS - 2, jpa.size());
+        assertEquals(jpa, memory);
+    }
+
+    public void testRows()
+    {
+        final List<Object[]> jpa =
+                this.widgets.query(new Project("name", "rank"), new Ascending("id")).rows();
+        final List<Object[]> memory =
+                this.memoryWidgets.query(new Project("name", "rank"), new Ascending("id")).rows();
+        assertEquals(jpa.size(), memory.size());
+        for (int i = 0; i < jpa.size(); i++)
+        {
+            assertEquals(Arrays.asList(jpa.get(i)), Arrays.asList(memory.get(i)));
+        }
+    }
+
+    public void testSortOrders()
+    {
+        assertEquivalent(new Ascending("rank", "id"));
+        assertEquivalent(new Ascending("rank"), new Descending("id"));
+        assertEquivalent(new Descending("name"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        // Create the same objects in the database and in memory
+        final List<Maker> makers = Arrays.asList(new Maker("acme"), new Maker("zenith"));
+        final List<Widget> created = new ArrayList<Widget>();
+        begin();
+        for (final Maker maker : makers)
+        {
+            this.makers.create(maker);
+        }
+        for (int i = 0; i < WIDGETS; i++)
+        {
+            created.add(widget("widget" + i, i % 4, i % 5 == 0 ? null : makers.get(i % 2)));
+        }
+        this.widgets.createAll(created);
+        commit();
+        final AtomicLong nextId = new AtomicLong(1000);
+        this.memoryMakers = new MemoryDao<Maker, Long>(Maker.class)
+        {
+            @Override
+            protected void assignPrimaryKey(final Maker maker)
+            {
+                maker.setId(nextId.incrementAndGet());
+            }
+        };
+        for (final Maker maker : makers)
+        {
+            this.memoryMakers.create((Maker)Objects.cloneObject(maker));
+        }
+        this.memoryWidgets = new MemoryDao<Widget, Long>(Widget.class)
+        {
+            @Override
+            protected void assignPrimaryKey(final Widget widget)
+            {
+                widget.setId(nextId.incrementAndGet());
+            }
+        };
+        for (final Widget widget : created)
+        {
+            final Widget copy = (Widget)Objects.cloneObject(widget);
+            if (copy.getMaker() != null)
+            {
+                copy.setMaker(this.memoryMakers.read(copy.getMaker().getPrimaryKey()));
+            }
+            this.memoryWidgets.create(copy);
+        }
+    }
+
+    /**
+     * Checks that both DAOs find the same objects in the same order in every
+     * way they can be asked for them
+     * 
+     * @param clauses
+     *            Clauses of the query, which must sort uniquely if they sort
+     */
+    private void assertEquivalent(final Clause... clauses)
+    {
+        final boolean sorted =
+                clauses.length > 0 && clauses[clauses.length - 1] instanceof SortOrder;
+        final IQuery<Widget> jpa = this.widgets.query(clauses);
+        final IQuery<Widget> memory = this.memoryWidgets.query(clauses);
+        final List<Long> expected = ids(jpa.matches());
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, ordered(ids(memory.matches()), sorted));
+        assertEquals(expected, ordered(ids(memory.page(4)), sorted));
+        assertEquals(expected, ordered(ids(this.widgets.query(clauses).page(4)), sorted));
+        final ICursor<Widget> cursor = memory.cursor(3);
+        try
+        {
+            assertEquals(expected, ordered(ids(cursor), sorted));
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // Count without sorting, which HSQLDB does not allow in count queries
+        final List<Clause> unsorted = new ArrayList<Clause>();
+        for (final Clause clause : clauses)
+        {
+            if (!(clause instanceof SortOrder))
+            {
+                unsorted.add(clause);
+            }
+        }
+        final Clause[] counted = unsorted.toArray(new Clause[unsorted.size()]);
+        assertEquals(this.widgets.query(counted).countMatches(), memory.countMatches());
+        assertEquals(this.widgets.query(counted).countMatches(3), memory.countMatches(3));
+        if (sorted)
+        {
+            assertEquals(expected.get(0), memory.firstMatch().getPrimaryKey());
+        }
+    }
+
+    /**
+     * @param ids
+     *            Ids
+     * @param sorted
+     *            True if the query sorted them
+     * @return The ids, in the order the JPA query returned them
+     */
+    private List<Long> ordered(final List<Long> ids, final boolean sorted)
+    {
+        if (!sorted)
+        {
+            Collections.sort(ids);
+        }
+        return ids;
+    }
+
+    private Widget widget(final String name, final int rank, final Maker maker)
+    {
+        final Widget widget = new Widget(name, rank);
+        widget.setMaker(maker);
+        return widget;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.persistence.dao.query;
+
+import junit.framework.TestCase;
+
+import com.locke.library.persistence.dao.query.clauses.BatchFetch;
+import com.locke.library.persistence.dao.query.clauses.Project;
+import com.locke.library.persistence.dao.query.clauses.Set;
+
+/**
+ * Tests that clauses only accept dotted identifiers as property paths
+ * 
+ * @author Jonathan Locke
+ */
+public class PropertyPathTest extends TestCase
+{
+    private static final String[] INVALID =
+            { null, "", "name desc", "name, id", "a..b", ".a", "a.", "1a", "id) or (1=1" };
+
+    public void testBatchFetch()
+    {
+        assertEquals("maker", new BatchFetch("maker").getField());
+        for (final String path : INVALID)
+        {
+            try
+            {
+                new BatchFetch(path);
+                fail(path);
+            }
+            catch (final IllegalArgumentException e)
+            {
+            }
+        }
+    }
+
+    public void testCheck()
+    {
+        assertEquals("name", PropertyPath.check("name"));
+        assertEquals("maker.name", PropertyPath.check("maker.name"));
+        assertEquals("_a1.b_2", PropertyPath.check("_a1.b_2"));
+        for (final String path : INVALID)
+        {
+            try
+            {
+                PropertyPath.check(path);
+                fail(path);
+            }
+            catch (final IllegalArgumentException e)
+            {
+            }
+        }
+    }
+
+    public void testProject()
+    {
+        assertEquals(2, new Project("name", "maker.name").getProperties().length);
+        for (final String path : INVALID)
+        {
+            try
+            {
+                new Project("id", path);
+                fail(path);
+            }
+            catch (final IllegalArgumentException e)
+            {
+            }
+        }
+    }
+
+    public void testSet()
+    {
+        assertEquals("name", new Set("name", null).getField());
+        for (final String path : INVALID)
+        {
+            try
+            {
+                new Set(path, "value");
+                fail(path);
+            }
+            catch (final IllegalArgumentException e)
+            {
+            }
+        }
+    }
+}
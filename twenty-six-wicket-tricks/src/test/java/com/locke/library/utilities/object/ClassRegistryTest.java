@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.utilities.object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Stress tests {@link ClassRegistry} with many threads requesting the same
+ * classes at once
+ * 
+ * @author Jonathan Locke
+ */
+public class ClassRegistryTest extends TestCase
+{
+    private static final Class<?>[] CLASSES = { Boolean.class, Byte.class, Character.class,
+            Double.class, Float.class, Integer.class, Long.class, Object.class, Short.class,
+            String.class, StringBuilder.class, Thread.class, ArrayList.class, List.class,
+            ConcurrentHashMap.class, AtomicInteger.class };
+
+    private static final int THREADS = 32;
+
+    public void testComputesEachValueOnce() throws Exception
+    {
+        for (int round = 0; round < 20; round++)
+        {
+            final ConcurrentHashMap<Class<?>, AtomicInteger> computations =
+                    new ConcurrentHashMap<Class<?>, AtomicInteger>();
+            final ClassRegistry<Object> registry = new ClassRegistry<Object>()
+            {
+                @Override
+                protected Object computeValue(final Class<?> type)
+                {
+                    computations.putIfAbsent(type, new AtomicInteger());
+                    computations.get(type).incrementAndGet();
+
+                    // Widen the window for a second computation
+                    Thread.yield();
+                    return new Object();
+                }
+            };
+            final List<List<Object>> results = race(new Callable<List<Object>>()
+            {
+                public List<Object> call()
+                {
+                    final List<Object> values = new ArrayList<Object>();
+                    for (final Class<?> type : CLASSES)
+                    {
+                        values.add(registry.get(type));
+                    }
+                    return values;
+                }
+            });
+            for (final Class<?> type : CLASSES)
+            {
+                assertEquals(type.toString(), 1, computations.get(type).get());
+            }
+            for (final List<Object> values : results)
+            {
+                for (int i = 0; i < CLASSES.length; i++)
+                {
+                    assertSame(results.get(0).get(i), values.get(i));
+                }
+            }
+        }
+    }
+
+    public void testFailedComputationIsRetried()
+    {
+        final AtomicInteger attempts = new AtomicInteger();
+        final ClassRegistry<String> registry = new ClassRegistry<String>()
+        {
+            @Override
+            protected String computeValue(final Class<?> type)
+            {
+                if (attempts.incrementAndGet() == 1)
+                {
+                    throw new IllegalArgumentException("first attempt");
+                }
+                return type.getName();
+            }
+        };
+        try
+        {
+            registry.get(String.class);
+            fail();
+        }
+        catch (final IllegalArgumentException e)
+        {
+        }
+        assertEquals("java.lang.String", registry.get(String.class));
+        assertEquals("java.lang.String", registry.get(String.class));
+        assertEquals(2, attempts.get());
+    }
+
+    public void testRemoveRecomputes()
+    {
+        final AtomicInteger attempts = new AtomicInteger();
+        final ClassRegistry<Integer> registry = new ClassRegistry<Integer>()
+        {
+            @Override
+            protected Integer computeValue(final Class<?> type)
+            {
+                return attempts.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), registry.get(String.class));
+        registry.remove(String.class);
+        assertEquals(Integer.valueOf(2), registry.get(String.class));
+    }
+
+    /**
+     * Runs the given task on many threads released at the same moment
+     * 
+     * @param task
+     *            The task
+     * @return The result from each thread
+     */
+    static <V> List<V> race(final Callable<V> task) throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            final CountDownLatch ready = new CountDownLatch(THREADS);
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<V>> futures = new ArrayList<Future<V>>();
+            for (int i = 0; i < THREADS; i++)
+            {
+                futures.add(executor.submit(new Callable<V>()
+                {
+                    public V call() throws Exception
+                    {
+                        ready.countDown();
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            ready.await();
+            start.countDown();
+            final List<V> results = new ArrayList<V>();
+            for (final Future<V> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.utilities.object;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link Type} metadata is consistent when many threads request it
+ * at once
+ * 
+ * @author Jonathan Locke
+ */
+public class TypeTest extends TestCase
+{
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Marked
+    {
+    }
+
+    public static class Base
+    {
+        @Marked
+        public void a()
+        {
+        }
+    }
+
+    public static class Derived extends Base
+    {
+        @Marked
+        public void b()
+        {
+        }
+
+        public void c()
+        {
+        }
+    }
+
+    public void testConcurrentAnnotatedMethods() throws Exception
+    {
+        final List<Iterable<Method>> results =
+                ClassRegistryTest.race(new Callable<Iterable<Method>>()
+        {
+            public Iterable<Method> call()
+            {
+                return Type.forClass(Derived.class).annotatedMethods(Marked.class);
+            }
+        });
+        final List<String> names = new ArrayList<String>();
+        for (final Method method : results.get(0))
+        {
+            names.add(method.getName());
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.contains("a"));
+        assertTrue(names.contains("b"));
+        for (final Iterable<Method> methods : results)
+        {
+            assertSame(results.get(0), methods);
+        }
+    }
+
+    public void testConcurrentForClass() throws Exception
+    {
+        final List<Type> results = ClassRegistryTest.race(new Callable<Type>()
+        {
+            public Type call()
+            {
+                return Type.forClass(Derived.class);
+            }
+        });
+        for (final Type type : results)
+        {
+            assertSame(results.get(0), type);
+        }
+    }
+
+    public void testInheritedMethods()
+    {
+        int count = 0;
+        for (final Method method : Type.forClass(Derived.class).methods())
+        {
+            if (method.getName().length() == 1)
+            {
+                count++;
+            }
+        }
+        assertEquals(3, count);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.locke.library.web.models;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.apache.wicket.util.tester.WicketTester;
+
+import com.locke.library.persistence.dao.IDao;
+import com.locke.library.persistence.dao.jpa.JpaTestSupport;
+import com.locke.library.persistence.dao.jpa.TestDao;
+import com.locke.library.persistence.dao.jpa.Widget;
+
+/**
+ * Tests that models batch their reads within a request and never see objects
+ * that have been deleted, saved or detached
+ * 
+ * @author Jonathan Locke
+ */
+public class DaoBatchLoaderTest extends JpaTestSupport
+{
+    /**
+     * Ids read by each call to the DAO
+     */
+    private final List<List<Long>> reads = new ArrayList<List<Long>>();
+
+    private WicketTester tester;
+    private List<Widget> created;
+
+    public void testBatchesDeferredModels()
+    {
+        final List<WidgetModel> models = new ArrayList<WidgetModel>();
+        for (final Widget widget : this.created)
+        {
+            models.add(new WidgetModel(widget.getPrimaryKey()));
+        }
+        for (final WidgetModel model : models)
+        {
+            assertNotNull(model.getObject());
+        }
+        assertEquals(1, this.reads.size());
+        assertEquals(ids(this.created), this.reads.get(0));
+    }
+
+    public void testEvictsOnDelete()
+    {
+        final Long id = this.created.get(0).getPrimaryKey();
+        final WidgetModel deleted = new WidgetModel(id);
+        final WidgetModel other = new WidgetModel(id);
+        assertNotNull(deleted.getObject());
+        begin();
+        deleted.delete();
+        commit();
+        assertNull(other.getObject());
+        assertEquals(2, this.reads.size());
+    }
+
+    public void testEvictsOnDetach()
+    {
+        final Long id = this.created.get(0).getPrimaryKey();
+        final WidgetModel model = new WidgetModel(id);
+        assertNotNull(model.getObject());
+        model.detach();
+        assertNotNull(new WidgetModel(id).getObject());
+        assertEquals(2, this.reads.size());
+    }
+
+    public void testEvictsOnSave()
+    {
+        final Long id = this.created.get(0).getPrimaryKey();
+        final WidgetModel saved = new WidgetModel(id);
+        saved.getObject().setName("renamed");
+        begin();
+        saved.save();
+        commit();
+        assertEquals("renamed", new WidgetModel(id).getObject().getName());
+        assertEquals(2, this.reads.size());
+    }
+
+    public void testSkipsModelsNoLongerDeferred()
+    {
+        // A model that is garbage collected before the first load
+        WidgetModel discarded = new WidgetModel(this.created.get(0).getPrimaryKey());
+        final WeakReference<WidgetModel> reference = new WeakReference<WidgetModel>(discarded);
+        discarded = null;
+        for (int i = 0; reference.get() != null && i < 100; i++)
+        {
+            System.gc();
+        }
+        assertNull(reference.get());
+
+        // and one that has already loaded its object
+        final WidgetModel loaded = new WidgetModel(this.created.get(1).getPrimaryKey());
+        assertNotNull(this.widgets.read(loaded.getObject().getPrimaryKey()));
+        this.reads.clear();
+
+        final WidgetModel used = new WidgetModel(this.created.get(2).getPrimaryKey());
+        assertNotNull(used.getObject());
+        assertEquals(1, this.reads.size());
+        assertEquals(ids(this.created.subList(2, 3)), this.reads.get(0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.widgets = new TestDao<Widget, Long>(Widget.class, null)
+        {
+            @Override
+            public Map<Long, Widget> read(final Collection<Long> ids)
+            {
+                DaoBatchLoaderTest.this.reads.add(new ArrayList<Long>(ids));
+                return super.read(ids);
+            }
+
+            @Override
+            protected EntityManager getEntityManager()
+            {
+                return DaoBatchLoaderTest.this.entityManager();
+            }
+        };
+        this.created = createWidgets(5, 5);
+        this.tester = new WicketTester();
+        this.tester.setupRequestAndResponse();
+        this.tester.createRequestCycle();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+        this.tester.destroy();
+        super.tearDown();
+    }
+
+    /**
+     * Model for widgets read by the test DAO
+     */
+    private class WidgetModel extends AbstractDaoModel<Widget, Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        WidgetModel(final Long id)
+        {
+            super(id);
+        }
+
+        @Override
+        protected IDao<Widget, Long> getDao()
+        {
+            return DaoBatchLoaderTest.this.widgets;
+        }
+    }
+}